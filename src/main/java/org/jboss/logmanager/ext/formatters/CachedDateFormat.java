@@ -0,0 +1,207 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A date format which renders a {@link SimpleDateFormat} pattern at most once per second.
+ * <p>
+ * The rendered text for the current second is cached. If the pattern contains a fixed width millisecond field the
+ * digits are patched into the cached text. The position of the digits is found again each time the cached second is
+ * replaced, as fields such as the hour or day name before the milliseconds may change width. Patterns which render
+ * the milliseconds in some other way are cached for the current millisecond only. Each rendering is identical to the
+ * one produced by {@link SimpleDateFormat}.
+ * </p>
+ * <p>
+ * Instances are not thread-safe and are expected to be held per thread. A shared instance would require a lock around
+ * the {@link SimpleDateFormat} and threads formatting records from different seconds would keep replacing each others
+ * cached second.
+ * </p>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class CachedDateFormat {
+
+    /**
+     * The text does not change within a second.
+     */
+    private static final int SECOND = 0;
+    /**
+     * The text does not change within a second except for three millisecond digits.
+     */
+    private static final int PATCHED_SECOND = 1;
+    /**
+     * The text can only be reused for the same millisecond.
+     */
+    private static final int MILLISECOND = 2;
+
+    private final String pattern;
+    private final SimpleDateFormat dateFormat;
+    private final Date date = new Date();
+    private final int mode;
+    private Entry entry;
+
+    /**
+     * Creates a new date format.
+     *
+     * @param pattern the {@link SimpleDateFormat} pattern
+     *
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    CachedDateFormat(final String pattern) {
+        this.pattern = pattern;
+        dateFormat = new SimpleDateFormat(pattern);
+        // Determine how the milliseconds affect the rendered text
+        final long second = (System.currentTimeMillis() / 1000L) * 1000L;
+        final String zero = render(second);
+        final String first = render(second + 987L);
+        final String second654 = render(second + 654L);
+        final int index;
+        if (zero.equals(first) && zero.equals(second654)) {
+            mode = SECOND;
+            index = -1;
+        } else {
+            index = findMillisIndex(zero, first, second654);
+            mode = (index >= 0 ? PATCHED_SECOND : MILLISECOND);
+        }
+        entry = new Entry(second, zero, index);
+    }
+
+    /**
+     * Returns the pattern used for formatting.
+     *
+     * @return the pattern
+     */
+    String toPattern() {
+        return pattern;
+    }
+
+    /**
+     * Formats the time into a string.
+     *
+     * @param millis the time in milliseconds
+     *
+     * @return the formatted time
+     */
+    String format(final long millis) {
+        if (mode == PATCHED_SECOND) {
+            final StringBuilder result = new StringBuilder(32);
+            formatTo(millis, result);
+            return result.toString();
+        }
+        return getEntry(millis).value;
+    }
+
+    /**
+     * Formats the time appending it to the builder. No objects are created unless the cached value for the current
+     * second needs to be replaced.
+     *
+     * @param millis the time in milliseconds
+     * @param target the builder to append the formatted time to
+     */
+    void formatTo(final long millis, final StringBuilder target) {
+        final Entry entry = getEntry(millis);
+        if (mode == PATCHED_SECOND) {
+            final int index = entry.millisIndex;
+            if (index < 0) {
+                // The milliseconds could not be located for this second
+                target.append(render(millis));
+                return;
+            }
+            final char[] chars = entry.chars;
+            final int ms = (int) (millis - entry.key);
+            target.append(chars, 0, index)
+                    .append((char) ('0' + ms / 100))
+                    .append((char) ('0' + (ms / 10) % 10))
+                    .append((char) ('0' + ms % 10))
+                    .append(chars, index + 3, chars.length - index - 3);
+        } else {
+            target.append(entry.chars);
+        }
+    }
+
+    private Entry getEntry(final long millis) {
+        final long key = (mode == MILLISECOND ? millis : floorSecond(millis));
+        Entry entry = this.entry;
+        if (entry.key != key) {
+            final String value = render(key);
+            final int index = (mode == PATCHED_SECOND ? findMillisIndex(value, render(key + 987L), render(key + 654L)) : -1);
+            entry = new Entry(key, value, index);
+            this.entry = entry;
+        }
+        return entry;
+    }
+
+    /**
+     * Finds the position of the millisecond digits by comparing renderings of the same second.
+     *
+     * @param zero      the text for millisecond 000
+     * @param first     the text for millisecond 987
+     * @param second654 the text for millisecond 654
+     *
+     * @return the index of the three millisecond digits or -1 if the texts differ in any other way
+     */
+    private static int findMillisIndex(final String zero, final String first, final String second654) {
+        final int length = zero.length();
+        if (first.length() != length || second654.length() != length) {
+            return -1;
+        }
+        int index = 0;
+        while (index < length && zero.charAt(index) == first.charAt(index)) {
+            index++;
+        }
+        if (index > length - 3) {
+            return -1;
+        }
+        final int end = index + 3;
+        if (zero.regionMatches(index, "000", 0, 3) && first.regionMatches(index, "987", 0, 3)
+                && second654.regionMatches(index, "654", 0, 3) && zero.regionMatches(0, second654, 0, index)
+                && zero.regionMatches(end, first, end, length - end) && zero.regionMatches(end, second654, end, length - end)) {
+            return index;
+        }
+        return -1;
+    }
+
+    private String render(final long millis) {
+        date.setTime(millis);
+        return dateFormat.format(date);
+    }
+
+    private static long floorSecond(final long millis) {
+        final long result = (millis / 1000L) * 1000L;
+        return (result > millis ? result - 1000L : result);
+    }
+
+    private static final class Entry {
+        final long key;
+        final String value;
+        final char[] chars;
+        final int millisIndex;
+
+        private Entry(final long key, final String value, final int millisIndex) {
+            this.key = key;
+            this.value = value;
+            this.millisIndex = millisIndex;
+            chars = value.toCharArray();
+        }
+    }
+}
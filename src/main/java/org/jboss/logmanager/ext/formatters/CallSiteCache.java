@@ -0,0 +1,246 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of resolved call sites. Entries are keyed by the class, method name and bytecode index of the
+ * calling frame which identifies the call site without resolving the file name and line number of the frame.
+ * <p>
+ * The class is compared by identity so classes of the same name defined by different class loaders, for example two
+ * deployments of the same application, are separate call sites. The class is held weakly, once a class is collected
+ * its entries are removed.
+ * </p>
+ * <p>
+ * Call sites are generally a stable set. Once the cache is full new call sites are resolved, but not cached.
+ * </p>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class CallSiteCache {
+
+    private final int maxSize;
+    private final ConcurrentMap<Key, StackTraceElement> entries;
+    private final ReferenceQueue<Class<?>> collected = new ReferenceQueue<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize the maximum number of call sites to retain
+     */
+    CallSiteCache(final int maxSize) {
+        this.maxSize = maxSize;
+        entries = new ConcurrentHashMap<>(Math.min(maxSize, 256));
+    }
+
+    /**
+     * Gets the resolved call site.
+     *
+     * @param type          the calling class
+     * @param methodName    the name of the calling method
+     * @param byteCodeIndex the bytecode index of the call
+     *
+     * @return the resolved call site or {@code null} if the call site has not been cached
+     */
+    StackTraceElement get(final Class<?> type, final String methodName, final int byteCodeIndex) {
+        final StackTraceElement result = entries.get(new LookupKey(type, methodName, byteCodeIndex));
+        if (result == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Caches the resolved call site if the cache is not full.
+     *
+     * @param type          the calling class
+     * @param methodName    the name of the calling method
+     * @param byteCodeIndex the bytecode index of the call
+     * @param callSite      the resolved call site
+     */
+    void put(final Class<?> type, final String methodName, final int byteCodeIndex, final StackTraceElement callSite) {
+        expunge();
+        if (entries.size() < maxSize) {
+            entries.putIfAbsent(new EntryKey(type, methodName, byteCodeIndex, collected), callSite);
+        }
+    }
+
+    /**
+     * Returns the number of call sites currently cached.
+     *
+     * @return the number of cached call sites
+     */
+    int size() {
+        expunge();
+        return entries.size();
+    }
+
+    /**
+     * Returns the maximum number of call sites retained.
+     *
+     * @return the maximum size
+     */
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of times a call site was found in the cache.
+     *
+     * @return the number of cache hits
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of times a call site was not found in the cache.
+     *
+     * @return the number of cache misses
+     */
+    long getMisses() {
+        return misses.get();
+    }
+
+    private void expunge() {
+        Object key;
+        while ((key = collected.poll()) != null) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * The identity of a call site. The key stored in the cache holds the class weakly, the key used for a lookup
+     * holds the class directly.
+     */
+    private interface Key {
+        Class<?> getType();
+
+        String getMethodName();
+
+        int getByteCodeIndex();
+    }
+
+    private static int hash(final Class<?> type, final String methodName, final int byteCodeIndex) {
+        int hash = 17;
+        hash = 31 * hash + System.identityHashCode(type);
+        hash = 31 * hash + methodName.hashCode();
+        hash = 31 * hash + byteCodeIndex;
+        return hash;
+    }
+
+    private static boolean equals(final Key key, final Object obj) {
+        if (obj == key) {
+            return true;
+        }
+        if (!(obj instanceof Key)) {
+            return false;
+        }
+        final Key other = (Key) obj;
+        final Class<?> type = key.getType();
+        return type != null && key.getByteCodeIndex() == other.getByteCodeIndex() && type == other.getType()
+                && key.getMethodName().equals(other.getMethodName());
+    }
+
+    private static final class LookupKey implements Key {
+        private final Class<?> type;
+        private final String methodName;
+        private final int byteCodeIndex;
+
+        private LookupKey(final Class<?> type, final String methodName, final int byteCodeIndex) {
+            this.type = type;
+            this.methodName = methodName;
+            this.byteCodeIndex = byteCodeIndex;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @Override
+        public String getMethodName() {
+            return methodName;
+        }
+
+        @Override
+        public int getByteCodeIndex() {
+            return byteCodeIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash(type, methodName, byteCodeIndex);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return CallSiteCache.equals(this, obj);
+        }
+    }
+
+    private static final class EntryKey extends WeakReference<Class<?>> implements Key {
+        private final String methodName;
+        private final int byteCodeIndex;
+        private final int hashCode;
+
+        private EntryKey(final Class<?> type, final String methodName, final int byteCodeIndex,
+                         final ReferenceQueue<Class<?>> queue) {
+            super(type, queue);
+            this.methodName = methodName;
+            this.byteCodeIndex = byteCodeIndex;
+            hashCode = hash(type, methodName, byteCodeIndex);
+        }
+
+        @Override
+        public Class<?> getType() {
+            return get();
+        }
+
+        @Override
+        public String getMethodName() {
+            return methodName;
+        }
+
+        @Override
+        public int getByteCodeIndex() {
+            return byteCodeIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return CallSiteCache.equals(this, obj);
+        }
+    }
+}
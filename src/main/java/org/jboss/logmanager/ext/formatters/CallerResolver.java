@@ -0,0 +1,291 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.jboss.logmanager.ExtLogRecord;
+
+/**
+ * Resolves the caller of a record using a {@code java.lang.StackWalker} when running on Java 9 or higher.
+ * <p>
+ * {@link ExtLogRecord} calculates the caller by capturing the full stack trace of the current thread. The stack
+ * walker only walks the frames required to find the caller, at most {@value #MAX_FRAMES} frames, and only resolves
+ * the file name and line number of the calling frame. Resolved call sites can be cached in a {@link CallSiteCache}.
+ * </p>
+ * <p>
+ * The project is compiled for Java 7 so the stack walker is accessed reflectively and the walk function is a
+ * {@link Proxy}. Whether the record still needs its caller calculated is read from the private
+ * {@code ExtLogRecord.calculateCaller} field. Nothing is looked up until the resolver is first used, which only
+ * happens when a formatter {@linkplain StructuredFormatter#setUseStackWalker(boolean) enables} it. If the stack walker
+ * or the field is not available, the records caller has already been calculated or the caller could not be found
+ * within the frame limit the record calculates the caller itself.
+ * </p>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class CallerResolver {
+
+    /**
+     * The maximum number of frames walked before the caller calculation is left to the record.
+     */
+    static final int MAX_FRAMES = 128;
+
+    private static final Object UNKNOWN_CALLER = new Object();
+
+    private CallerResolver() {
+    }
+
+    /**
+     * Indicates whether or not the stack walker is available.
+     *
+     * @return {@code true} if callers are resolved with a stack walker, otherwise {@code false}
+     */
+    static boolean isAvailable() {
+        return Holder.WALKER != null;
+    }
+
+    /**
+     * Resolves the caller for the record and sets the source class name, method name, file name and line number on
+     * the record. This is a no-op if the caller of the record has already been calculated or set.
+     *
+     * @param record the record to resolve the caller for
+     * @param cache  the cache of resolved call sites or {@code null} if call sites are not cached
+     */
+    static void resolve(final ExtLogRecord record, final CallSiteCache cache) {
+        final Walker walker = Holder.WALKER;
+        final String loggerClassName = record.getLoggerClassName();
+        if (walker == null || loggerClassName == null || !isCalculationRequired(record)) {
+            return;
+        }
+        final Object caller = walker.findCaller(loggerClassName, cache);
+        if (caller == UNKNOWN_CALLER) {
+            record.disableCallerCalculation();
+        } else if (caller != null) {
+            final StackTraceElement element = (StackTraceElement) caller;
+            record.setSourceClassName(element.getClassName());
+            record.setSourceMethodName(element.getMethodName());
+            record.setSourceLineNumber(element.getLineNumber());
+            record.setSourceFileName(element.getFileName());
+        }
+    }
+
+    private static boolean isCalculationRequired(final ExtLogRecord record) {
+        try {
+            return (boolean) Holder.CALCULATE_CALLER_GETTER.invokeExact(record);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private static MethodHandle findGetter() {
+        return AccessController.doPrivileged(new PrivilegedAction<MethodHandle>() {
+            @Override
+            public MethodHandle run() {
+                try {
+                    final Field field = ExtLogRecord.class.getDeclaredField("calculateCaller");
+                    if (field.getType() != boolean.class) {
+                        return null;
+                    }
+                    field.setAccessible(true);
+                    return MethodHandles.lookup().unreflectGetter(field)
+                            .asType(MethodType.methodType(boolean.class, ExtLogRecord.class));
+                } catch (Exception ignore) {
+                    // Includes an InaccessibleObjectException on newer JVMs
+                    return null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Initialized on first use so the field and stack walker are only looked up once the resolver is enabled.
+     */
+    private static final class Holder {
+        static final MethodHandle CALCULATE_CALLER_GETTER = findGetter();
+        static final Walker WALKER = (CALCULATE_CALLER_GETTER == null ? null : Walker.create());
+    }
+
+    /**
+     * The reflective view of a {@code java.lang.StackWalker}.
+     */
+    private static final class Walker {
+        private final MethodHandle walk;
+        private final Class<?> functionType;
+        private final MethodHandle iterator;
+        private final MethodHandle getClassName;
+        private final MethodHandle getDeclaringClass;
+        private final MethodHandle getMethodName;
+        private final MethodHandle getByteCodeIndex;
+        private final MethodHandle toStackTraceElement;
+
+        private Walker(final MethodHandle walk, final Class<?> functionType, final MethodHandle iterator,
+                       final MethodHandle getClassName, final MethodHandle getDeclaringClass,
+                       final MethodHandle getMethodName, final MethodHandle getByteCodeIndex,
+                       final MethodHandle toStackTraceElement) {
+            this.walk = walk;
+            this.functionType = functionType;
+            this.iterator = iterator;
+            this.getClassName = getClassName;
+            this.getDeclaringClass = getDeclaringClass;
+            this.getMethodName = getMethodName;
+            this.getByteCodeIndex = getByteCodeIndex;
+            this.toStackTraceElement = toStackTraceElement;
+        }
+
+        static Walker create() {
+            return AccessController.doPrivileged(new PrivilegedAction<Walker>() {
+                @Override
+                @SuppressWarnings({"unchecked", "rawtypes"})
+                public Walker run() {
+                    try {
+                        final Class<?> walkerType = Class.forName("java.lang.StackWalker");
+                        final Class optionType = Class.forName("java.lang.StackWalker$Option");
+                        final Class<?> frameType = Class.forName("java.lang.StackWalker$StackFrame");
+                        final Class<?> functionType = Class.forName("java.util.function.Function");
+                        final Class<?> streamType = Class.forName("java.util.stream.BaseStream");
+                        final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                        // Reflection frames are included to find the same caller as the record would, the class
+                        // reference is retained to key the call site cache
+                        final Object stackWalker = walkerType.getMethod("getInstance", Set.class)
+                                .invoke(null, EnumSet.of(Enum.valueOf(optionType, "SHOW_REFLECT_FRAMES"),
+                                        Enum.valueOf(optionType, "RETAIN_CLASS_REFERENCE")));
+                        // The walk method is caller sensitive and requires a full privilege lookup
+                        final MethodHandle walk = MethodHandles.lookup()
+                                .findVirtual(walkerType, "walk", MethodType.methodType(Object.class, functionType))
+                                .bindTo(stackWalker)
+                                .asType(MethodType.methodType(Object.class, Object.class));
+                        return new Walker(walk, functionType,
+                                find(lookup, streamType, "iterator", Iterator.class),
+                                find(lookup, frameType, "getClassName", String.class),
+                                find(lookup, frameType, "getDeclaringClass", Class.class),
+                                find(lookup, frameType, "getMethodName", String.class),
+                                find(lookup, frameType, "getByteCodeIndex", int.class),
+                                find(lookup, frameType, "toStackTraceElement", StackTraceElement.class));
+                    } catch (Throwable ignore) {
+                        // Running on Java 7 or 8, or the stack walker is not accessible
+                        return null;
+                    }
+                }
+            });
+        }
+
+        private static MethodHandle find(final MethodHandles.Lookup lookup, final Class<?> type, final String name,
+                                         final Class<?> returnType) throws ReflectiveOperationException {
+            return lookup.findVirtual(type, name, MethodType.methodType(returnType))
+                    .asType(MethodType.methodType(returnType, Object.class));
+        }
+
+        /**
+         * Walks the stack of the current thread to find the caller.
+         *
+         * @param loggerClassName the name of the logger class
+         * @param cache           the call site cache or {@code null}
+         *
+         * @return the {@link StackTraceElement} of the caller, {@link #UNKNOWN_CALLER} if the stack does not contain
+         * the logger class or {@code null} if the frame limit was reached
+         */
+        Object findCaller(final String loggerClassName, final CallSiteCache cache) {
+            final Object function = Proxy.newProxyInstance(CallerResolver.class.getClassLoader(),
+                    new Class<?>[] {functionType}, new Walk(this, loggerClassName, cache));
+            try {
+                return walk.invokeExact(function);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        private Object findCaller(final Iterator<?> frames, final String loggerClassName, final CallSiteCache cache)
+                throws Throwable {
+            boolean found = false;
+            int count = 0;
+            while (frames.hasNext()) {
+                if (count++ == MAX_FRAMES) {
+                    return null;
+                }
+                final Object frame = frames.next();
+                final String className = (String) getClassName.invokeExact(frame);
+                if (loggerClassName.equals(className)) {
+                    found = true;
+                } else if (found) {
+                    if (cache == null) {
+                        return (StackTraceElement) toStackTraceElement.invokeExact(frame);
+                    }
+                    final Class<?> type = (Class<?>) getDeclaringClass.invokeExact(frame);
+                    final String methodName = (String) getMethodName.invokeExact(frame);
+                    final int byteCodeIndex = (int) getByteCodeIndex.invokeExact(frame);
+                    StackTraceElement result = cache.get(type, methodName, byteCodeIndex);
+                    if (result == null) {
+                        result = (StackTraceElement) toStackTraceElement.invokeExact(frame);
+                        cache.put(type, methodName, byteCodeIndex, result);
+                    }
+                    return result;
+                }
+            }
+            return UNKNOWN_CALLER;
+        }
+    }
+
+    /**
+     * The function applied to the stack frames of a single walk.
+     */
+    private static final class Walk implements InvocationHandler {
+        private final Walker walker;
+        private final String loggerClassName;
+        private final CallSiteCache cache;
+
+        private Walk(final Walker walker, final String loggerClassName, final CallSiteCache cache) {
+            this.walker = walker;
+            this.loggerClassName = loggerClassName;
+            this.cache = cache;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "apply":
+                    return walker.findCaller((Iterator<?>) walker.iterator.invokeExact(args[0]), loggerClassName, cache);
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "CallerResolver";
+                default:
+                    throw new UnsupportedOperationException(method.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+import javax.json.JsonWriterFactory;
+
+import org.jboss.logmanager.ext.formatters.StructuredFormatter.Key;
+
+/**
+ * Rebuilds the full records written by a {@link JsonFormatter} in {@linkplain StructuredFormatter#setUseDictionary(boolean)
+ * dictionary mode}. The dictionary entries defined by each record are retained and the references in the record are
+ * replaced with the values they refer to. The decoded record is the same as the record written without dictionary
+ * mode.
+ * <p>
+ * A decoder must be used for a single stream of records, e.g. a single connection from a
+ * {@link org.jboss.logmanager.ext.handlers.SocketHandler}, and the records must be decoded in the order they were
+ * written. A decoder is not thread-safe. The {@code javax.json} API and a provider are required on the class path.
+ * </p>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class DictionaryDecoder {
+    private final String[] keys;
+    private final Map<Integer, JsonValue> entries = new HashMap<>();
+    private final JsonBuilderFactory builderFactory;
+    private final JsonReaderFactory readerFactory;
+    private final JsonWriterFactory writerFactory;
+
+    /**
+     * Creates a decoder for records written with the default keys.
+     */
+    public DictionaryDecoder() {
+        this(null);
+    }
+
+    /**
+     * Creates a decoder for records written with the key overrides.
+     *
+     * @param keyOverrides the key overrides the records were written with or {@code null} if the default keys were
+     *                     used
+     */
+    public DictionaryDecoder(final Map<Key, String> keyOverrides) {
+        final Map<Key, String> overrides = (keyOverrides == null ? Collections.<Key, String>emptyMap() : keyOverrides);
+        final Key[] values = Key.values();
+        keys = new String[values.length];
+        for (Key key : values) {
+            keys[key.ordinal()] = (overrides.containsKey(key) ? overrides.get(key) : key.getKey());
+        }
+        builderFactory = Json.createBuilderFactory(null);
+        readerFactory = Json.createReaderFactory(null);
+        writerFactory = Json.createWriterFactory(null);
+    }
+
+    /**
+     * Decodes a record.
+     *
+     * @param record the JSON record to decode
+     *
+     * @return the full JSON record
+     *
+     * @throws IllegalArgumentException if the record references a dictionary entry which has not been defined
+     */
+    public String decode(final String record) {
+        final JsonObject json;
+        try (JsonReader reader = readerFactory.createReader(new StringReader(record))) {
+            json = reader.readObject();
+        }
+        final StringWriter result = new StringWriter(record.length() << 1);
+        try (JsonWriter writer = writerFactory.createWriter(result)) {
+            writer.writeObject(decode(json));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Decodes a record.
+     *
+     * @param record the record to decode
+     *
+     * @return the full record
+     *
+     * @throws IllegalArgumentException if the record references a dictionary entry which has not been defined
+     */
+    public JsonObject decode(final JsonObject record) {
+        // Definitions may be referenced by the record which defines them
+        final JsonArray dictionary = record.getJsonArray(getKey(Key.DICTIONARY));
+        if (dictionary != null) {
+            define(dictionary);
+        }
+        final JsonObjectBuilder builder = builderFactory.createObjectBuilder();
+        for (Map.Entry<String, JsonValue> entry : record.entrySet()) {
+            final String name = entry.getKey();
+            final JsonValue value = entry.getValue();
+            if (name.equals(getKey(Key.DICTIONARY))) {
+                continue;
+            }
+            if (name.equals(getKey(Key.LOGGER_NAME)) || name.equals(getKey(Key.MESSAGE_TEMPLATE))) {
+                builder.add(name, resolve(value));
+            } else if (name.equals(getKey(Key.MDC)) && value.getValueType() == JsonValue.ValueType.ARRAY) {
+                builder.add(name, decodeMdc((JsonArray) value));
+            } else if (name.equals(getKey(Key.EXCEPTION)) && value.getValueType() == JsonValue.ValueType.OBJECT) {
+                builder.add(name, decodeException((JsonObject) value));
+            } else {
+                builder.add(name, value);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Discards the dictionary entries. Should be invoked when the records are read from a new stream.
+     */
+    public void reset() {
+        entries.clear();
+    }
+
+    private void define(final JsonArray dictionary) {
+        final String idKey = getKey(Key.DICTIONARY_ID);
+        final String valueKey = getKey(Key.DICTIONARY_VALUE);
+        for (JsonObject entry : dictionary.getValuesAs(JsonObject.class)) {
+            final int id = entry.getInt(idKey);
+            if (entry.containsKey(valueKey)) {
+                entries.put(id, entry.get(valueKey));
+            } else {
+                // A stack frame, the entry without the id is the frame
+                final JsonObjectBuilder frame = builderFactory.createObjectBuilder();
+                for (Map.Entry<String, JsonValue> value : entry.entrySet()) {
+                    if (!value.getKey().equals(idKey)) {
+                        frame.add(value.getKey(), value.getValue());
+                    }
+                }
+                entries.put(id, frame.build());
+            }
+        }
+    }
+
+    private JsonObject decodeMdc(final JsonArray mdc) {
+        final String valueKey = getKey(Key.DICTIONARY_VALUE);
+        final JsonObjectBuilder builder = builderFactory.createObjectBuilder();
+        for (JsonObject entry : mdc.getValuesAs(JsonObject.class)) {
+            final JsonValue key = resolve(entry);
+            if (key.getValueType() != JsonValue.ValueType.STRING) {
+                throw new IllegalArgumentException("The MDC key is not a string: " + entry);
+            }
+            builder.add(((JsonString) key).getString(), entry.get(valueKey));
+        }
+        return builder.build();
+    }
+
+    private JsonObject decodeException(final JsonObject exception) {
+        final JsonObjectBuilder builder = builderFactory.createObjectBuilder();
+        for (Map.Entry<String, JsonValue> entry : exception.entrySet()) {
+            final String name = entry.getKey();
+            final JsonValue value = entry.getValue();
+            if (name.equals(getKey(Key.EXCEPTION_FRAMES))) {
+                final JsonArrayBuilder frames = builderFactory.createArrayBuilder();
+                for (JsonValue frame : (JsonArray) value) {
+                    frames.add(resolve(frame));
+                }
+                builder.add(name, frames);
+            } else if (name.equals(getKey(Key.EXCEPTION_SUPPRESSED))) {
+                final JsonArrayBuilder suppressed = builderFactory.createArrayBuilder();
+                for (JsonObject e : ((JsonArray) value).getValuesAs(JsonObject.class)) {
+                    suppressed.add(decodeException(e));
+                }
+                builder.add(name, suppressed);
+            } else if (name.equals(getKey(Key.EXCEPTION_CAUSED_BY))) {
+                final JsonObject cause = ((JsonObject) value).getJsonObject(getKey(Key.EXCEPTION));
+                builder.add(name, builderFactory.createObjectBuilder().add(getKey(Key.EXCEPTION), decodeException(cause)));
+            } else {
+                builder.add(name, value);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the dictionary entry if the value is a reference, otherwise the value.
+     */
+    private JsonValue resolve(final JsonValue value) {
+        if (value.getValueType() != JsonValue.ValueType.OBJECT) {
+            return value;
+        }
+        final JsonObject object = (JsonObject) value;
+        final String refKey = getKey(Key.DICTIONARY_REFERENCE);
+        if (!object.containsKey(refKey)) {
+            return value;
+        }
+        final int id = object.getInt(refKey);
+        final JsonValue result = entries.get(id);
+        if (result == null) {
+            throw new IllegalArgumentException("The dictionary entry " + id + " has not been defined");
+        }
+        return result;
+    }
+
+    private String getKey(final Key key) {
+        return keys[key.ordinal()];
+    }
+}
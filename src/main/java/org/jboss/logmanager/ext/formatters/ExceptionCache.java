@@ -0,0 +1,212 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of the rendered stack trace frames of exceptions. Entries are keyed by the name of the exception
+ * type and its stack trace. The name is used rather than the type itself so the cache does not keep class loaders
+ * reachable. The least recently used entry is evicted once the cache is full.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class ExceptionCache {
+
+    private final int maxSize;
+    private final ConcurrentMap<Key, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize the maximum number of entries to retain
+     */
+    ExceptionCache(final int maxSize) {
+        this.maxSize = maxSize;
+        entries = new ConcurrentHashMap<>(Math.min(maxSize, 256));
+    }
+
+    /**
+     * Gets the entry for the exception type and stack trace creating it if required.
+     *
+     * @param type   the name of the exception type
+     * @param frames the stack trace of the exception
+     *
+     * @return the entry
+     */
+    Entry get(final String type, final StackTraceElement[] frames) {
+        final Key key = new Key(type, frames);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            entry.lastAccess = System.nanoTime();
+            return entry;
+        }
+        misses.incrementAndGet();
+        entry = new Entry(frames);
+        final Entry existing = entries.putIfAbsent(key, entry);
+        if (existing != null) {
+            return existing;
+        }
+        if (entries.size() > maxSize) {
+            evict();
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the maximum number of entries retained.
+     *
+     * @return the maximum size
+     */
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of lookups which found an existing entry.
+     *
+     * @return the number of hits
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups which created a new entry.
+     *
+     * @return the number of misses
+     */
+    long getMisses() {
+        return misses.get();
+    }
+
+    private synchronized void evict() {
+        while (entries.size() > maxSize) {
+            Map.Entry<Key, Entry> eldest = null;
+            for (Map.Entry<Key, Entry> e : entries.entrySet()) {
+                if (eldest == null || e.getValue().lastAccess - eldest.getValue().lastAccess < 0L) {
+                    eldest = e;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            entries.remove(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * The rendered frames for a stack trace. The renderings are created lazily and may be replaced, for example if the
+     * detailed frames were written with different pretty printing.
+     */
+    static final class Entry {
+        private final StackTraceElement[] frames;
+        private final String[] formatted;
+        volatile long lastAccess = System.nanoTime();
+        volatile DetailedFrames detailed;
+
+        private Entry(final StackTraceElement[] frames) {
+            this.frames = frames;
+            formatted = new String[frames.length];
+        }
+
+        /**
+         * Returns the string representation of the frame.
+         *
+         * @param index the index of the frame
+         *
+         * @return the frame as a string
+         */
+        String getFormatted(final int index) {
+            // Racing threads create equal strings
+            String result = formatted[index];
+            if (result == null) {
+                result = frames[index].toString();
+                formatted[index] = result;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The detailed frames written for a stack trace.
+     */
+    static final class DetailedFrames {
+        final ExceptionLimits limits;
+        final int end;
+        final int omitted;
+        final RecordDictionary dictionary;
+        final Fragment fragment;
+
+        /**
+         * Creates the detailed frames.
+         *
+         * @param limits     the limits the frames were written with
+         * @param end        the index of the last frame, exclusive, which could have been written
+         * @param omitted    the number of frames which were not written
+         * @param dictionary the dictionary the frames reference or {@code null} if written without a dictionary
+         * @param fragment   the written frames
+         */
+        DetailedFrames(final ExceptionLimits limits, final int end, final int omitted, final RecordDictionary dictionary,
+                       final Fragment fragment) {
+            this.limits = limits;
+            this.end = end;
+            this.omitted = omitted;
+            this.dictionary = dictionary;
+            this.fragment = fragment;
+        }
+    }
+
+    private static final class Key {
+        private final String type;
+        private final StackTraceElement[] frames;
+        private final int hash;
+
+        private Key(final String type, final StackTraceElement[] frames) {
+            this.type = type;
+            this.frames = frames;
+            hash = 31 * type.hashCode() + Arrays.hashCode(frames);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hash == other.hash && type.equals(other.type) && Arrays.equals(frames, other.frames);
+        }
+    }
+}
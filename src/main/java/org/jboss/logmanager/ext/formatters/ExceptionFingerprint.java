@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+/**
+ * Computes a stable fingerprint for an exception. The fingerprint is a 64-bit FNV-1a hash, as 16 hexadecimal
+ * characters, of the type of the exception and each of its causes and of the top frames of the exception. The same
+ * exception thrown from the same code has the same fingerprint across JVM restarts.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class ExceptionFingerprint {
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+    // Guards against a circular cause chain
+    private static final int MAX_CAUSES = 64;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ExceptionFingerprint() {
+    }
+
+    /**
+     * Computes the fingerprint of the exception.
+     *
+     * @param throwable the exception
+     * @param frames    the number of frames from the top of the exceptions stack trace to include
+     *
+     * @return the fingerprint
+     */
+    static String compute(final Throwable throwable, final int frames) {
+        long hash = OFFSET_BASIS;
+        Throwable current = throwable;
+        for (int i = 0; current != null && i < MAX_CAUSES; i++) {
+            hash = hash(hash, current.getClass().getName());
+            hash = hash(hash, '\n');
+            final Throwable cause = current.getCause();
+            current = (cause == current ? null : cause);
+        }
+        if (frames > 0) {
+            final StackTraceElement[] trace = throwable.getStackTrace();
+            final int len = Math.min(frames, trace.length);
+            for (int i = 0; i < len; i++) {
+                final StackTraceElement frame = trace[i];
+                hash = hash(hash, frame.getClassName());
+                hash = hash(hash, '#');
+                hash = hash(hash, frame.getMethodName());
+                hash = hash(hash, ':');
+                hash = hash(hash, Integer.toString(frame.getLineNumber()));
+                hash = hash(hash, '\n');
+            }
+        }
+        final char[] result = new char[16];
+        for (int i = 15; i >= 0; i--) {
+            result[i] = HEX[(int) (hash & 0xf)];
+            hash >>>= 4;
+        }
+        return new String(result);
+    }
+
+    private static long hash(long hash, final String value) {
+        final int len = value.length();
+        for (int i = 0; i < len; i++) {
+            hash = hash(hash, value.charAt(i));
+        }
+        return hash;
+    }
+
+    private static long hash(final long hash, final char c) {
+        // Hash both bytes of the character
+        return (((hash ^ (c & 0xff)) * PRIME) ^ (c >>> 8)) * PRIME;
+    }
+}
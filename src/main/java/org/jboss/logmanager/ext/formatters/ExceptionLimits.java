@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+/**
+ * The limits applied when rendering an exception. A negative limit indicates there is no limit.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class ExceptionLimits {
+
+    /**
+     * No limits, each exception is rendered in full.
+     */
+    static final ExceptionLimits NONE = new ExceptionLimits(-1, -1, -1, false, new String[0]);
+
+    final int maxFrames;
+    final int maxCauseDepth;
+    final int maxSuppressed;
+    final boolean elideCommonFrames;
+    private final String[] excludedPackages;
+
+    /**
+     * Creates new limits.
+     *
+     * @param maxFrames         the maximum number of frames rendered for each exception
+     * @param maxCauseDepth     the maximum depth of nested causes and suppressed exceptions
+     * @param maxSuppressed     the maximum number of suppressed exceptions rendered for each exception
+     * @param elideCommonFrames {@code true} if the frames in common with the enclosing exception should not be
+     *                          rendered for detailed output
+     * @param excludedPackages  the packages of the frames which should not be rendered
+     */
+    ExceptionLimits(final int maxFrames, final int maxCauseDepth, final int maxSuppressed, final boolean elideCommonFrames,
+                    final String[] excludedPackages) {
+        this.maxFrames = maxFrames;
+        this.maxCauseDepth = maxCauseDepth;
+        this.maxSuppressed = maxSuppressed;
+        this.elideCommonFrames = elideCommonFrames;
+        this.excludedPackages = excludedPackages;
+    }
+
+    /**
+     * Checks whether nested exceptions can be rendered at the depth.
+     *
+     * @param depth the depth of the nested exceptions
+     *
+     * @return {@code true} if the nested exceptions should be rendered
+     */
+    boolean isDepthAllowed(final int depth) {
+        return maxCauseDepth < 0 || depth <= maxCauseDepth;
+    }
+
+    /**
+     * Returns the number of suppressed exceptions which should be rendered.
+     *
+     * @param count the number of suppressed exceptions
+     *
+     * @return the number to render
+     */
+    int getSuppressedCount(final int count) {
+        return (maxSuppressed < 0 ? count : Math.min(count, maxSuppressed));
+    }
+
+    /**
+     * Checks whether the frame belongs to an excluded package.
+     *
+     * @param frame the frame to check
+     *
+     * @return {@code true} if the frame should not be rendered
+     */
+    boolean isExcluded(final StackTraceElement frame) {
+        final String[] excludedPackages = this.excludedPackages;
+        if (excludedPackages.length == 0) {
+            return false;
+        }
+        final String className = frame.getClassName();
+        for (String pkg : excludedPackages) {
+            if (className.startsWith(pkg) && (className.length() == pkg.length() || className.charAt(pkg.length()) == '.')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines the number of frames at the end of the trace which are the same as the frames at the end of the
+     * enclosing trace.
+     *
+     * @param trace          the trace
+     * @param enclosingTrace the trace of the enclosing exception
+     *
+     * @return the number of frames in common
+     */
+    static int framesInCommon(final StackTraceElement[] trace, final StackTraceElement[] enclosingTrace) {
+        int m = trace.length - 1;
+        int n = enclosingTrace.length - 1;
+        while (m >= 0 && n >= 0 && trace[m].equals(enclosingTrace[n])) {
+            m--;
+            n--;
+        }
+        return trace.length - 1 - m;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resolves expressions in configured values.
+ * <p>
+ * An expression is in the form of {@code ${name}} or {@code ${name:default}}. The name is resolved, in order, as:
+ * </p>
+ * <ul>
+ * <li>a system property</li>
+ * <li>an environment variable if the name is prefixed with {@code env.}, e.g. {@code ${env.HOME}}</li>
+ * <li>the host name if the name is {@code hostname}</li>
+ * <li>the process id if the name is {@code pid}</li>
+ * </ul>
+ * <p>
+ * If the name cannot be resolved the default is used. An expression without a default which cannot be resolved is
+ * left as is.
+ * </p>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class Expressions {
+
+    private static final String ENV_PREFIX = "env.";
+
+    private Expressions() {
+    }
+
+    /**
+     * Resolves any expressions in the values of the map.
+     *
+     * @param map the map to resolve the values for
+     *
+     * @return a new map with the values resolved
+     */
+    static Map<String, String> resolve(final Map<String, String> map) {
+        final Map<String, String> result = new LinkedHashMap<>(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            result.put(entry.getKey(), resolve(entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Resolves any expressions in the value.
+     *
+     * @param value the value to resolve, may be {@code null}
+     *
+     * @return the resolved value
+     */
+    static String resolve(final String value) {
+        if (value == null || !value.contains("${")) {
+            return value;
+        }
+        final StringBuilder result = new StringBuilder(value.length());
+        int index = 0;
+        int start;
+        while ((start = value.indexOf("${", index)) >= 0) {
+            final int end = value.indexOf('}', start + 2);
+            if (end < 0) {
+                break;
+            }
+            result.append(value, index, start);
+            final String expression = value.substring(start + 2, end);
+            final int defaultIndex = expression.indexOf(':');
+            final String name = (defaultIndex < 0 ? expression : expression.substring(0, defaultIndex));
+            String resolved = resolveName(name);
+            if (resolved == null) {
+                resolved = (defaultIndex < 0 ? value.substring(start, end + 1) : expression.substring(defaultIndex + 1));
+            }
+            result.append(resolved);
+            index = end + 1;
+        }
+        result.append(value, index, value.length());
+        return result.toString();
+    }
+
+    private static String resolveName(final String name) {
+        final String value = System.getProperty(name);
+        if (value != null) {
+            return value;
+        }
+        if (name.startsWith(ENV_PREFIX)) {
+            return System.getenv(name.substring(ENV_PREFIX.length()));
+        }
+        if ("hostname".equals(name)) {
+            return getHostName();
+        }
+        if ("pid".equals(name)) {
+            return getProcessId();
+        }
+        return null;
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException | SecurityException ignore) {
+            // Fall back to the environment
+        }
+        String result = System.getenv("HOSTNAME");
+        if (result == null) {
+            result = System.getenv("COMPUTERNAME");
+        }
+        return result;
+    }
+
+    private static String getProcessId() {
+        // The name of the runtime is in the form of pid@hostname
+        final String name = ManagementFactory.getRuntimeMXBean().getName();
+        final int index = name.indexOf('@');
+        return (index > 0 ? name.substring(0, index) : null);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+/**
+ * Output previously written by a built-in generator which can be appended as is in place of writing the same values
+ * again. A fragment consists of complete values and is only valid for the generator type, depth and pretty printing
+ * it was written with.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ * @see StructuredFormatter.Generator#beginFragment()
+ */
+final class Fragment {
+    private final Class<?> type;
+    private final int depth;
+    private final boolean prettyPrint;
+    private final char[] chars;
+
+    /**
+     * Creates a new fragment.
+     *
+     * @param type        the type of the generator which wrote the fragment
+     * @param depth       the depth the fragment was written at
+     * @param prettyPrint whether or not the fragment was pretty printed
+     * @param written     the builder the fragment was written to
+     * @param start       the index the fragment starts at
+     */
+    Fragment(final Class<?> type, final int depth, final boolean prettyPrint, final StringBuilder written, final int start) {
+        this.type = type;
+        this.depth = depth;
+        this.prettyPrint = prettyPrint;
+        chars = new char[written.length() - start];
+        written.getChars(start, written.length(), chars, 0);
+    }
+
+    /**
+     * Checks whether the fragment can be appended by the generator in its current state.
+     *
+     * @param type        the type of the generator
+     * @param depth       the current depth
+     * @param prettyPrint whether or not the output is pretty printed
+     *
+     * @return {@code true} if this fragment can be appended
+     */
+    boolean matches(final Class<?> type, final int depth, final boolean prettyPrint) {
+        return this.type == type && this.depth == depth && this.prettyPrint == prettyPrint;
+    }
+
+    /**
+     * Appends the fragment to the builder.
+     *
+     * @param target the builder to append to
+     */
+    void appendTo(final StringBuilder target) {
+        target.append(chars);
+    }
+}
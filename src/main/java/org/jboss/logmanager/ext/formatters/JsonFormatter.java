@@ -20,14 +20,8 @@
 package org.jboss.logmanager.ext.formatters;
 
 import java.io.Writer;
-import java.math.BigDecimal;
-import java.math.BigInteger;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
-import javax.json.Json;
-import javax.json.JsonValue;
-import javax.json.stream.JsonGenerator;
-import javax.json.stream.JsonGeneratorFactory;
 
 import org.jboss.logmanager.ext.util.PropertyValues;
 
@@ -43,22 +37,43 @@ import org.jboss.logmanager.ext.util.PropertyValues;
  * <li>{@link org.jboss.logmanager.ExtLogRecord#getSourceMethodName() source method name}</li>
  * <li>{@link org.jboss.logmanager.ExtLogRecord#getSourceLineNumber() source line number}</li>
  * </ul>
+ * <p>
+ * By default the JSON is written directly to the output by a built-in generator. A {@code javax.json} provider can
+ * optionally be used instead, see {@link #setUseJsonProvider(boolean)}.
+ * </p>
  *
  * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
  */
 @SuppressWarnings("unused")
 public class JsonFormatter extends StructuredFormatter {
 
-    private final Map<String, Object> config;
+    /**
+     * The escaped form of each character which must be escaped in a JSON string, indexed by the character.
+     */
+    private static final String[] ESCAPES = new String['\\' + 1];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = String.format("\\u%04x", c);
+        }
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\t'] = "\\t";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\f'] = "\\f";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+    }
 
-    private JsonGeneratorFactory factory;
+    private volatile boolean prettyPrint;
+    private volatile boolean useJsonProvider;
+    // Lazily created, guarded by this
+    private volatile JsonProviderGenerator.Factory providerFactory;
 
     /**
      * Creates a new JSON formatter.
      */
     public JsonFormatter() {
-        config = new HashMap<>();
-        factory = Json.createGeneratorFactory(config);
     }
 
     /**
@@ -70,8 +85,6 @@ public class JsonFormatter extends StructuredFormatter {
      */
     public JsonFormatter(final String keyOverrides) {
         super(keyOverrides);
-        config = new HashMap<>();
-        factory = Json.createGeneratorFactory(config);
     }
 
     /**
@@ -81,8 +94,6 @@ public class JsonFormatter extends StructuredFormatter {
      */
     public JsonFormatter(final Map<Key, String> keyOverrides) {
         super(keyOverrides);
-        config = new HashMap<>();
-        factory = Json.createGeneratorFactory(config);
     }
 
     /**
@@ -91,9 +102,7 @@ public class JsonFormatter extends StructuredFormatter {
      * @return {@code true} if pretty printing is enabled, otherwise {@code false}
      */
     public boolean isPrettyPrint() {
-        synchronized (config) {
-            return (config.containsKey(javax.json.stream.JsonGenerator.PRETTY_PRINTING) ? (Boolean) config.get(javax.json.stream.JsonGenerator.PRETTY_PRINTING) : false);
-        }
+        return prettyPrint;
     }
 
     /**
@@ -102,182 +111,413 @@ public class JsonFormatter extends StructuredFormatter {
      * @param prettyPrint {@code true} to turn on pretty printing or {@code false} to turn it off
      */
     public void setPrettyPrint(final boolean prettyPrint) {
-        synchronized (config) {
-            if (prettyPrint) {
-                config.put(JsonGenerator.PRETTY_PRINTING, true);
-            } else {
-                config.remove(JsonGenerator.PRETTY_PRINTING);
-            }
-            factory = Json.createGeneratorFactory(config);
+        synchronized (this) {
+            this.prettyPrint = prettyPrint;
+            providerFactory = null;
+        }
+    }
+
+    /**
+     * Indicates whether or not a {@code javax.json} provider is used to generate the JSON.
+     *
+     * @return {@code true} if a {@code javax.json} provider is used, {@code false} if the built-in generator is used
+     */
+    public boolean isUseJsonProvider() {
+        return useJsonProvider;
+    }
+
+    /**
+     * Sets whether or not a {@code javax.json} provider should be used to generate the JSON. The default is
+     * {@code false} which writes the JSON with a built-in generator that reuses its buffers between records.
+     * <p>
+     * The {@code javax.json} API and a provider are only required on the class path if this is set to {@code true}.
+     * </p>
+     *
+     * @param useJsonProvider {@code true} to use a {@code javax.json} provider, {@code false} to use the built-in
+     *                        generator
+     *
+     * @throws IllegalStateException if {@code true} and the {@code javax.json} API is not available
+     */
+    public void setUseJsonProvider(final boolean useJsonProvider) {
+        if (useJsonProvider) {
+            // Ensure the provider is available
+            getProviderFactory();
         }
+        this.useJsonProvider = useJsonProvider;
     }
 
     @Override
     protected Generator createGenerator(final Writer writer) {
-        final JsonGeneratorFactory factory;
-        synchronized (config) {
-            factory = this.factory;
+        if (useJsonProvider) {
+            return getProviderFactory().createGenerator(writer);
+        }
+        final StreamingJsonGenerator generator = new StreamingJsonGenerator();
+        generator.reset(writer, prettyPrint);
+        return generator;
+    }
+
+    @Override
+    boolean resetGenerator(final Generator generator, final Writer writer) throws Exception {
+        if (generator instanceof StreamingJsonGenerator) {
+            if (useJsonProvider) {
+                return false;
+            }
+            ((StreamingJsonGenerator) generator).reset(writer, prettyPrint);
+            return true;
+        }
+        return super.resetGenerator(generator, writer);
+    }
+
+    private JsonProviderGenerator.Factory getProviderFactory() {
+        JsonProviderGenerator.Factory factory = providerFactory;
+        if (factory == null) {
+            synchronized (this) {
+                factory = providerFactory;
+                if (factory == null) {
+                    try {
+                        factory = new JsonProviderGenerator.Factory(prettyPrint);
+                    } catch (LinkageError e) {
+                        throw new IllegalStateException("The javax.json API could not be found on the class path", e);
+                    }
+                    providerFactory = factory;
+                }
+            }
         }
-        return new FormatterJsonGenerator(factory.createGenerator(writer));
+        return factory;
     }
 
-    private class FormatterJsonGenerator extends Generator {
-        private final JsonGenerator generator;
+    /**
+     * A generator which writes the JSON directly to a {@link StringBuilder}. The generator is reused for each record
+     * formatted on the same thread and escapes strings through a lookup table. The output is equivalent to the
+     * output of the {@code javax.json} reference implementation.
+     * <p>
+     * The generator is cached by the formatters thread local and is therefore static, the settings of the formatter
+     * are passed on each {@linkplain #reset(Writer, boolean) reset}.
+     * </p>
+     */
+    private static class StreamingJsonGenerator extends Generator {
+        private static final String SPACES = "                                                                ";
+        private static final int INDENT = 4;
+
+        private final StringBuilder buffer = new StringBuilder();
+        private final ValueAppender valueAppender = new ValueAppender();
+        private Writer writer;
+        private StringBuilder out;
+        private boolean prettyPrint;
+        private boolean[] first = new boolean[16];
+        private char[] closers = new char[16];
+        private int depth;
 
-        private FormatterJsonGenerator(final JsonGenerator generator) {
-            this.generator = generator;
+        /**
+         * Prepares the generator to write the next record.
+         *
+         * @param writer      the writer the record will be written to
+         * @param prettyPrint whether or not the record should be pretty printed
+         */
+        void reset(final Writer writer, final boolean prettyPrint) {
+            this.writer = writer;
+            if (writer instanceof StringBuilderWriter) {
+                out = ((StringBuilderWriter) writer).getBuilder();
+            } else {
+                // Write the record to the writer once complete
+                out = buffer;
+            }
+            buffer.setLength(0);
+            this.prettyPrint = prettyPrint;
+            depth = 0;
+            first[0] = true;
         }
 
         @Override
         public Generator begin() {
-            generator.writeStartObject();
-            return this;
+            return startObject(null);
         }
 
         @Override
         public Generator add(final String key, final int value) {
-            generator.write(key, value);
+            writeKey(key);
+            out.append(value);
             return this;
         }
 
         @Override
         public Generator add(final String key, final long value) {
-            generator.write(key, value);
+            writeKey(key);
+            out.append(value);
             return this;
         }
 
         @Override
-        public Generator add(final String key, final Map<String, ?> value) {
-            generator.writeStartObject(key);
+        public Generator add(final String key, final Map<String, ?> value) throws Exception {
+            startObject(key);
             if (value != null) {
                 for (Map.Entry<String, ?> entry : value.entrySet()) {
                     writeObject(entry.getKey(), entry.getValue());
                 }
             }
-            generator.writeEnd();
-            return this;
+            return endObject();
         }
 
         @Override
         public Generator add(final String key, final String value) {
+            writeKey(key);
             if (value == null) {
-                generator.writeNull(key);
+                out.append("null");
             } else {
-                generator.write(key, value);
+                writeString(value);
             }
             return this;
         }
 
         @Override
-        public Generator startObject(final String key) throws Exception {
-            if (key == null) {
-                generator.writeStartObject();
+        public Generator add(final String key, final CharSequence value) {
+            writeKey(key);
+            if (value == null) {
+                out.append("null");
             } else {
-                generator.writeStartObject(key);
+                writeString(value);
             }
             return this;
         }
 
         @Override
-        public Generator endObject() throws Exception {
-            generator.writeEnd();
+        public Generator addValue(final String key, final Object value) throws Exception {
+            writeObject(key, value);
             return this;
         }
 
         @Override
-        public Generator startArray(final String key) throws Exception {
-            if (key == null) {
-                generator.writeStartArray();
-            } else {
-                generator.writeStartArray(key);
-            }
+        public Generator startObject(final String key) {
+            writeKey(key);
+            out.append('{');
+            push('}');
+            return this;
+        }
+
+        @Override
+        public Generator endObject() {
+            pop();
+            return this;
+        }
+
+        @Override
+        public Generator startArray(final String key) {
+            writeKey(key);
+            out.append('[');
+            push(']');
             return this;
         }
 
         @Override
-        public Generator endArray() throws Exception {
-            generator.writeEnd();
+        public Generator endArray() {
+            pop();
             return this;
         }
 
         @Override
-        public Generator end() {
-            generator.writeEnd(); // end record
-            generator.flush();
-            generator.close();
+        public Generator end() throws Exception {
+            pop(); // end record
+            if (out == buffer) {
+                writer.append(buffer);
+                buffer.setLength(0);
+            }
             return this;
         }
 
-        private void writeObject(final String key, final Object obj) {
+        @Override
+        int beginFragment() {
+            writeSeparator();
+            // The separator has been written, the fragment is written as if it's the first value
+            first[depth] = true;
+            return out.length();
+        }
+
+        @Override
+        Fragment endFragment(final int start) {
+            return new Fragment(StreamingJsonGenerator.class, depth, prettyPrint, out, start);
+        }
+
+        @Override
+        Appendable beginValue(final String key) {
+            writeKey(key);
+            out.append('"');
+            return valueAppender;
+        }
+
+        @Override
+        void endValue() {
+            out.append('"');
+        }
+
+        @Override
+        boolean appendFragment(final Fragment fragment) {
+            if (!fragment.matches(StreamingJsonGenerator.class, depth, prettyPrint)) {
+                return false;
+            }
+            writeSeparator();
+            fragment.appendTo(out);
+            return true;
+        }
+
+        private void writeObject(final String key, final Object obj) throws Exception {
             if (obj == null) {
-                if (key == null) {
-                    generator.writeNull();
-                } else {
-                    generator.writeNull(key);
-                }
-            } else if (obj instanceof Boolean) {
-                final Boolean value = (Boolean) obj;
-                if (key == null) {
-                    generator.write(value);
-                } else {
-                    generator.write(key, value);
-                }
-            } else if (obj instanceof Integer) {
-                final Integer value = (Integer) obj;
-                if (key == null) {
-                    generator.write(value);
-                } else {
-                    generator.write(key, value);
-                }
-            } else if (obj instanceof Long) {
-                final Long value = (Long) obj;
-                if (key == null) {
-                    generator.write(value);
-                } else {
-                    generator.write(key, value);
-                }
-            } else if (obj instanceof Double) {
-                final Double value = (Double) obj;
-                if (key == null) {
-                    generator.write(value);
-                } else {
-                    generator.write(key, value);
-                }
-            } else if (obj instanceof BigInteger) {
-                final BigInteger value = (BigInteger) obj;
-                if (key == null) {
-                    generator.write(value);
-                } else {
-                    generator.write(key, value);
-                }
-            } else if (obj instanceof BigDecimal) {
-                final BigDecimal value = (BigDecimal) obj;
-                if (key == null) {
-                    generator.write(value);
-                } else {
-                    generator.write(key, value);
-                }
-            } else if (obj instanceof String) {
-                final String value = (String) obj;
-                if (key == null) {
-                    generator.write(value);
-                } else {
-                    generator.write(key, value);
-                }
-            } else if (obj instanceof JsonValue) {
-                final JsonValue value = (JsonValue) obj;
-                if (key == null) {
-                    generator.write(value);
-                } else {
-                    generator.write(key, value);
-                }
+                writeKey(key);
+                out.append("null");
+                return;
+            }
+            final ValueSerializers.Type type = serializers.getType(obj.getClass());
+            switch (type.kind) {
+                case STRING:
+                    writeKey(key);
+                    writeString((String) obj);
+                    break;
+                case CHARS:
+                    writeKey(key);
+                    writeString((CharSequence) obj);
+                    break;
+                case BOOLEAN:
+                    writeKey(key);
+                    out.append(((Boolean) obj).booleanValue());
+                    break;
+                case INTEGER:
+                    writeKey(key);
+                    out.append(((Number) obj).longValue());
+                    break;
+                case FLOAT:
+                    writeKey(key);
+                    final float f = (Float) obj;
+                    if (Float.isNaN(f) || Float.isInfinite(f)) {
+                        // Not representable as a JSON number
+                        writeString(Float.toString(f));
+                    } else {
+                        out.append(f);
+                    }
+                    break;
+                case DOUBLE:
+                    writeKey(key);
+                    final double d = (Double) obj;
+                    if (Double.isNaN(d) || Double.isInfinite(d)) {
+                        // Not representable as a JSON number
+                        writeString(Double.toString(d));
+                    } else {
+                        out.append(d);
+                    }
+                    break;
+                case NUMBER:
+                case JSON_VALUE:
+                    // The string representation of a JsonValue is JSON
+                    writeKey(key);
+                    out.append(obj.toString());
+                    break;
+                case SERIALIZER:
+                    type.serializer.serialize(this, key, obj);
+                    break;
+                default:
+                    writeKey(key);
+                    writeString(String.valueOf(obj));
+                    break;
+            }
+        }
+
+        private void writeSeparator() {
+            final int depth = this.depth;
+            if (first[depth]) {
+                first[depth] = false;
             } else {
-                final String value = String.valueOf(obj);
-                if (key == null) {
-                    generator.write(value);
+                out.append(',');
+            }
+        }
+
+        private void writeKey(final String key) {
+            writeSeparator();
+            if (prettyPrint) {
+                out.append('\n');
+                indent(depth);
+            }
+            if (key != null) {
+                writeString(key);
+                out.append(':');
+            }
+        }
+
+        private void writeString(final CharSequence value) {
+            out.append('"');
+            writeEscaped(value, 0, value.length());
+            out.append('"');
+        }
+
+        private void writeEscaped(final CharSequence value, final int offset, final int end) {
+            final StringBuilder out = this.out;
+            final String[] escapes = ESCAPES;
+            int start = offset;
+            for (int i = offset; i < end; i++) {
+                final char c = value.charAt(i);
+                if (c < escapes.length) {
+                    final String escape = escapes[c];
+                    if (escape != null) {
+                        out.append(value, start, i).append(escape);
+                        start = i + 1;
+                    }
+                }
+            }
+            out.append(value, start, end);
+        }
+
+        private void push(final char closer) {
+            final int depth = ++this.depth;
+            if (depth == first.length) {
+                first = Arrays.copyOf(first, depth << 1);
+                closers = Arrays.copyOf(closers, depth << 1);
+            }
+            first[depth] = true;
+            closers[depth] = closer;
+        }
+
+        private void pop() {
+            final char closer = closers[depth--];
+            if (prettyPrint) {
+                out.append('\n');
+                indent(depth);
+            }
+            out.append(closer);
+        }
+
+        private void indent(final int depth) {
+            int remaining = depth * INDENT;
+            while (remaining > 0) {
+                final int len = Math.min(remaining, SPACES.length());
+                out.append(SPACES, 0, len);
+                remaining -= len;
+            }
+        }
+
+        /**
+         * Escapes the characters of a string value as they are appended.
+         */
+        private class ValueAppender implements Appendable {
+
+            @Override
+            public Appendable append(final CharSequence csq) {
+                final CharSequence value = (csq == null ? "null" : csq);
+                writeEscaped(value, 0, value.length());
+                return this;
+            }
+
+            @Override
+            public Appendable append(final CharSequence csq, final int start, final int end) {
+                writeEscaped((csq == null ? "null" : csq), start, end);
+                return this;
+            }
+
+            @Override
+            public Appendable append(final char c) {
+                final String[] escapes = ESCAPES;
+                if (c < escapes.length && escapes[c] != null) {
+                    out.append(escapes[c]);
                 } else {
-                    generator.write(key, value);
+                    out.append(c);
                 }
+                return this;
             }
         }
     }
@@ -0,0 +1,260 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import javax.json.Json;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+
+/**
+ * A generator which uses a {@code javax.json} provider to write the JSON.
+ * <p>
+ * All references to the {@code javax.json} API are isolated in this type so the API is only required on the class
+ * path when a {@link JsonFormatter} is configured to {@linkplain JsonFormatter#setUseJsonProvider(boolean) use the
+ * provider}.
+ * </p>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+class JsonProviderGenerator extends StructuredFormatter.Generator {
+
+    /**
+     * A factory for creating provider based generators.
+     */
+    static class Factory {
+        private final JsonGeneratorFactory factory;
+
+        /**
+         * Creates a new factory.
+         *
+         * @param prettyPrint {@code true} if the generated JSON should be pretty printed
+         */
+        Factory(final boolean prettyPrint) {
+            final Map<String, Object> config = new HashMap<>();
+            if (prettyPrint) {
+                config.put(JsonGenerator.PRETTY_PRINTING, true);
+            }
+            factory = Json.createGeneratorFactory(config);
+        }
+
+        /**
+         * Creates a generator which writes to the writer.
+         *
+         * @param writer the writer to write to
+         *
+         * @return the new generator
+         */
+        JsonProviderGenerator createGenerator(final Writer writer) {
+            return new JsonProviderGenerator(factory.createGenerator(writer));
+        }
+    }
+
+    private final JsonGenerator generator;
+
+    private JsonProviderGenerator(final JsonGenerator generator) {
+        this.generator = generator;
+    }
+
+    @Override
+    public StructuredFormatter.Generator begin() {
+        generator.writeStartObject();
+        return this;
+    }
+
+    @Override
+    public StructuredFormatter.Generator add(final String key, final int value) {
+        if (key == null) {
+            generator.write(value);
+        } else {
+            generator.write(key, value);
+        }
+        return this;
+    }
+
+    @Override
+    public StructuredFormatter.Generator add(final String key, final long value) {
+        if (key == null) {
+            generator.write(value);
+        } else {
+            generator.write(key, value);
+        }
+        return this;
+    }
+
+    @Override
+    public StructuredFormatter.Generator add(final String key, final Map<String, ?> value) throws Exception {
+        startObject(key);
+        if (value != null) {
+            for (Map.Entry<String, ?> entry : value.entrySet()) {
+                writeObject(entry.getKey(), entry.getValue());
+            }
+        }
+        generator.writeEnd();
+        return this;
+    }
+
+    @Override
+    public StructuredFormatter.Generator add(final String key, final String value) {
+        if (value == null) {
+            writeNull(key);
+        } else {
+            writeString(key, value);
+        }
+        return this;
+    }
+
+    @Override
+    public StructuredFormatter.Generator addValue(final String key, final Object value) throws Exception {
+        writeObject(key, value);
+        return this;
+    }
+
+    @Override
+    public StructuredFormatter.Generator startObject(final String key) throws Exception {
+        if (key == null) {
+            generator.writeStartObject();
+        } else {
+            generator.writeStartObject(key);
+        }
+        return this;
+    }
+
+    @Override
+    public StructuredFormatter.Generator endObject() throws Exception {
+        generator.writeEnd();
+        return this;
+    }
+
+    @Override
+    public StructuredFormatter.Generator startArray(final String key) throws Exception {
+        if (key == null) {
+            generator.writeStartArray();
+        } else {
+            generator.writeStartArray(key);
+        }
+        return this;
+    }
+
+    @Override
+    public StructuredFormatter.Generator endArray() throws Exception {
+        generator.writeEnd();
+        return this;
+    }
+
+    @Override
+    public StructuredFormatter.Generator end() {
+        generator.writeEnd(); // end record
+        generator.flush();
+        generator.close();
+        return this;
+    }
+
+    private void writeObject(final String key, final Object obj) throws Exception {
+        if (obj == null) {
+            writeNull(key);
+            return;
+        }
+        final ValueSerializers.Type type = serializers.getType(obj.getClass());
+        switch (type.kind) {
+            case BOOLEAN: {
+                final boolean value = (Boolean) obj;
+                if (key == null) {
+                    generator.write(value);
+                } else {
+                    generator.write(key, value);
+                }
+                break;
+            }
+            case INTEGER: {
+                final long value = ((Number) obj).longValue();
+                if (key == null) {
+                    generator.write(value);
+                } else {
+                    generator.write(key, value);
+                }
+                break;
+            }
+            case FLOAT:
+            case DOUBLE: {
+                final double d = ((Number) obj).doubleValue();
+                if (Double.isNaN(d) || Double.isInfinite(d)) {
+                    // Not representable as a JSON number
+                    writeString(key, obj.toString());
+                    break;
+                }
+                // Use the decimal representation of a float rather than widening it to a double
+                final BigDecimal value = (type.kind == ValueSerializers.Kind.FLOAT ? new BigDecimal(obj.toString()) : BigDecimal.valueOf(d));
+                if (key == null) {
+                    generator.write(value);
+                } else {
+                    generator.write(key, value);
+                }
+                break;
+            }
+            case NUMBER: {
+                final BigDecimal value = (obj instanceof BigInteger ? new BigDecimal((BigInteger) obj) : (BigDecimal) obj);
+                if (key == null) {
+                    generator.write(value);
+                } else {
+                    generator.write(key, value);
+                }
+                break;
+            }
+            case JSON_VALUE: {
+                final JsonValue value = (JsonValue) obj;
+                if (key == null) {
+                    generator.write(value);
+                } else {
+                    generator.write(key, value);
+                }
+                break;
+            }
+            case SERIALIZER:
+                type.serializer.serialize(this, key, obj);
+                break;
+            default:
+                writeString(key, obj.toString());
+                break;
+        }
+    }
+
+    private void writeNull(final String key) {
+        if (key == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNull(key);
+        }
+    }
+
+    private void writeString(final String key, final String value) {
+        if (key == null) {
+            generator.write(value);
+        } else {
+            generator.write(key, value);
+        }
+    }
+
+}
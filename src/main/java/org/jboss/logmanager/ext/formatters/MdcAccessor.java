@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Collections;
+import java.util.Map;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.MDC;
+
+/**
+ * Provides read access to the MDC of a record without copying it.
+ * <p>
+ * {@link ExtLogRecord#getMdcCopy()} clones the records MDC for each invocation. Where possible the map held by the
+ * record is returned instead. If the record has not copied the MDC yet, the map of the current thread is returned,
+ * which is the same map {@link ExtLogRecord#getMdc(String)} reads from. Either map is returned as an unmodifiable
+ * view.
+ * </p>
+ * <p>
+ * The maps are read from the private {@code ExtLogRecord.mdcCopy} and {@code MDC.mdc} fields of the log manager. If
+ * either field cannot be accessed, for example because the layout of the log manager changed or a security manager
+ * denies access, a copy is returned.
+ * </p>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class MdcAccessor {
+
+    private static final MethodHandle MDC_GETTER = findGetter();
+    private static final ThreadLocal<?> THREAD_MDC = findThreadMdc();
+
+    private MdcAccessor() {
+    }
+
+    /**
+     * Returns the MDC of the record. The returned map may be a view of the map held by the record or the map of the
+     * current thread and cannot be modified.
+     *
+     * @param record the record to get the MDC from
+     *
+     * @return the MDC for the record
+     */
+    static Map<String, String> getMdc(final ExtLogRecord record) {
+        return getMdc(record, MDC_GETTER, THREAD_MDC);
+    }
+
+    /**
+     * Returns the MDC of the record reading the maps with the accessors.
+     *
+     * @param record    the record to get the MDC from
+     * @param getter    the getter for the MDC copy of the record or {@code null} if it cannot be read
+     * @param threadMdc the thread local holding the MDC of each thread or {@code null} if it cannot be read
+     *
+     * @return the MDC for the record
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, String> getMdc(final ExtLogRecord record, final MethodHandle getter,
+                                      final ThreadLocal<?> threadMdc) {
+        if (getter != null && threadMdc != null) {
+            final Map<String, String> result;
+            try {
+                result = (Map<String, String>) getter.invokeExact(record);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+            if (result != null) {
+                return Collections.unmodifiableMap(result);
+            }
+            // The MDC has not been copied to the record, read the current threads MDC rather than copying it
+            return Collections.unmodifiableMap((Map<String, String>) threadMdc.get());
+        }
+        return record.getMdcCopy();
+    }
+
+    private static MethodHandle findGetter() {
+        return AccessController.doPrivileged(new PrivilegedAction<MethodHandle>() {
+            @Override
+            public MethodHandle run() {
+                try {
+                    final Field field = ExtLogRecord.class.getDeclaredField("mdcCopy");
+                    if (!Map.class.isAssignableFrom(field.getType())) {
+                        return null;
+                    }
+                    field.setAccessible(true);
+                    return MethodHandles.lookup().unreflectGetter(field)
+                            .asType(MethodType.methodType(Map.class, ExtLogRecord.class));
+                } catch (Exception ignore) {
+                    // Includes an InaccessibleObjectException on newer JVMs
+                    return null;
+                }
+            }
+        });
+    }
+
+    private static ThreadLocal<?> findThreadMdc() {
+        return AccessController.doPrivileged(new PrivilegedAction<ThreadLocal<?>>() {
+            @Override
+            public ThreadLocal<?> run() {
+                try {
+                    final Field field = MDC.class.getDeclaredField("mdc");
+                    if (!ThreadLocal.class.isAssignableFrom(field.getType())) {
+                        return null;
+                    }
+                    field.setAccessible(true);
+                    return (ThreadLocal<?>) field.get(null);
+                } catch (Exception ignore) {
+                    // Includes an InaccessibleObjectException on newer JVMs
+                    return null;
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.CharBuffer;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.text.MessageFormat;
+import java.util.Formatter;
+import java.util.Locale;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.ExtLogRecord.FormatStyle;
+
+/**
+ * Renders the message of a record directly to an {@link Appendable}.
+ * <p>
+ * {@link ExtLogRecord#getFormattedMessage()} formats the message into a new string which is then escaped and copied
+ * to the output. For {@linkplain FormatStyle#PRINTF printf} style messages the message is formatted directly to the
+ * target. {@linkplain FormatStyle#MESSAGE_FORMAT Message format} style messages are formatted into a reusable buffer
+ * as {@link MessageFormat} can only format into a {@link StringBuffer}. The output is the same as
+ * {@link ExtLogRecord#getFormattedMessage()}.
+ * </p>
+ * <p>
+ * The rendered message is not stored on the record. Any handler or formatter which later invokes
+ * {@link ExtLogRecord#getFormattedMessage()} formats the message again, so the formatted string is only avoided when
+ * this formatter is the only consumer of the formatted message.
+ * </p>
+ * <p>
+ * Whether the record already holds a formatted message can only be determined by reading the private
+ * {@code formattedMessage} field of the record. If the field cannot be read, for example because it no longer exists
+ * or a security manager denies access, no message is rendered and {@link ExtLogRecord#getFormattedMessage()} is used.
+ * </p>
+ * <p>
+ * Instances are not thread-safe and are expected to be held per thread.
+ * </p>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class MessageRenderer {
+
+    private static final MethodHandle FORMATTED_MESSAGE_GETTER = findGetter();
+
+    private final Target target = new Target();
+    private final StringBuffer buffer = new StringBuffer();
+    private final char[] chunk = new char[1024];
+    private final CharBuffer chunkBuffer = CharBuffer.wrap(chunk);
+    private Formatter formatter;
+    private MessageFormat messageFormat;
+    private String pattern;
+
+    /**
+     * Indicates whether or not the message of the record can be {@linkplain #render(Appendable, ExtLogRecord)
+     * rendered}. Messages without parameters, localized messages and messages which have already been formatted are
+     * not rendered as the message is available without formatting.
+     *
+     * @param record the record to check
+     *
+     * @return {@code true} if the message should be rendered, otherwise {@code false}
+     */
+    static boolean isRenderable(final ExtLogRecord record) {
+        return isRenderable(record, FORMATTED_MESSAGE_GETTER);
+    }
+
+    /**
+     * Indicates whether or not the message of the record can be rendered reading the formatted message with the
+     * getter.
+     *
+     * @param record the record to check
+     * @param getter the getter for the formatted message of the record or {@code null} if the formatted message
+     *               cannot be read
+     *
+     * @return {@code true} if the message should be rendered, otherwise {@code false}
+     */
+    static boolean isRenderable(final ExtLogRecord record, final MethodHandle getter) {
+        if (getter == null || record.getResourceBundle() != null) {
+            return false;
+        }
+        final String message = record.getMessage();
+        final Object[] parameters = record.getParameters();
+        if (message == null || parameters == null || parameters.length == 0) {
+            return false;
+        }
+        final FormatStyle formatStyle = record.getFormatStyle();
+        if (formatStyle == FormatStyle.PRINTF || (formatStyle == FormatStyle.MESSAGE_FORMAT && message.indexOf('{') >= 0)) {
+            try {
+                return getter.invokeExact(record) == null;
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Formats the message of the record to the target. The message must be
+     * {@linkplain #isRenderable(ExtLogRecord) renderable}.
+     *
+     * @param out    the target to append the message to
+     * @param record the record to render the message for
+     *
+     * @throws IOException if an error occurs appending to the target
+     */
+    void render(final Appendable out, final ExtLogRecord record) throws IOException {
+        final String message = record.getMessage();
+        final Object[] parameters = record.getParameters();
+        final Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        if (record.getFormatStyle() == FormatStyle.PRINTF) {
+            Formatter formatter = this.formatter;
+            if (formatter == null || !locale.equals(formatter.locale())) {
+                formatter = new Formatter(target, locale);
+                this.formatter = formatter;
+            }
+            target.out = out;
+            try {
+                formatter.format(message, parameters);
+            } finally {
+                target.out = null;
+            }
+            final IOException e = formatter.ioException();
+            if (e != null) {
+                // The formatter retains the exception, a new formatter is required for the next message
+                this.formatter = null;
+                throw e;
+            }
+        } else {
+            MessageFormat messageFormat = this.messageFormat;
+            if (messageFormat == null || !message.equals(pattern) || !locale.equals(messageFormat.getLocale())) {
+                messageFormat = new MessageFormat(message, locale);
+                this.messageFormat = messageFormat;
+                pattern = message;
+            }
+            final StringBuffer buffer = this.buffer;
+            buffer.setLength(0);
+            messageFormat.format(parameters, buffer, null);
+            // Copy in chunks, StringBuffer synchronizes each character read
+            final int len = buffer.length();
+            for (int start = 0; start < len; start += chunk.length) {
+                final int end = Math.min(len, start + chunk.length);
+                buffer.getChars(start, end, chunk, 0);
+                out.append(chunkBuffer, 0, end - start);
+            }
+        }
+    }
+
+    /**
+     * Clears the state of the last message rendered.
+     *
+     * @param maxCapacity the maximum capacity of the buffer to retain
+     */
+    void reset(final int maxCapacity) {
+        buffer.setLength(0);
+        if (buffer.capacity() > maxCapacity) {
+            buffer.trimToSize();
+        }
+    }
+
+    private static MethodHandle findGetter() {
+        return AccessController.doPrivileged(new PrivilegedAction<MethodHandle>() {
+            @Override
+            public MethodHandle run() {
+                try {
+                    final Field field = ExtLogRecord.class.getDeclaredField("formattedMessage");
+                    if (field.getType() != String.class) {
+                        return null;
+                    }
+                    field.setAccessible(true);
+                    return MethodHandles.lookup().unreflectGetter(field)
+                            .asType(MethodType.methodType(Object.class, ExtLogRecord.class));
+                } catch (Exception ignore) {
+                    // Includes an InaccessibleObjectException on newer JVMs
+                    return null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Delegates to the target of the message currently being formatted. A {@link Formatter} can only write to the
+     * appendable it was created with.
+     */
+    private static final class Target implements Appendable {
+        Appendable out;
+
+        @Override
+        public Appendable append(final CharSequence csq) throws IOException {
+            out.append(csq);
+            return this;
+        }
+
+        @Override
+        public Appendable append(final CharSequence csq, final int start, final int end) throws IOException {
+            out.append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(final char c) throws IOException {
+            out.append(c);
+            return this;
+        }
+    }
+}
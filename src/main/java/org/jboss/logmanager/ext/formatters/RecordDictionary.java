@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns a numeric id to each distinct stack frame and string written in dictionary mode. A value is written in full
+ * once, in the dictionary of the record which first used it, and is referenced by its id in subsequent records.
+ * <p>
+ * The dictionary is bounded. Once the maximum number of ids have been assigned values without an id are written in
+ * full.
+ * </p>
+ * <p>
+ * A reference is only valid once the record defining the value has been read, so the records must be written in the
+ * order the ids were assigned. This class is not thread-safe, the {@link StructuredFormatter} holds the lock of the
+ * dictionary while formatting a record which uses it.
+ * </p>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class RecordDictionary {
+    private final Map<Object, Integer> ids = new HashMap<>();
+    private final int maxSize;
+
+    /**
+     * Creates a new dictionary.
+     *
+     * @param maxSize the maximum number of ids to assign
+     */
+    RecordDictionary(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the maximum number of ids assigned.
+     *
+     * @return the maximum size of the dictionary
+     */
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the id of the value, assigning a new id if the value does not have one. A value which was assigned a new
+     * id is added to the definitions and must be written in full with the record.
+     *
+     * @param value       the {@link StackTraceElement} or {@link String} to get the id for
+     * @param definitions the values defined by the current record
+     *
+     * @return the id of the value or {@code -1} if the dictionary is full
+     */
+    int getId(final Object value, final List<Object> definitions) {
+        final Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        final int newId = ids.size();
+        if (newId >= maxSize) {
+            return -1;
+        }
+        ids.put(value, newId);
+        definitions.add(value);
+        return newId;
+    }
+
+    /**
+     * Returns the id previously assigned to the value.
+     *
+     * @param value the value
+     *
+     * @return the id of the value or {@code -1} if the value has not been assigned an id
+     */
+    int getDefinedId(final Object value) {
+        final Integer id = ids.get(value);
+        return (id == null ? -1 : id);
+    }
+}
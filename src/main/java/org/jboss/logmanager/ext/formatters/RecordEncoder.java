@@ -0,0 +1,53 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.nio.ByteBuffer;
+
+import org.jboss.logmanager.ExtLogRecord;
+
+/**
+ * A formatter which can encode a record directly into bytes without first creating a {@link String}.
+ * <p>
+ * Handlers which write bytes should prefer {@link #encode(ExtLogRecord, ByteBuffer)} over
+ * {@link java.util.logging.Formatter#format(java.util.logging.LogRecord) format} when the formatter implements this
+ * interface and the handler's encoding is UTF-8.
+ * </p>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public interface RecordEncoder {
+
+    /**
+     * Encodes the formatted record as UTF-8 into the buffer starting at the buffers current position.
+     * <p>
+     * If the buffer does not have enough space remaining a larger buffer is allocated, heap or direct matching the
+     * buffer passed in. The bytes already in the buffer, up to its position, are copied to the new buffer before the
+     * record is written. In either case the returned buffer's position is after the last byte of the record.
+     * </p>
+     *
+     * @param record the record to encode
+     * @param buffer the buffer to write to
+     *
+     * @return the buffer the record was written to, either {@code buffer} or a larger buffer if it did not have
+     * enough space remaining
+     */
+    ByteBuffer encode(ExtLogRecord record, ByteBuffer buffer);
+}
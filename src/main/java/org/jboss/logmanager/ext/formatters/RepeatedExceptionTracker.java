@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks how many times an exception, identified by its {@linkplain ExceptionFingerprint fingerprint}, has been
+ * repeated within a time window. The window for a fingerprint starts with the first occurrence and every occurrence
+ * within the window is a repeat. The first occurrence after the window has elapsed starts a new window.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class RepeatedExceptionTracker {
+    private static final int MAX_FINGERPRINTS = 1024;
+
+    private final long window;
+    private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new tracker.
+     *
+     * @param window the length of the window in milliseconds
+     */
+    RepeatedExceptionTracker(final long window) {
+        this.window = window;
+    }
+
+    /**
+     * Returns the length of the window in milliseconds.
+     *
+     * @return the length of the window
+     */
+    long getWindow() {
+        return window;
+    }
+
+    /**
+     * Records an occurrence of the exception.
+     *
+     * @param fingerprint the fingerprint of the exception
+     * @param millis      the time of the occurrence
+     *
+     * @return {@code 0} if this occurrence starts a new window, otherwise the number of times the exception has been
+     * repeated in the current window
+     */
+    int occurred(final String fingerprint, final long millis) {
+        Window w = windows.get(fingerprint);
+        if (w == null) {
+            if (windows.size() >= MAX_FINGERPRINTS) {
+                expire(millis);
+            }
+            w = new Window(millis);
+            final Window existing = windows.putIfAbsent(fingerprint, w);
+            if (existing == null) {
+                return 0;
+            }
+            w = existing;
+        }
+        return w.occurred(millis);
+    }
+
+    private void expire(final long millis) {
+        final Iterator<Window> iterator = windows.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(millis)) {
+                iterator.remove();
+            }
+        }
+        // Every window is active, start over rather than growing without bound
+        if (windows.size() >= MAX_FINGERPRINTS) {
+            windows.clear();
+        }
+    }
+
+    private final class Window {
+        private final AtomicLong start;
+        private final AtomicInteger repeats = new AtomicInteger();
+
+        private Window(final long start) {
+            this.start = new AtomicLong(start);
+        }
+
+        int occurred(final long millis) {
+            for (;;) {
+                final long start = this.start.get();
+                // Records may be formatted out of order, a record before the start is within the window
+                if (millis - start < window) {
+                    return repeats.incrementAndGet();
+                }
+                if (this.start.compareAndSet(start, millis)) {
+                    repeats.set(0);
+                    return 0;
+                }
+            }
+        }
+
+        boolean isExpired(final long millis) {
+            return millis - start.get() >= window;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Renders a stack trace in the same format as {@link Throwable#printStackTrace()}. The frames of each exception are
+ * taken from an {@link ExceptionCache} when one is available. The stack trace is appended in pieces, allowing a
+ * generator to escape it while it's being written to the output.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class StackTraceFormatter {
+    private static final String CAUSE_CAPTION = "Caused by: ";
+    private static final String SUPPRESSED_CAPTION = "Suppressed: ";
+    private static final String NEW_LINE = System.lineSeparator();
+
+    private final Appendable out;
+    private final ExceptionCache cache;
+    private final ExceptionLimits limits;
+    private final Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<Throwable, Boolean>());
+
+    private StackTraceFormatter(final Appendable out, final ExceptionCache cache, final ExceptionLimits limits) {
+        this.out = out;
+        this.cache = cache;
+        this.limits = limits;
+    }
+
+    /**
+     * Renders the stack trace of the throwable.
+     * <p>
+     * Frames which are excluded, or exceed the maximum number of frames, are summarized with a
+     * {@code ... n frames omitted} line. Suppressed exceptions exceeding the maximum are summarized with a
+     * {@code ... n suppressed exceptions omitted} line. Causes and suppressed exceptions beyond the maximum depth are
+     * not rendered. Without limits the output is the same as {@link Throwable#printStackTrace()}.
+     * </p>
+     *
+     * @param out       the target to append the stack trace to
+     * @param throwable the throwable to render
+     * @param cache     the cache for the rendered frames or {@code null} if the frames should not be cached
+     * @param limits    the limits to apply
+     *
+     * @throws IOException if an error occurs appending to the target
+     */
+    static void render(final Appendable out, final Throwable throwable, final ExceptionCache cache, final ExceptionLimits limits)
+            throws IOException {
+        final StackTraceFormatter formatter = new StackTraceFormatter(out, cache, limits);
+        formatter.seen.add(throwable);
+        out.append(throwable.toString()).append(NEW_LINE);
+        final StackTraceElement[] trace = throwable.getStackTrace();
+        formatter.appendFrames(throwable, trace, trace.length, "");
+        formatter.renderNested(throwable, trace, "", 1);
+    }
+
+    private void renderNested(final Throwable throwable, final StackTraceElement[] trace, final String prefix, final int depth) throws IOException {
+        if (!limits.isDepthAllowed(depth)) {
+            return;
+        }
+        final Throwable[] suppressed = throwable.getSuppressed();
+        final int count = limits.getSuppressedCount(suppressed.length);
+        for (int i = 0; i < count; i++) {
+            renderEnclosed(suppressed[i], trace, SUPPRESSED_CAPTION, prefix + "\t", depth);
+        }
+        if (count < suppressed.length) {
+            out.append(prefix).append("\t... ").append(Integer.toString(suppressed.length - count)).append(" suppressed exceptions omitted").append(NEW_LINE);
+        }
+        final Throwable cause = throwable.getCause();
+        if (cause != null) {
+            renderEnclosed(cause, trace, CAUSE_CAPTION, prefix, depth);
+        }
+    }
+
+    private void renderEnclosed(final Throwable throwable, final StackTraceElement[] enclosingTrace, final String caption,
+                                final String prefix, final int depth) throws IOException {
+        if (!seen.add(throwable)) {
+            out.append(prefix).append(caption).append("[CIRCULAR REFERENCE: ").append(throwable.toString()).append(']').append(NEW_LINE);
+            return;
+        }
+        final StackTraceElement[] trace = throwable.getStackTrace();
+        final int framesInCommon = ExceptionLimits.framesInCommon(trace, enclosingTrace);
+        out.append(prefix).append(caption).append(throwable.toString()).append(NEW_LINE);
+        appendFrames(throwable, trace, trace.length - framesInCommon, prefix);
+        if (framesInCommon != 0) {
+            out.append(prefix).append("\t... ").append(Integer.toString(framesInCommon)).append(" more").append(NEW_LINE);
+        }
+        renderNested(throwable, trace, prefix, depth + 1);
+    }
+
+    private void appendFrames(final Throwable throwable, final StackTraceElement[] trace, final int end, final String prefix)
+            throws IOException {
+        final Appendable out = this.out;
+        final ExceptionLimits limits = this.limits;
+        final ExceptionCache.Entry entry = (cache == null ? null : cache.get(throwable.getClass().getName(), trace));
+        int written = 0;
+        int omitted = 0;
+        for (int i = 0; i < end; i++) {
+            if (limits.maxFrames >= 0 && written >= limits.maxFrames) {
+                omitted += end - i;
+                break;
+            }
+            if (limits.isExcluded(trace[i])) {
+                omitted++;
+                continue;
+            }
+            out.append(prefix).append("\tat ").append(entry == null ? trace[i].toString() : entry.getFormatted(i)).append(NEW_LINE);
+            written++;
+        }
+        if (omitted > 0) {
+            out.append(prefix).append("\t... ").append(Integer.toString(omitted)).append(" frames omitted").append(NEW_LINE);
+        }
+    }
+}
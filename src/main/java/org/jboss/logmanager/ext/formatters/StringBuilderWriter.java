@@ -45,6 +45,15 @@ final class StringBuilderWriter extends Writer {
         this.builder = builder;
     }
 
+    /**
+     * Returns the builder this writer writes to.
+     *
+     * @return the builder
+     */
+    StringBuilder getBuilder() {
+        return builder;
+    }
+
     /**
      * Clears the builder used for the writer.
      *
@@ -54,6 +63,21 @@ final class StringBuilderWriter extends Writer {
         builder.setLength(0);
     }
 
+    /**
+     * Clears the builder used for the writer. If the capacity of the builder has grown larger than the maximum
+     * capacity the internal storage is released.
+     *
+     * @param maxCapacity the maximum capacity the builder may retain
+     *
+     * @see StringBuilder#trimToSize()
+     */
+    void clear(final int maxCapacity) {
+        builder.setLength(0);
+        if (builder.capacity() > maxCapacity) {
+            builder.trimToSize();
+        }
+    }
+
     @Override
     public void write(final char[] cbuf, final int off, final int len) {
         builder.append(cbuf, off, len);
@@ -76,7 +100,7 @@ final class StringBuilderWriter extends Writer {
 
     @Override
     public void write(final String str, final int off, final int len) {
-        builder.append(str, off, len);
+        builder.append(str, off, off + len);
     }
 
     @Override
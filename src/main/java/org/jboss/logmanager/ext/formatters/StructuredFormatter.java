@@ -19,56 +19,87 @@
 
 package org.jboss.logmanager.ext.formatters;
 
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Date;
+import java.util.Comparator;
 import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.logging.Handler;
+import java.util.logging.Level;
 
 import org.jboss.logmanager.ExtFormatter;
 import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.LogContext;
 import org.jboss.logmanager.ext.util.PropertyValues;
 
 /**
  * An abstract class that uses a generator to help generate structured data from a {@link
  * org.jboss.logmanager.ExtLogRecord record}.
  * <p>
- * Note that including details can be expensive in terms of calculating the caller.
+ * Note that including details can be expensive in terms of calculating the caller. The details and the exception
+ * output may be limited to the records which need them with {@linkplain #setLevelPolicies(String) level policies}.
+ * On Java 9 or higher the cost can be reduced by {@linkplain #setUseStackWalker(boolean) resolving the caller with a
+ * stack walker}.
  * </p>
  * <p>
  * By default the {@linkplain #setRecordDelimiter(String) record delimiter} is set to {@code \n}.
  * </p>
+ * <p>
+ * Formatting is not serialized. Each thread formats into its own buffer and exception state, so a single formatter
+ * may be shared by any number of threads. Implementations must ensure {@link #createGenerator(Writer)} and the
+ * {@link #before(Generator, ExtLogRecord) before} and {@link #after(Generator, ExtLogRecord) after} callbacks are
+ * safe to invoke concurrently.
+ * </p>
  *
  * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
  */
 @SuppressWarnings({"unused", "InstanceVariableMayNotBeInitialized"})
-public abstract class StructuredFormatter extends ExtFormatter {
+public abstract class StructuredFormatter extends ExtFormatter implements RecordEncoder {
 
     /**
      * The key used for the structured log record data.
      */
     public enum Key {
+        DICTIONARY("dictionary"),
+        DICTIONARY_ENTRY("entry"),
+        DICTIONARY_ID("id"),
+        DICTIONARY_REFERENCE("ref"),
+        DICTIONARY_VALUE("value"),
         EXCEPTION("exception"),
         EXCEPTION_CAUSED_BY("causedBy"),
         EXCEPTION_CIRCULAR_REFERENCE("circularReference"),
+        EXCEPTION_FINGERPRINT("exceptionFingerprint"),
         EXCEPTION_TYPE("exceptionType"),
         EXCEPTION_FRAME("frame"),
         EXCEPTION_FRAME_CLASS("class"),
         EXCEPTION_FRAME_LINE("line"),
         EXCEPTION_FRAME_METHOD("method"),
         EXCEPTION_FRAMES("frames"),
+        EXCEPTION_FRAMES_IN_COMMON("framesInCommon"),
+        EXCEPTION_FRAMES_OMITTED("framesOmitted"),
         EXCEPTION_MESSAGE("message"),
         EXCEPTION_REFERENCE_ID("refId"),
+        EXCEPTION_REPEAT_COUNT("exceptionRepeatCount"),
         EXCEPTION_SUPPRESSED("suppressed"),
+        EXCEPTION_SUPPRESSED_OMITTED("suppressedOmitted"),
         LEVEL("level"),
         LOGGER_CLASS_NAME("loggerClassName"),
         LOGGER_NAME("loggerName"),
         MDC("mdc"),
         MESSAGE("message"),
+        MESSAGE_PARAMETER("parameter"),
+        MESSAGE_PARAMETERS("messageParameters"),
+        MESSAGE_TEMPLATE("messageTemplate"),
         NDC("ndc"),
         RECORD("record"),
         SEQUENCE("sequence"),
@@ -117,21 +148,122 @@ public abstract class StructuredFormatter extends ExtFormatter {
         DETAILED_AND_FORMATTED
     }
 
+    /**
+     * Defines the way the message of a record will be formatted.
+     */
+    public enum MessageOutputType {
+        /**
+         * The message will be the {@linkplain org.jboss.logmanager.ExtLogRecord#getFormattedMessage() formatted}
+         * message in a {@code message} property.
+         */
+        FORMATTED,
+        /**
+         * The message will be the unformatted message in a {@code messageTemplate} property and the parameters, if
+         * present, an array in a {@code messageParameters} property. Numbers and booleans are written as typed values
+         * where the generator supports it. The message is not formatted.
+         */
+        TEMPLATE,
+        /**
+         * Adds both the {@link #FORMATTED} and {@link #TEMPLATE}
+         */
+        FORMATTED_AND_TEMPLATE
+    }
+
     public static final String DEFAULT_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssXXX";
 
+    /**
+     * The largest buffer capacity a thread is allowed to retain between records. Buffers which grew beyond this while
+     * formatting an unusually large record are released.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    /**
+     * The default number of exception stack traces to cache the rendered frames for.
+     */
+    public static final int DEFAULT_EXCEPTION_CACHE_SIZE = 128;
+
+    /**
+     * The default number of frames from the top of the stack trace included in an exception fingerprint.
+     */
+    public static final int DEFAULT_EXCEPTION_FINGERPRINT_FRAMES = 5;
+
+    /**
+     * The default maximum number of values assigned an id in dictionary mode.
+     */
+    public static final int DEFAULT_MAX_DICTIONARY_SIZE = 65536;
+
+    /**
+     * The default number of resolved call sites cached for the {@linkplain #isPrintDetails() details}.
+     */
+    public static final int DEFAULT_CALL_SITE_CACHE_SIZE = 1024;
+
+    private static final Key[] KEYS = Key.values();
+
+    /**
+     * The fields written for every record in the order they are written.
+     */
+    private static final Key[] DEFAULT_FIELDS = {
+            Key.TIMESTAMP,
+            Key.SEQUENCE,
+            Key.LOGGER_CLASS_NAME,
+            Key.LOGGER_NAME,
+            Key.LEVEL,
+            Key.MESSAGE,
+            Key.THREAD_NAME,
+            Key.THREAD_ID,
+            Key.MDC,
+            Key.NDC,
+    };
+
+    private static final Key[] DETAIL_FIELDS = {
+            Key.SOURCE_CLASS_NAME,
+            Key.SOURCE_FILE_NAME,
+            Key.SOURCE_METHOD_NAME,
+            Key.SOURCE_LINE_NUMBER,
+    };
+
     private final Map<Key, String> keyOverrides;
     private final String keyOverridesValue;
-    // Guarded by this
-    private String metaData;
-    // Guarded by this
-    private Map<String, String> metaDataMap;
+    private volatile String metaData;
+    private volatile Map<String, String> metaDataMap;
     private volatile boolean printDetails;
-    private volatile SimpleDateFormat dateTimeFormatter;
+    private volatile String datePattern;
     private volatile String eorDelimiter = "\n";
     private volatile ExceptionOutputType exceptionOutputType;
-    private final StringBuilderWriter writer = new StringBuilderWriter();
-    // Guarded by this
-    private int refId;
+    private volatile MessageOutputType messageOutputType = MessageOutputType.FORMATTED;
+    private volatile String includeKeys;
+    private volatile Set<Key> includeKeySet = Collections.emptySet();
+    private volatile String excludeKeys;
+    private volatile Set<Key> excludeKeySet = Collections.emptySet();
+    private volatile boolean excludeEmptyValues;
+    private volatile boolean flattenMdc;
+    private volatile int maxExceptionFrames = -1;
+    private volatile int maxCauseDepth = -1;
+    private volatile int maxSuppressedExceptions = -1;
+    private volatile boolean elideCommonFrames;
+    private volatile String excludedFramePackages;
+    private volatile String[] excludedFramePackageArray = new String[0];
+    private volatile ExceptionCache exceptionCache = new ExceptionCache(DEFAULT_EXCEPTION_CACHE_SIZE);
+    private volatile ValueSerializers serializers = ValueSerializers.DEFAULT;
+    private volatile String valueSerializers;
+    private volatile CallSiteCache callSiteCache = new CallSiteCache(DEFAULT_CALL_SITE_CACHE_SIZE);
+    private volatile boolean useStackWalker;
+    private volatile boolean printExceptionFingerprint;
+    private volatile int exceptionFingerprintFrames = DEFAULT_EXCEPTION_FINGERPRINT_FRAMES;
+    private volatile RepeatedExceptionTracker repeatedExceptionTracker;
+    private volatile boolean useDictionary;
+    private volatile int maxDictionarySize = DEFAULT_MAX_DICTIONARY_SIZE;
+    private volatile RecordDictionary dictionary;
+    private volatile String levelPolicies;
+    private volatile LevelPolicy[] levelPolicyArray = new LevelPolicy[0];
+    // Guarded by this for writes
+    private volatile FieldPlan plan;
+    private final ThreadLocal<FormatContext> contexts = new ThreadLocal<FormatContext>() {
+        @Override
+        protected FormatContext initialValue() {
+            return new FormatContext();
+        }
+    };
 
     protected StructuredFormatter() {
         this(null, null);
@@ -148,13 +280,18 @@ public abstract class StructuredFormatter extends ExtFormatter {
     private StructuredFormatter(final Map<Key, String> keyOverrides, final String keyOverridesValue) {
         this.keyOverridesValue = keyOverridesValue;
         this.printDetails = false;
-        dateTimeFormatter = new SimpleDateFormat(DEFAULT_DATE_FORMAT);
+        datePattern = DEFAULT_DATE_FORMAT;
         this.keyOverrides = (keyOverrides == null ? Collections.<Key, String>emptyMap() : new EnumMap<>(keyOverrides));
         exceptionOutputType = ExceptionOutputType.DETAILED;
+        compile();
     }
 
     /**
      * Creates the generator used to create the structured data.
+     * <p>
+     * Generators which {@linkplain Generator#reset(Writer) can be reset} are reused for subsequent records formatted
+     * on the same thread.
+     * </p>
      *
      * @return the generator to use
      *
@@ -162,6 +299,22 @@ public abstract class StructuredFormatter extends ExtFormatter {
      */
     protected abstract Generator createGenerator(Writer writer) throws Exception;
 
+    /**
+     * Prepares a generator previously created by {@link #createGenerator(Writer)} to write another record. The
+     * built-in generators are static and receive the configuration of the formatter here, as the generator is cached
+     * by a thread local of the formatter it must not reference the formatter itself.
+     *
+     * @param generator the generator to reset
+     * @param writer    the writer the next record will be written to
+     *
+     * @return {@code true} if the generator was reset and can be used for the next record, otherwise {@code false}
+     *
+     * @throws Exception if an error occurs resetting the generator
+     */
+    boolean resetGenerator(final Generator generator, final Writer writer) throws Exception {
+        return generator.reset(writer);
+    }
+
     /**
      * Invoked before the structured data is added to the generator.
      *
@@ -190,76 +343,470 @@ public abstract class StructuredFormatter extends ExtFormatter {
      * @return the overridden key or the default key if no override exists
      */
     protected final String getKey(final Key defaultKey) {
-        if (keyOverrides.containsKey(defaultKey)) {
-            return keyOverrides.get(defaultKey);
+        return plan.keys[defaultKey.ordinal()];
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * In {@linkplain #setUseDictionary(boolean) dictionary mode} the head starts a new dictionary, values are written in
+     * full again in the first record which uses them.
+     * </p>
+     */
+    @Override
+    public String getHead(final Handler h) {
+        synchronized (this) {
+            if (useDictionary) {
+                dictionary = new RecordDictionary(maxDictionarySize);
+            }
+        }
+        return super.getHead(h);
+    }
+
+    @Override
+    public String format(final ExtLogRecord record) {
+        final FormatContext context = acquireContext();
+        try {
+            write(record, context);
+            return context.writer.toString();
+        } finally {
+            // Clear the context for the next format
+            context.reset();
         }
-        return defaultKey.getKey();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The record is formatted into a buffer owned by the current thread and then encoded without creating an
+     * intermediate {@link String}.
+     * </p>
+     */
     @Override
-    public synchronized String format(final ExtLogRecord record) {
-        final boolean details = printDetails;
+    public ByteBuffer encode(final ExtLogRecord record, final ByteBuffer buffer) {
+        final FormatContext context = acquireContext();
+        try {
+            write(record, context);
+            return Utf8Encoder.encode(context.writer.getBuilder(), buffer);
+        } finally {
+            // Clear the context for the next format
+            context.reset();
+        }
+    }
+
+    /**
+     * Formats the record appending it to the target. This avoids creating a {@link String} for the formatted record.
+     * <p>
+     * The record is formatted into a buffer owned by the current thread and is only appended to the target once
+     * formatting has completed successfully, so a record which fails to format leaves the target unchanged.
+     * </p>
+     *
+     * @param record the record to format
+     * @param target the target to append the formatted record to
+     *
+     * @throws IOException if an error occurs appending to the target
+     */
+    public void formatTo(final ExtLogRecord record, final Appendable target) throws IOException {
+        final FormatContext context = acquireContext();
+        try {
+            write(record, context);
+            final StringBuilder builder = context.writer.getBuilder();
+            if (target instanceof Writer) {
+                // Writer.append(CharSequence) converts the sequence to a string, write in chunks instead
+                final Writer writer = (Writer) target;
+                final char[] chunk = context.chunk;
+                final int len = builder.length();
+                int start = 0;
+                while (start < len) {
+                    final int end = Math.min(len, start + chunk.length);
+                    builder.getChars(start, end, chunk, 0);
+                    writer.write(chunk, 0, end - start);
+                    start = end;
+                }
+            } else {
+                target.append(builder);
+            }
+        } finally {
+            // Clear the context for the next format
+            context.reset();
+        }
+    }
+
+    private FormatContext acquireContext() {
+        FormatContext context = contexts.get();
+        // A nested format on the same thread, e.g. from a toString() which logs, gets its own context
+        if (context.inUse) {
+            context = new FormatContext();
+        }
+        context.inUse = true;
+        return context;
+    }
+
+    /**
+     * Writes the structured record to the contexts writer.
+     *
+     * @param record  the record to write
+     * @param context the context for the current thread
+     */
+    private void write(final ExtLogRecord record, final FormatContext context) {
+        final RecordDictionary dictionary = this.dictionary;
+        if (dictionary == null) {
+            write(record, context, null);
+        } else {
+            // Records using the dictionary are formatted one at a time so ids are assigned in the order records complete
+            synchronized (dictionary) {
+                write(record, context, dictionary);
+            }
+        }
+    }
+
+    private void write(final ExtLogRecord record, final FormatContext context, final RecordDictionary dictionary) {
+        final StringBuilderWriter writer = context.writer;
+        // Use a single plan for the whole record so a concurrent configuration change is never partially applied
+        final FieldPlan plan = this.plan;
+        final String[] keys = plan.keys;
         try {
-            final Generator generator = createGenerator(writer).begin();
+            Generator generator = context.generator;
+            if (generator == null || !resetGenerator(generator, writer)) {
+                generator = createGenerator(writer);
+                context.generator = generator;
+            }
+            generator.serializers = serializers;
+            generator.begin();
             before(generator, record);
 
-            // Add the default structure
-            generator.add(getKey(Key.TIMESTAMP), dateTimeFormatter.format(new Date(record.getMillis())))
-                    .add(getKey(Key.SEQUENCE), record.getSequenceNumber())
-                    .add(getKey(Key.LOGGER_CLASS_NAME), record.getLoggerClassName())
-                    .add(getKey(Key.LOGGER_NAME), record.getLoggerName())
-                    .add(getKey(Key.LEVEL), record.getLevel().getName())
-                    .add(getKey(Key.MESSAGE), record.getFormattedMessage())
-                    .add(getKey(Key.THREAD_NAME), record.getThreadName())
-                    .add(getKey(Key.THREAD_ID), record.getThreadID())
-                    .add(getKey(Key.MDC), record.getMdcCopy())
-                    .add(getKey(Key.NDC), record.getNdc());
-
-            // Add the cause of the log message if applicable
             final Throwable thrown = record.getThrown();
-            if (thrown != null) {
-                if (isDetailedExceptionOutputType()) {
-                    refId = 0;
-                    final Map<Throwable, Integer> seen = new IdentityHashMap<>();
-                    generator.startObject(getKey(Key.EXCEPTION));
-                    addException(generator, thrown, seen);
-                    generator.endObject();
+            final boolean excludeEmpty = plan.excludeEmptyValues;
+            context.dictionary = dictionary;
+            String fingerprint = null;
+            int repeatCount = 0;
+            final FieldSet fields = plan.getFields(record.getLevel().intValue());
+            if (thrown != null && fields.fingerprint) {
+                fingerprint = ExceptionFingerprint.compute(thrown, plan.exceptionFingerprintFrames);
+                if (plan.repeatedExceptionTracker != null) {
+                    repeatCount = plan.repeatedExceptionTracker.occurred(fingerprint, record.getMillis());
                 }
-
-                if (isFormattedExceptionOutputType()) {
-                    final StringBuilderWriter w = new StringBuilderWriter();
-                    thrown.printStackTrace(new PrintWriter(w));
-                    generator.add(getKey(Key.STACK_TRACE), w.toString());
+            }
+            if (fields.caller && useStackWalker) {
+                CallerResolver.resolve(record, callSiteCache);
+            }
+            for (Key field : fields.keys) {
+                final String key = keys[field.ordinal()];
+                switch (field) {
+                    case TIMESTAMP:
+                        final StringBuilder timestamp = context.timestamp;
+                        context.getDateFormat(plan.datePattern).formatTo(record.getMillis(), timestamp);
+                        generator.add(key, timestamp);
+                        break;
+                    case SEQUENCE:
+                        generator.add(key, record.getSequenceNumber());
+                        break;
+                    case LOGGER_CLASS_NAME:
+                        add(generator, key, record.getLoggerClassName(), excludeEmpty);
+                        break;
+                    case LOGGER_NAME:
+                        final String loggerName = record.getLoggerName();
+                        if (dictionary == null || loggerName == null || loggerName.isEmpty() || !addReference(generator, key, loggerName, context, keys)) {
+                            add(generator, key, loggerName, excludeEmpty);
+                        }
+                        break;
+                    case LEVEL:
+                        generator.add(key, record.getLevel().getName());
+                        break;
+                    case MESSAGE:
+                        addMessage(generator, key, record, context, excludeEmpty);
+                        break;
+                    case MESSAGE_TEMPLATE:
+                        final String template = record.getMessage();
+                        if (dictionary == null || template == null || template.isEmpty() || !addReference(generator, key, template, context, keys)) {
+                            add(generator, key, template, excludeEmpty);
+                        }
+                        break;
+                    case MESSAGE_PARAMETERS:
+                        final Object[] parameters = record.getParameters();
+                        if (parameters != null && parameters.length > 0) {
+                            final String parameterKey = (generator.wrapArrays() ? keys[Key.MESSAGE_PARAMETER.ordinal()] : null);
+                            generator.startArray(key);
+                            for (Object parameter : parameters) {
+                                generator.addValue(parameterKey, parameter);
+                            }
+                            generator.endArray();
+                        }
+                        break;
+                    case THREAD_NAME:
+                        add(generator, key, record.getThreadName(), excludeEmpty);
+                        break;
+                    case THREAD_ID:
+                        generator.add(key, record.getThreadID());
+                        break;
+                    case MDC:
+                        // The map is not copied, either the records copy or the current threads MDC is read while writing
+                        final Map<String, String> mdc = MdcAccessor.getMdc(record);
+                        if (plan.flattenMdc) {
+                            for (Map.Entry<String, String> entry : mdc.entrySet()) {
+                                add(generator, entry.getKey(), entry.getValue(), excludeEmpty);
+                            }
+                        } else if (dictionary == null || mdc.isEmpty() || !addMdcReferences(generator, key, mdc, context, keys)) {
+                            if (!excludeEmpty || !mdc.isEmpty()) {
+                                generator.add(key, mdc);
+                            }
+                        }
+                        break;
+                    case NDC:
+                        add(generator, key, record.getNdc(), excludeEmpty);
+                        break;
+                    case EXCEPTION_FINGERPRINT:
+                        if (fingerprint != null) {
+                            generator.add(key, fingerprint);
+                        }
+                        break;
+                    case EXCEPTION_REPEAT_COUNT:
+                        if (repeatCount > 0) {
+                            generator.add(key, repeatCount);
+                        }
+                        break;
+                    case EXCEPTION:
+                        if (thrown != null) {
+                            generator.startObject(key);
+                            if (repeatCount > 0) {
+                                // A repeat within the suppression window, only the type and message are written
+                                generator.addAttribute(keys[Key.EXCEPTION_REFERENCE_ID.ordinal()], 1);
+                                generator.add(keys[Key.EXCEPTION_TYPE.ordinal()], thrown.getClass().getName());
+                                generator.add(keys[Key.EXCEPTION_MESSAGE.ordinal()], thrown.getMessage());
+                            } else {
+                                addException(generator, thrown, context, plan, null, 0);
+                            }
+                            generator.endObject();
+                        }
+                        break;
+                    case STACK_TRACE:
+                        if (thrown != null) {
+                            if (repeatCount > 0) {
+                                generator.add(key, thrown.toString());
+                            } else {
+                                // Render the stack trace directly into the output when the generator supports it
+                                final Appendable value = generator.beginValue(key);
+                                if (value == null) {
+                                    final StringBuilder stackTrace = context.stackTrace;
+                                    StackTraceFormatter.render(stackTrace, thrown, exceptionCache, plan.exceptionLimits);
+                                    generator.add(key, stackTrace);
+                                } else {
+                                    StackTraceFormatter.render(value, thrown, exceptionCache, plan.exceptionLimits);
+                                    generator.endValue();
+                                }
+                            }
+                        }
+                        break;
+                    case SOURCE_CLASS_NAME:
+                        add(generator, key, record.getSourceClassName(), excludeEmpty);
+                        break;
+                    case SOURCE_FILE_NAME:
+                        add(generator, key, record.getSourceFileName(), excludeEmpty);
+                        break;
+                    case SOURCE_METHOD_NAME:
+                        add(generator, key, record.getSourceMethodName(), excludeEmpty);
+                        break;
+                    case SOURCE_LINE_NUMBER:
+                        generator.add(key, record.getSourceLineNumber());
+                        break;
+                    default:
+                        throw new IllegalStateException("Unexpected field " + field);
                 }
             }
-            if (details) {
-                generator.add(getKey(Key.SOURCE_CLASS_NAME), record.getSourceClassName())
-                        .add(getKey(Key.SOURCE_FILE_NAME), record.getSourceFileName())
-                        .add(getKey(Key.SOURCE_METHOD_NAME), record.getSourceMethodName())
-                        .add(getKey(Key.SOURCE_LINE_NUMBER), record.getSourceLineNumber());
+
+            // Write the values first used by this record in full
+            final List<Object> definitions = context.definitions;
+            if (!definitions.isEmpty()) {
+                generator.startArray(keys[Key.DICTIONARY.ordinal()]);
+                for (Object value : definitions) {
+                    generator.startObject(generator.wrapArrays() ? keys[Key.DICTIONARY_ENTRY.ordinal()] : null);
+                    generator.addAttribute(keys[Key.DICTIONARY_ID.ordinal()], dictionary.getDefinedId(value));
+                    if (value instanceof StackTraceElement) {
+                        addFrameValues(generator, (StackTraceElement) value, keys);
+                    } else {
+                        generator.add(keys[Key.DICTIONARY_VALUE.ordinal()], (String) value);
+                    }
+                    generator.endObject();
+                }
+                generator.endArray();
             }
 
-            if (isNotNullOrEmpty(metaData)) {
-                generator.addMetaData(metaDataMap);
+            if (plan.metaData != null) {
+                // The meta data does not change between records, write it once and reuse the output
+                final Fragment fragment = plan.metaDataFragment;
+                if (fragment == null || !generator.appendFragment(fragment)) {
+                    final int start = generator.beginFragment();
+                    generator.addMetaData(plan.metaData);
+                    if (start >= 0) {
+                        plan.metaDataFragment = generator.endFragment(start);
+                    }
+                }
             }
 
             after(generator, record);
             generator.end();
 
             // Append an EOL character if desired
-            if (getRecordDelimiter() != null) {
-                writer.append(getRecordDelimiter());
+            if (plan.recordDelimiter != null) {
+                writer.append(plan.recordDelimiter);
             }
-            return writer.toString();
         } catch (Exception e) {
             // Wrap and rethrow
             throw new RuntimeException(e);
-        } finally {
-            // Clear the writer for the next format
-            writer.clear();
         }
     }
 
+    private static void add(final Generator generator, final String key, final String value, final boolean excludeEmpty) throws Exception {
+        if (!excludeEmpty || (value != null && !value.isEmpty())) {
+            generator.add(key, value);
+        }
+    }
+
+    /**
+     * Writes the formatted message of the record. When the generator supports it the message is formatted directly
+     * into the output rather than creating the formatted message. The rendered message is not stored on the record,
+     * another consumer of the record still formats the message. An empty message cannot be excluded once the value
+     * has been started, so the formatted message is always created when excluding empty values. The formatted message
+     * is also used if the record cannot be checked for an existing formatted message.
+     */
+    private static void addMessage(final Generator generator, final String key, final ExtLogRecord record,
+                                   final FormatContext context, final boolean excludeEmpty) throws Exception {
+        if (!excludeEmpty && MessageRenderer.isRenderable(record)) {
+            final Appendable value = generator.beginValue(key);
+            if (value != null) {
+                context.messageRenderer.render(value, record);
+                generator.endValue();
+                return;
+            }
+        }
+        add(generator, key, record.getFormattedMessage(), excludeEmpty);
+    }
+
+    /**
+     * Writes a reference to the value in the dictionary.
+     *
+     * @return {@code true} if the reference was written, {@code false} if the dictionary is full and the value should
+     * be written in full
+     */
+    private static boolean addReference(final Generator generator, final String key, final Object value,
+                                        final FormatContext context, final String[] keys) throws Exception {
+        final int id = context.dictionary.getId(value, context.definitions);
+        if (id < 0) {
+            return false;
+        }
+        generator.startObject(key);
+        generator.addAttribute(keys[Key.DICTIONARY_REFERENCE.ordinal()], id);
+        generator.endObject();
+        return true;
+    }
+
+    /**
+     * Writes the MDC as an array of entries with the key of each entry referenced in the dictionary.
+     *
+     * @return {@code true} if the MDC was written, {@code false} if the dictionary is full and the MDC should be
+     * written in full
+     */
+    private static boolean addMdcReferences(final Generator generator, final String key, final Map<String, String> mdc,
+                                            final FormatContext context, final String[] keys) throws Exception {
+        int[] ids = context.ids;
+        if (ids.length < mdc.size()) {
+            ids = context.ids = new int[mdc.size()];
+        }
+        int i = 0;
+        for (String name : mdc.keySet()) {
+            final int id = context.dictionary.getId(name, context.definitions);
+            if (id < 0) {
+                return false;
+            }
+            ids[i++] = id;
+        }
+        generator.startArray(key);
+        i = 0;
+        for (String value : mdc.values()) {
+            generator.startObject(generator.wrapArrays() ? keys[Key.DICTIONARY_ENTRY.ordinal()] : null);
+            generator.addAttribute(keys[Key.DICTIONARY_REFERENCE.ordinal()], ids[i++]);
+            generator.add(keys[Key.DICTIONARY_VALUE.ordinal()], value);
+            generator.endObject();
+        }
+        generator.endArray();
+        return true;
+    }
+
+    /**
+     * Compiles the current configuration into a new {@link FieldPlan plan} used for each record formatted after this
+     * method returns. Must be invoked while holding the lock on this formatter or from the constructor.
+     */
+    private void compile() {
+        final String[] keys = new String[KEYS.length];
+        for (Key key : KEYS) {
+            keys[key.ordinal()] = (keyOverrides.containsKey(key) ? keyOverrides.get(key) : key.getKey());
+        }
+        // Each level policy has its own fields so the policy is resolved with a single lookup for each record
+        final LevelPolicy[] policies = levelPolicyArray;
+        final int[] levels = new int[policies.length];
+        final FieldSet[] levelFields = new FieldSet[policies.length];
+        for (int i = 0; i < policies.length; i++) {
+            levels[i] = policies[i].level;
+            levelFields[i] = createFieldSet(policies[i].exceptionOutputType, policies[i].printDetails);
+        }
+        final Map<String, String> metaDataMap = this.metaDataMap;
+        plan = new FieldPlan(keys, createFieldSet(exceptionOutputType, printDetails), levels, levelFields, datePattern,
+                (metaDataMap == null || metaDataMap.isEmpty() ? null : metaDataMap), eorDelimiter, excludeEmptyValues, flattenMdc, createExceptionLimits(),
+                exceptionFingerprintFrames, repeatedExceptionTracker);
+    }
+
+    /**
+     * Creates the fields written for a record.
+     *
+     * @param exceptionOutputType the output type for exceptions or {@code null} if exceptions are not written
+     * @param printDetails        {@code true} if the details are written
+     *
+     * @return the fields
+     */
+    private FieldSet createFieldSet(final ExceptionOutputType exceptionOutputType, final boolean printDetails) {
+        final List<Key> fields = new ArrayList<>(DEFAULT_FIELDS.length + DETAIL_FIELDS.length + 4);
+        Collections.addAll(fields, DEFAULT_FIELDS);
+        final MessageOutputType messageOutputType = this.messageOutputType;
+        if (messageOutputType != MessageOutputType.FORMATTED) {
+            final int index = fields.indexOf(Key.MESSAGE);
+            if (messageOutputType == MessageOutputType.TEMPLATE) {
+                fields.remove(index);
+                fields.addAll(index, Arrays.asList(Key.MESSAGE_TEMPLATE, Key.MESSAGE_PARAMETERS));
+            } else {
+                fields.addAll(index + 1, Arrays.asList(Key.MESSAGE_TEMPLATE, Key.MESSAGE_PARAMETERS));
+            }
+        }
+        final RepeatedExceptionTracker repeatedExceptionTracker = this.repeatedExceptionTracker;
+        if (exceptionOutputType != null) {
+            if (printExceptionFingerprint || repeatedExceptionTracker != null) {
+                fields.add(Key.EXCEPTION_FINGERPRINT);
+            }
+            if (repeatedExceptionTracker != null) {
+                fields.add(Key.EXCEPTION_REPEAT_COUNT);
+            }
+        }
+        if (exceptionOutputType == ExceptionOutputType.DETAILED || exceptionOutputType == ExceptionOutputType.DETAILED_AND_FORMATTED) {
+            fields.add(Key.EXCEPTION);
+        }
+        if (exceptionOutputType == ExceptionOutputType.FORMATTED || exceptionOutputType == ExceptionOutputType.DETAILED_AND_FORMATTED) {
+            fields.add(Key.STACK_TRACE);
+        }
+        if (printDetails) {
+            Collections.addAll(fields, DETAIL_FIELDS);
+        }
+        // Apply the projection, fields which are not written are never read from the record
+        final Set<Key> includeKeySet = this.includeKeySet;
+        if (!includeKeySet.isEmpty()) {
+            fields.retainAll(includeKeySet);
+        }
+        fields.removeAll(excludeKeySet);
+        // The fingerprint is required to suppress repeated exceptions even if it's not written
+        final boolean fingerprint = fields.contains(Key.EXCEPTION_FINGERPRINT) || (exceptionOutputType != null && repeatedExceptionTracker != null);
+        final boolean caller = fields.contains(Key.SOURCE_CLASS_NAME) || fields.contains(Key.SOURCE_FILE_NAME)
+                || fields.contains(Key.SOURCE_METHOD_NAME) || fields.contains(Key.SOURCE_LINE_NUMBER);
+        return new FieldSet(fields.toArray(new Key[fields.size()]), fingerprint, caller);
+    }
+
     /**
      * A string representation of the key overrides. The default is {@code null}.
      *
@@ -285,8 +832,9 @@ public abstract class StructuredFormatter extends ExtFormatter {
      *
      * @param eorDelimiter the delimiter to be used or {@code null} to not use a delimiter
      */
-    public void setRecordDelimiter(final String eorDelimiter) {
+    public synchronized void setRecordDelimiter(final String eorDelimiter) {
         this.eorDelimiter = eorDelimiter;
+        compile();
     }
 
     /**
@@ -310,18 +858,25 @@ public abstract class StructuredFormatter extends ExtFormatter {
      * The value is a string where key/value pairs are separated by commas. The key and value are separated by an
      * equal sign.
      * </p>
+     * <p>
+     * Values may contain expressions in the form of {@code ${name}} or {@code ${name:default}} where the name is a
+     * system property, an environment variable prefixed with {@code env.}, {@code hostname} or {@code pid}. The
+     * expressions are resolved once when the meta data is set. As the meta data does not change between records the
+     * built-in generators render it once and reuse the rendered text for subsequent records.
+     * </p>
      *
      * @param metaData the meta data to set or {@code null} to not format any meta data
      *
      * @see PropertyValues#stringToMap(String)
      */
     public synchronized void setMetaData(final String metaData) {
-        this.metaData = metaData;
         if (metaData == null) {
             metaDataMap = null;
         } else {
-            metaDataMap = PropertyValues.stringToMap(metaData);
+            metaDataMap = Expressions.resolve(PropertyValues.stringToMap(metaData));
         }
+        this.metaData = metaData;
+        compile();
     }
 
     /**
@@ -330,7 +885,7 @@ public abstract class StructuredFormatter extends ExtFormatter {
      * @return the current date format
      */
     public String getDateFormat() {
-        return dateTimeFormatter.toPattern();
+        return datePattern;
     }
 
     /**
@@ -339,15 +894,24 @@ public abstract class StructuredFormatter extends ExtFormatter {
      * <p>
      * If the pattern is {@code null} a default pattern will be used.
      * </p>
+     * <p>
+     * Each formatting thread renders the date once per second and reuses it for each record it formats within that
+     * second.
+     * </p>
      *
      * @param pattern the pattern to use
+     *
+     * @throws IllegalArgumentException if the pattern is invalid
      */
     public synchronized void setDateFormat(final String pattern) {
         if (pattern == null) {
-            this.dateTimeFormatter = new SimpleDateFormat(DEFAULT_DATE_FORMAT);
+            this.datePattern = DEFAULT_DATE_FORMAT;
         } else {
-            this.dateTimeFormatter = new SimpleDateFormat(pattern);
+            // Validate the pattern, the date format itself is created by each formatting thread
+            new SimpleDateFormat(pattern);
+            this.datePattern = pattern;
         }
+        compile();
     }
 
     /**
@@ -368,8 +932,9 @@ public abstract class StructuredFormatter extends ExtFormatter {
      *
      * @param printDetails {@code true} if details should be printed
      */
-    public void setPrintDetails(final boolean printDetails) {
+    public synchronized void setPrintDetails(final boolean printDetails) {
         this.printDetails = printDetails;
+        compile();
     }
 
     /**
@@ -386,127 +951,1127 @@ public abstract class StructuredFormatter extends ExtFormatter {
      *
      * @param exceptionOutputType the desired output type, if {@code null} {@link ExceptionOutputType#DETAILED} is used
      */
-    public void setExceptionOutputType(final ExceptionOutputType exceptionOutputType) {
+    public synchronized void setExceptionOutputType(final ExceptionOutputType exceptionOutputType) {
         if (exceptionOutputType == null) {
             this.exceptionOutputType = ExceptionOutputType.DETAILED;
         } else {
             this.exceptionOutputType = exceptionOutputType;
         }
+        compile();
     }
 
     /**
-     * Checks the exception output type and determines if detailed output should be written.
+     * Get the current output type for the message.
      *
-     * @return {@code true} if detailed output should be written, otherwise {@code false}
+     * @return the output type for the message
      */
-    protected boolean isDetailedExceptionOutputType() {
-        return exceptionOutputType == ExceptionOutputType.DETAILED ||
-                exceptionOutputType == ExceptionOutputType.DETAILED_AND_FORMATTED;
+    public MessageOutputType getMessageOutputType() {
+        return messageOutputType;
     }
 
     /**
-     * Checks the exception output type and determines if formatted output should be written. The formatted output is
-     * equivalent to {@link Throwable#printStackTrace()}.
+     * Set the output type for the message. The default is {@link MessageOutputType#FORMATTED FORMATTED}.
+     * <p>
+     * Writing the {@linkplain MessageOutputType#TEMPLATE template} allows records to be grouped by the message
+     * without extracting the parameters from the formatted message. In {@linkplain #setUseDictionary(boolean)
+     * dictionary mode} the template is written as a reference to the dictionary.
+     * </p>
      *
-     * @return {@code true} if formatted exception output should be written, otherwide {@code false}
+     * @param messageOutputType the desired output type, if {@code null} {@link MessageOutputType#FORMATTED} is used
      */
-    protected boolean isFormattedExceptionOutputType() {
-        return exceptionOutputType == ExceptionOutputType.FORMATTED ||
-                exceptionOutputType == ExceptionOutputType.DETAILED_AND_FORMATTED;
+    public synchronized void setMessageOutputType(final MessageOutputType messageOutputType) {
+        if (messageOutputType == null) {
+            this.messageOutputType = MessageOutputType.FORMATTED;
+        } else {
+            this.messageOutputType = messageOutputType;
+        }
+        compile();
     }
 
-    private void addException(final Generator generator, final Throwable throwable, final Map<Throwable, Integer> seen) throws Exception {
-        if (throwable == null) {
-            return;
-        }
-        if (seen.containsKey(throwable)) {
-            generator.addAttribute(getKey(Key.EXCEPTION_REFERENCE_ID), seen.get(throwable));
-            generator.startObject(getKey(Key.EXCEPTION_CIRCULAR_REFERENCE));
-            generator.add(getKey(Key.EXCEPTION_MESSAGE), throwable.getMessage());
-            generator.endObject(); // end circular reference
-        } else {
-            final int id = ++refId;
-            seen.put(throwable, id);
-            generator.addAttribute(getKey(Key.EXCEPTION_REFERENCE_ID), id);
-            generator.add(getKey(Key.EXCEPTION_TYPE), throwable.getClass().getName());
-            generator.add(getKey(Key.EXCEPTION_MESSAGE), throwable.getMessage());
+    /**
+     * Returns the keys, as a comma separated list, of the only fields which will be written. The default is
+     * {@code null} indicating all fields are written.
+     *
+     * @return the included keys or {@code null} if all fields are written
+     */
+    public String getIncludeKeys() {
+        return includeKeys;
+    }
 
-            final StackTraceElement[] elements = throwable.getStackTrace();
-            addStackTraceElements(generator, elements);
+    /**
+     * Sets the keys of the only fields which should be written. The value is a comma separated list of {@linkplain Key
+     * key} names, e.g. {@code timestamp,level,message}. The case of the names and surrounding whitespace is ignored and a
+     * dash ({@code -}) may be used in place of an underscore ({@code _}).
+     * <p>
+     * The keys apply to the top level fields of a record. Including a key does not enable a field which is otherwise
+     * disabled, for example the source fields are only written when {@linkplain #setPrintDetails(boolean) details}
+     * are printed. Fields which are not written are never read from the record.
+     * </p>
+     *
+     * @param includeKeys the keys of the fields to write or {@code null} to write all fields
+     *
+     * @throws IllegalArgumentException if a name is not a valid key
+     */
+    public synchronized void setIncludeKeys(final String includeKeys) {
+        this.includeKeySet = toKeySet(includeKeys);
+        this.includeKeys = includeKeys;
+        compile();
+    }
 
-            // Render the suppressed messages
-            final Throwable[] suppressed = throwable.getSuppressed();
-            if (suppressed != null && suppressed.length > 0) {
-                generator.startArray(getKey(Key.EXCEPTION_SUPPRESSED));
-                for (Throwable s : suppressed) {
-                    if (generator.wrapArrays()) {
-                        generator.startObject(getKey(Key.EXCEPTION));
-                    } else {
-                        generator.startObject(null);
-                    }
-                    addException(generator, s, seen);
-                    generator.endObject(); // end exception
-                }
-                generator.endArray();
-            }
+    /**
+     * Returns the keys, as a comma separated list, of the fields which will not be written. The default is
+     * {@code null}.
+     *
+     * @return the excluded keys or {@code null} if no fields are excluded
+     */
+    public String getExcludeKeys() {
+        return excludeKeys;
+    }
 
-            // Render the cause
-            final Throwable cause = throwable.getCause();
-            if (cause != null) {
-                generator.startObject(getKey(Key.EXCEPTION_CAUSED_BY));
-                generator.startObject(getKey(Key.EXCEPTION));
-                addException(generator, cause, seen);
-                generator.endObject();
-                generator.endObject(); // end exception
-            }
-        }
+    /**
+     * Sets the keys of the fields which should not be written. The value is a comma separated list of {@linkplain Key
+     * key} names, e.g. {@code logger-class-name,sequence,thread-id}. The case of the names and surrounding whitespace
+     * is ignored and a dash ({@code -}) may be used in place of an underscore ({@code _}).
+     * <p>
+     * The keys apply to the top level fields of a record and take precedence over the
+     * {@linkplain #setIncludeKeys(String) included keys}. Fields which are not written are never read from the
+     * record.
+     * </p>
+     *
+     * @param excludeKeys the keys of the fields to exclude or {@code null} to not exclude any fields
+     *
+     * @throws IllegalArgumentException if a name is not a valid key
+     */
+    public synchronized void setExcludeKeys(final String excludeKeys) {
+        this.excludeKeySet = toKeySet(excludeKeys);
+        this.excludeKeys = excludeKeys;
+        compile();
     }
 
-    private void addStackTraceElements(final Generator generator, final StackTraceElement[] elements) throws Exception {
-        generator.startArray(getKey(Key.EXCEPTION_FRAMES));
-        for (StackTraceElement e : elements) {
-            if (generator.wrapArrays()) {
-                generator.startObject(getKey(Key.EXCEPTION_FRAME));
-            } else {
-                generator.startObject(null);
-            }
-            generator.add(getKey(Key.EXCEPTION_FRAME_CLASS), e.getClassName());
-            generator.add(getKey(Key.EXCEPTION_FRAME_METHOD), e.getMethodName());
-            final int line = e.getLineNumber();
-            if (line >= 0) {
-                generator.add(getKey(Key.EXCEPTION_FRAME_LINE), e.getLineNumber());
-            }
-            generator.endObject(); // end exception object
-        }
-        generator.endArray(); // end array
+    /**
+     * Indicates whether or not fields with a {@code null} or empty value are excluded.
+     *
+     * @return {@code true} if fields with a {@code null} or empty value are not written, otherwise {@code false}
+     */
+    public boolean isExcludeEmptyValues() {
+        return excludeEmptyValues;
     }
 
-    private static boolean isNotNullOrEmpty(final String value) {
-        return value != null && !value.isEmpty();
+    /**
+     * Sets whether or not fields with a {@code null} or empty value should be excluded. Applies to the string fields
+     * of a record, such as the {@linkplain Key#NDC NDC}, and to an empty {@linkplain Key#MDC MDC}. The default is
+     * {@code false}.
+     *
+     * @param excludeEmptyValues {@code true} to not write fields with a {@code null} or empty value
+     */
+    public synchronized void setExcludeEmptyValues(final boolean excludeEmptyValues) {
+        this.excludeEmptyValues = excludeEmptyValues;
+        compile();
     }
 
-    private static boolean isNotNullOrEmpty(final Collection<?> value) {
-        return value != null && !value.isEmpty();
+    /**
+     * Indicates whether or not the MDC entries are written as top level fields.
+     *
+     * @return {@code true} if the MDC entries are written as top level fields, {@code false} if they are written in
+     * an {@link Key#MDC mdc} structure
+     */
+    public boolean isFlattenMdc() {
+        return flattenMdc;
     }
 
     /**
-     * A generator used to create the structured output.
+     * Sets whether or not the MDC entries should be written as top level fields of the record rather than in an
+     * {@link Key#MDC mdc} structure. The default is {@code false}.
+     * <p>
+     * The MDC keys are used as is and must be valid names for the output format. No attempt is made to avoid
+     * collisions with the other fields of the record.
+     * </p>
+     *
+     * @param flattenMdc {@code true} to write the MDC entries as top level fields
      */
-    protected abstract static class Generator {
+    public synchronized void setFlattenMdc(final boolean flattenMdc) {
+        this.flattenMdc = flattenMdc;
+        compile();
+    }
 
-        /**
-         * Initial method invoked at the start of the generation.
-         *
-         * @return the generator
-         *
-         * @throws Exception if an error occurs while adding the data
-         */
-        public Generator begin() throws Exception {
-            return this;
-        }
+    /**
+     * Returns the maximum number of frames written for each exception.
+     *
+     * @return the maximum number of frames or {@code -1} if there is no limit
+     */
+    public int getMaxExceptionFrames() {
+        return maxExceptionFrames;
+    }
 
-        /**
-         * Writes an integer value.
+    /**
+     * Sets the maximum number of frames written for each exception, including each cause and suppressed exception.
+     * The number of frames which were not written is added as {@link Key#EXCEPTION_FRAMES_OMITTED framesOmitted} for
+     * {@linkplain ExceptionOutputType#DETAILED detailed} output and as a {@code ... n frames omitted} line for
+     * {@linkplain ExceptionOutputType#FORMATTED formatted} output. The default is {@code -1}, no limit.
+     *
+     * @param maxExceptionFrames the maximum number of frames or a negative value for no limit
+     */
+    public synchronized void setMaxExceptionFrames(final int maxExceptionFrames) {
+        this.maxExceptionFrames = (maxExceptionFrames < 0 ? -1 : maxExceptionFrames);
+        compile();
+    }
+
+    /**
+     * Returns the maximum depth of nested causes and suppressed exceptions written for an exception.
+     *
+     * @return the maximum depth or {@code -1} if there is no limit
+     */
+    public int getMaxCauseDepth() {
+        return maxCauseDepth;
+    }
+
+    /**
+     * Sets the maximum depth of nested causes and suppressed exceptions written for an exception. The cause and
+     * suppressed exceptions of the logged exception are at a depth of {@code 1}, a depth of {@code 0} writes only the
+     * logged exception. Exceptions beyond the maximum depth are not walked. The default is {@code -1}, no limit.
+     *
+     * @param maxCauseDepth the maximum depth or a negative value for no limit
+     */
+    public synchronized void setMaxCauseDepth(final int maxCauseDepth) {
+        this.maxCauseDepth = (maxCauseDepth < 0 ? -1 : maxCauseDepth);
+        compile();
+    }
+
+    /**
+     * Returns the maximum number of suppressed exceptions written for each exception.
+     *
+     * @return the maximum number of suppressed exceptions or {@code -1} if there is no limit
+     */
+    public int getMaxSuppressedExceptions() {
+        return maxSuppressedExceptions;
+    }
+
+    /**
+     * Sets the maximum number of suppressed exceptions written for each exception. The number of suppressed exceptions
+     * which were not written is added as {@link Key#EXCEPTION_SUPPRESSED_OMITTED suppressedOmitted} for
+     * {@linkplain ExceptionOutputType#DETAILED detailed} output and as a {@code ... n suppressed exceptions omitted}
+     * line for {@linkplain ExceptionOutputType#FORMATTED formatted} output. The default is {@code -1}, no limit.
+     *
+     * @param maxSuppressedExceptions the maximum number of suppressed exceptions or a negative value for no limit
+     */
+    public synchronized void setMaxSuppressedExceptions(final int maxSuppressedExceptions) {
+        this.maxSuppressedExceptions = (maxSuppressedExceptions < 0 ? -1 : maxSuppressedExceptions);
+        compile();
+    }
+
+    /**
+     * Indicates whether or not frames in common with the enclosing exception are written for detailed output.
+     *
+     * @return {@code true} if common frames are not written, otherwise {@code false}
+     */
+    public boolean isElideCommonFrames() {
+        return elideCommonFrames;
+    }
+
+    /**
+     * Sets whether or not the frames a cause or suppressed exception has in common with the enclosing exception should
+     * be written for {@linkplain ExceptionOutputType#DETAILED detailed} output. When elided the number of frames in
+     * common is added as {@link Key#EXCEPTION_FRAMES_IN_COMMON framesInCommon}, the same as the {@code ... n more}
+     * line of {@link Throwable#printStackTrace()}. Formatted output always elides the common frames. The default is
+     * {@code false}.
+     *
+     * @param elideCommonFrames {@code true} to not write the frames in common with the enclosing exception
+     */
+    public synchronized void setElideCommonFrames(final boolean elideCommonFrames) {
+        this.elideCommonFrames = elideCommonFrames;
+        compile();
+    }
+
+    /**
+     * Returns the packages, as a comma separated list, of the frames which are not written.
+     *
+     * @return the excluded packages or {@code null} if no frames are excluded
+     */
+    public String getExcludedFramePackages() {
+        return excludedFramePackages;
+    }
+
+    /**
+     * Sets the packages of the frames which should not be written, e.g.
+     * {@code java.lang.reflect,jdk.internal.reflect,sun.reflect}. A frame is excluded if its class is in one of the
+     * packages or a sub-package. Excluded frames are counted as {@linkplain #setMaxExceptionFrames(int) omitted}.
+     *
+     * @param excludedFramePackages a comma separated list of packages or {@code null} to not exclude any frames
+     */
+    public synchronized void setExcludedFramePackages(final String excludedFramePackages) {
+        final List<String> packages = new ArrayList<>();
+        if (excludedFramePackages != null) {
+            for (String pkg : excludedFramePackages.split(",")) {
+                pkg = pkg.trim();
+                while (pkg.endsWith(".")) {
+                    pkg = pkg.substring(0, pkg.length() - 1);
+                }
+                if (!pkg.isEmpty()) {
+                    packages.add(pkg);
+                }
+            }
+        }
+        this.excludedFramePackageArray = packages.toArray(new String[packages.size()]);
+        this.excludedFramePackages = excludedFramePackages;
+        compile();
+    }
+
+    /**
+     * Registers a serializer for values of the type, replacing any serializer already registered for the type. The
+     * serializer is used for values of the type, or a subtype without a more specific serializer, written as map
+     * values or as {@linkplain MessageOutputType#TEMPLATE message parameters}. A serializer takes precedence over the
+     * way the generator would write the value.
+     * <p>
+     * The serializer for each class is resolved once and cached, writing a value requires a single lookup.
+     * </p>
+     *
+     * @param type       the type of the values
+     * @param serializer the serializer
+     * @param <T>        the type of the values
+     */
+    public synchronized <T> void addValueSerializer(final Class<T> type, final ValueSerializer<? super T> serializer) {
+        if (type == null) {
+            throw new IllegalArgumentException("The type cannot be null");
+        }
+        if (serializer == null) {
+            throw new IllegalArgumentException("The serializer cannot be null");
+        }
+        serializers = serializers.with(type, serializer);
+    }
+
+    /**
+     * Removes the serializer registered for the type.
+     *
+     * @param type the type to remove the serializer for
+     *
+     * @return {@code true} if a serializer was registered for the type, otherwise {@code false}
+     */
+    public synchronized boolean removeValueSerializer(final Class<?> type) {
+        final ValueSerializers current = serializers;
+        serializers = current.without(type);
+        return serializers != current;
+    }
+
+    /**
+     * Returns the value serializers as configured by {@link #setValueSerializers(String)}.
+     *
+     * @return the value serializers or {@code null} if not configured
+     */
+    public String getValueSerializers() {
+        return valueSerializers;
+    }
+
+    /**
+     * Sets the value serializers as a comma separated list of {@code type=serializer} pairs, e.g.
+     * {@code org.acme.Money=org.acme.MoneySerializer}. The type and serializer are loaded from the thread context
+     * class loader, or the class loader of this formatter if the class cannot be found, and the serializer is created
+     * with its public no-arg constructor. Any previously registered serializers are replaced.
+     *
+     * @param valueSerializers the value serializers or {@code null} to remove all serializers
+     *
+     * @throws IllegalArgumentException if a type or serializer could not be loaded or the serializer could not be
+     *                                  created
+     * @see #addValueSerializer(Class, ValueSerializer)
+     */
+    public synchronized void setValueSerializers(final String valueSerializers) {
+        ValueSerializers result = ValueSerializers.DEFAULT;
+        for (Map.Entry<String, String> entry : PropertyValues.stringToMap(valueSerializers).entrySet()) {
+            final Class<?> type = loadClass(entry.getKey().trim());
+            final Class<?> serializerType = loadClass(entry.getValue().trim());
+            if (!ValueSerializer.class.isAssignableFrom(serializerType)) {
+                throw new IllegalArgumentException(String.format("Type %s is not a %s", serializerType.getName(), ValueSerializer.class.getName()));
+            }
+            try {
+                result = result.with(type, (ValueSerializer<?>) serializerType.getConstructor().newInstance());
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Failed to create the serializer " + serializerType.getName(), e);
+            }
+        }
+        serializers = result;
+        this.valueSerializers = valueSerializers;
+    }
+
+    private Class<?> loadClass(final String name) {
+        final ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+        if (tccl != null) {
+            try {
+                return Class.forName(name, false, tccl);
+            } catch (ClassNotFoundException ignore) {
+                // Attempt to load from this formatters class loader
+            }
+        }
+        try {
+            return Class.forName(name, false, getClass().getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Failed to load the class " + name, e);
+        }
+    }
+
+    /**
+     * Returns the level policies.
+     *
+     * @return the level policies or {@code null} if the same policy is used for all levels
+     *
+     * @see #setLevelPolicies(String)
+     */
+    public String getLevelPolicies() {
+        return levelPolicies;
+    }
+
+    /**
+     * Sets the exception output type and whether or not details are printed based on the level of the record. The
+     * value is a comma separated list of {@code level=policy} pairs, e.g.
+     * {@code ERROR=DETAILED_AND_FORMATTED+DETAILS,WARN=FORMATTED,INFO=DETAILED,ALL=NONE}.
+     * <p>
+     * The policy is an {@linkplain ExceptionOutputType exception output type}, or {@code NONE} to not write the
+     * exception, optionally followed by {@code +DETAILS} to print the details. The case of the policy is ignored. A
+     * policy applies to records logged at its level or above, up to the next level with a policy. Records below the
+     * lowest level with a policy use the {@linkplain #setExceptionOutputType(ExceptionOutputType) exception output
+     * type} and {@linkplain #setPrintDetails(boolean) print details} settings of the formatter. As the caller is only
+     * calculated when the details are written, the cost of the details is only paid for the levels which print them.
+     * </p>
+     * <p>
+     * The fields for each policy are resolved when the policies are set, formatting a record only looks up the
+     * policy for its level.
+     * </p>
+     *
+     * @param levelPolicies the level policies or {@code null} to use the same policy for all levels
+     *
+     * @throws IllegalArgumentException if a level or policy is invalid or a level is repeated
+     */
+    public synchronized void setLevelPolicies(final String levelPolicies) {
+        final Map<String, String> map = PropertyValues.stringToMap(levelPolicies);
+        final LevelPolicy[] policies = new LevelPolicy[map.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            final Level level = LogContext.getLogContext().getLevelForName(entry.getKey().trim());
+            policies[i++] = parsePolicy(level.intValue(), entry.getValue());
+        }
+        // Highest level first
+        Arrays.sort(policies, new Comparator<LevelPolicy>() {
+            @Override
+            public int compare(final LevelPolicy o1, final LevelPolicy o2) {
+                return Integer.compare(o2.level, o1.level);
+            }
+        });
+        for (i = 1; i < policies.length; i++) {
+            if (policies[i].level == policies[i - 1].level) {
+                throw new IllegalArgumentException("More than one policy for the level value " + policies[i].level + ": " + levelPolicies);
+            }
+        }
+        this.levelPolicyArray = policies;
+        this.levelPolicies = levelPolicies;
+        compile();
+    }
+
+    private static LevelPolicy parsePolicy(final int level, final String policy) {
+        ExceptionOutputType exceptionOutputType = null;
+        boolean printDetails = false;
+        boolean typeFound = false;
+        for (String name : policy.split("\\+")) {
+            name = name.trim().toUpperCase(Locale.ROOT).replace('-', '_');
+            if ("DETAILS".equals(name)) {
+                printDetails = true;
+            } else if (!typeFound && "NONE".equals(name)) {
+                typeFound = true;
+            } else if (!typeFound) {
+                exceptionOutputType = ExceptionOutputType.valueOf(name);
+                typeFound = true;
+            } else {
+                throw new IllegalArgumentException("Invalid level policy: " + policy);
+            }
+        }
+        if (!typeFound) {
+            throw new IllegalArgumentException("The level policy does not define an exception output type: " + policy);
+        }
+        return new LevelPolicy(level, exceptionOutputType, printDetails);
+    }
+
+    private ExceptionLimits createExceptionLimits() {
+        final String[] excludedPackages = excludedFramePackageArray;
+        if (maxExceptionFrames < 0 && maxCauseDepth < 0 && maxSuppressedExceptions < 0 && !elideCommonFrames && excludedPackages.length == 0) {
+            return ExceptionLimits.NONE;
+        }
+        return new ExceptionLimits(maxExceptionFrames, maxCauseDepth, maxSuppressedExceptions, elideCommonFrames, excludedPackages);
+    }
+
+    /**
+     * Returns the maximum number of exception stack traces the rendered frames are cached for.
+     *
+     * @return the size of the exception cache, {@code 0} if the cache is disabled
+     */
+    public int getExceptionCacheSize() {
+        final ExceptionCache cache = exceptionCache;
+        return (cache == null ? 0 : cache.getMaxSize());
+    }
+
+    /**
+     * Sets the maximum number of exception stack traces the rendered frames are cached for. The default is
+     * {@value #DEFAULT_EXCEPTION_CACHE_SIZE}.
+     * <p>
+     * The cache is keyed by the type of the exception and its stack trace. When the same exception is logged
+     * repeatedly the frames are written once and the output reused for both the
+     * {@linkplain ExceptionOutputType#DETAILED detailed} and {@linkplain ExceptionOutputType#FORMATTED formatted}
+     * output. Once the cache is full the least recently used entry is evicted. Setting the size resets the
+     * {@linkplain #getExceptionCacheHits() hit} and {@linkplain #getExceptionCacheMisses() miss} counts.
+     * </p>
+     *
+     * @param size the size of the cache or {@code 0} to disable the cache
+     *
+     * @throws IllegalArgumentException if the size is negative
+     */
+    public synchronized void setExceptionCacheSize(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("The exception cache size cannot be negative: " + size);
+        }
+        exceptionCache = (size == 0 ? null : new ExceptionCache(size));
+    }
+
+    /**
+     * Returns the number of times the rendered frames of an exception were found in the exception cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getExceptionCacheHits() {
+        final ExceptionCache cache = exceptionCache;
+        return (cache == null ? 0L : cache.getHits());
+    }
+
+    /**
+     * Returns the number of times the rendered frames of an exception were not found in the exception cache.
+     *
+     * @return the number of cache misses
+     */
+    public long getExceptionCacheMisses() {
+        final ExceptionCache cache = exceptionCache;
+        return (cache == null ? 0L : cache.getMisses());
+    }
+
+    /**
+     * Returns the maximum number of resolved call sites cached.
+     *
+     * @return the size of the call site cache, {@code 0} if the cache is disabled
+     */
+    public int getCallSiteCacheSize() {
+        final CallSiteCache cache = callSiteCache;
+        return (cache == null ? 0 : cache.getMaxSize());
+    }
+
+    /**
+     * Sets the maximum number of resolved call sites cached. The default is {@value #DEFAULT_CALL_SITE_CACHE_SIZE}.
+     * <p>
+     * The cache is only used when the caller is resolved with a {@linkplain #setUseStackWalker(boolean) stack walker}.
+     * The cache is keyed by the class, method name and bytecode index of the calling frame and holds the resolved
+     * file name and line number. Classes of the same name defined by different class loaders are separate call sites.
+     * Once the cache is full new call sites are no longer cached. Setting the size resets the
+     * {@linkplain #getCallSiteCacheHits() hit} and {@linkplain #getCallSiteCacheMisses() miss} counts.
+     * </p>
+     *
+     * @param size the size of the cache or {@code 0} to disable the cache
+     *
+     * @throws IllegalArgumentException if the size is negative
+     */
+    public synchronized void setCallSiteCacheSize(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("The call site cache size cannot be negative: " + size);
+        }
+        callSiteCache = (size == 0 ? null : new CallSiteCache(size));
+    }
+
+    /**
+     * Indicates whether or not the caller of a record is resolved with a stack walker.
+     *
+     * @return {@code true} if the caller is resolved with a stack walker, otherwise {@code false}
+     */
+    public boolean isUseStackWalker() {
+        return useStackWalker;
+    }
+
+    /**
+     * Sets whether or not the caller of a record is resolved with a {@code java.lang.StackWalker} when any of the
+     * source fields are written. The default is {@code false} and the record calculates the caller by capturing the
+     * full stack trace of the current thread.
+     * <p>
+     * The stack walker only walks the top of the stack and, with the {@linkplain #setCallSiteCacheSize(int) call site
+     * cache}, only resolves the file name and line number once for each call site. The stack walker requires Java 9
+     * or higher and is accessed reflectively. Whether the record still needs its caller calculated is read from a
+     * private field of the record. If either is not accessible the record calculates the caller as if this was
+     * {@code false}.
+     * </p>
+     *
+     * @param useStackWalker {@code true} to resolve the caller with a stack walker
+     */
+    public void setUseStackWalker(final boolean useStackWalker) {
+        this.useStackWalker = useStackWalker;
+    }
+
+    /**
+     * Returns the number of times a resolved call site was found in the call site cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getCallSiteCacheHits() {
+        final CallSiteCache cache = callSiteCache;
+        return (cache == null ? 0L : cache.getHits());
+    }
+
+    /**
+     * Returns the number of times a call site was not found in the call site cache.
+     *
+     * @return the number of cache misses
+     */
+    public long getCallSiteCacheMisses() {
+        final CallSiteCache cache = callSiteCache;
+        return (cache == null ? 0L : cache.getMisses());
+    }
+
+    /**
+     * Indicates whether or not a fingerprint is written for a logged exception.
+     *
+     * @return {@code true} if the fingerprint is written, otherwise {@code false}
+     */
+    public boolean isPrintExceptionFingerprint() {
+        return printExceptionFingerprint;
+    }
+
+    /**
+     * Sets whether or not a fingerprint should be written for a logged exception as
+     * {@link Key#EXCEPTION_FINGERPRINT exceptionFingerprint}. The fingerprint is a hash of the type of the exception
+     * and its causes and of the {@linkplain #setExceptionFingerprintFrames(int) top frames} of the exception. It does
+     * not include the message, so the same failure is grouped regardless of the values in the message. The
+     * fingerprint is always written when a {@linkplain #setExceptionSuppressionWindow(long) suppression window} is
+     * set. The default is {@code false}.
+     *
+     * @param printExceptionFingerprint {@code true} to write the fingerprint
+     */
+    public synchronized void setPrintExceptionFingerprint(final boolean printExceptionFingerprint) {
+        this.printExceptionFingerprint = printExceptionFingerprint;
+        compile();
+    }
+
+    /**
+     * Returns the number of frames from the top of the stack trace included in an exception fingerprint.
+     *
+     * @return the number of frames
+     */
+    public int getExceptionFingerprintFrames() {
+        return exceptionFingerprintFrames;
+    }
+
+    /**
+     * Sets the number of frames from the top of the stack trace of the logged exception included in the exception
+     * fingerprint. The frames of the causes are not included. The default is
+     * {@value #DEFAULT_EXCEPTION_FINGERPRINT_FRAMES}.
+     *
+     * @param exceptionFingerprintFrames the number of frames, {@code 0} to fingerprint only the exception types
+     *
+     * @throws IllegalArgumentException if the number of frames is negative
+     */
+    public synchronized void setExceptionFingerprintFrames(final int exceptionFingerprintFrames) {
+        if (exceptionFingerprintFrames < 0) {
+            throw new IllegalArgumentException("The number of exception fingerprint frames cannot be negative: " + exceptionFingerprintFrames);
+        }
+        this.exceptionFingerprintFrames = exceptionFingerprintFrames;
+        compile();
+    }
+
+    /**
+     * Returns the length of the window, in milliseconds, repeated exceptions are suppressed for.
+     *
+     * @return the length of the window or {@code 0} if repeated exceptions are not suppressed
+     */
+    public long getExceptionSuppressionWindow() {
+        final RepeatedExceptionTracker tracker = repeatedExceptionTracker;
+        return (tracker == null ? 0L : tracker.getWindow());
+    }
+
+    /**
+     * Sets the length of the window, in milliseconds, repeated exceptions are suppressed for. The default is
+     * {@code 0}, exceptions are not suppressed.
+     * <p>
+     * The window starts with the first record logged with an exception. Records logged within the window with an
+     * exception which has the same {@linkplain #setPrintExceptionFingerprint(boolean) fingerprint} are written with
+     * the fingerprint and the number of times the exception was repeated as
+     * {@link Key#EXCEPTION_REPEAT_COUNT exceptionRepeatCount}. The {@link Key#EXCEPTION exception} is written with
+     * only its type and message and the {@link Key#STACK_TRACE stack trace} as only the first line. The first record
+     * after the window has elapsed is written in full and starts a new window. The time of the record is used, not
+     * the time it was formatted. Setting the window resets the repeat counts.
+     * </p>
+     *
+     * @param exceptionSuppressionWindow the length of the window in milliseconds or {@code 0} to not suppress repeated
+     *                                   exceptions
+     *
+     * @throws IllegalArgumentException if the window is negative
+     */
+    public synchronized void setExceptionSuppressionWindow(final long exceptionSuppressionWindow) {
+        if (exceptionSuppressionWindow < 0L) {
+            throw new IllegalArgumentException("The exception suppression window cannot be negative: " + exceptionSuppressionWindow);
+        }
+        repeatedExceptionTracker = (exceptionSuppressionWindow == 0L ? null : new RepeatedExceptionTracker(exceptionSuppressionWindow));
+        compile();
+    }
+
+    /**
+     * Indicates whether or not repeated values are written as a reference to a dictionary entry.
+     *
+     * @return {@code true} if dictionary mode is enabled, otherwise {@code false}
+     */
+    public boolean isUseDictionary() {
+        return useDictionary;
+    }
+
+    /**
+     * Sets whether or not repeated values should be written as a reference to a dictionary entry. The default is
+     * {@code false}.
+     * <p>
+     * In dictionary mode each distinct stack frame, logger name and MDC key is assigned a numeric id. The record which
+     * first uses a value writes it in full as an {@link Key#DICTIONARY_ENTRY entry} of the {@link Key#DICTIONARY
+     * dictionary}, along with the {@link Key#DICTIONARY_ID id}. Subsequent records write only a
+     * {@link Key#DICTIONARY_REFERENCE reference} to the id. The {@link Key#MDC MDC} is written as an array of entries
+     * with a reference to the key and the {@link Key#DICTIONARY_VALUE value}. The {@link DictionaryDecoder} rebuilds
+     * the full records.
+     * </p>
+     * <p>
+     * A new dictionary is started each time the {@linkplain #getHead(Handler) head} is written, for example when a
+     * {@link org.jboss.logmanager.ext.handlers.SocketHandler} connects. Records are formatted one at a time while
+     * dictionary mode is enabled, so a record only references values defined by records formatted before it. The
+     * records must be written and read in the order they were formatted, from a reliable stream, and the formatter
+     * should only be used by a single handler. The {@link org.jboss.logmanager.ext.handlers.SocketHandler} writes the
+     * records in the order they're formatted while dictionary mode is enabled.
+     * </p>
+     *
+     * @param useDictionary {@code true} to write repeated values as a reference to a dictionary entry
+     */
+    public synchronized void setUseDictionary(final boolean useDictionary) {
+        this.useDictionary = useDictionary;
+        dictionary = (useDictionary ? new RecordDictionary(maxDictionarySize) : null);
+    }
+
+    /**
+     * Returns the maximum number of values assigned an id in dictionary mode.
+     *
+     * @return the maximum size of the dictionary
+     */
+    public int getMaxDictionarySize() {
+        return maxDictionarySize;
+    }
+
+    /**
+     * Sets the maximum number of values assigned an id in dictionary mode. Once the dictionary is full, values without
+     * an id are written in full. Setting the size starts a new dictionary. The default is
+     * {@value #DEFAULT_MAX_DICTIONARY_SIZE}.
+     *
+     * @param maxDictionarySize the maximum size of the dictionary
+     *
+     * @throws IllegalArgumentException if the size is less than {@code 1}
+     */
+    public synchronized void setMaxDictionarySize(final int maxDictionarySize) {
+        if (maxDictionarySize < 1) {
+            throw new IllegalArgumentException("The maximum dictionary size must be greater than 0: " + maxDictionarySize);
+        }
+        this.maxDictionarySize = maxDictionarySize;
+        if (useDictionary) {
+            dictionary = new RecordDictionary(maxDictionarySize);
+        }
+    }
+
+    private static Set<Key> toKeySet(final String keys) {
+        if (keys == null || keys.trim().isEmpty()) {
+            return Collections.emptySet();
+        }
+        final Set<Key> result = EnumSet.noneOf(Key.class);
+        for (String name : keys.split(",")) {
+            name = name.trim();
+            if (!name.isEmpty()) {
+                result.add(Key.valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_')));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks the exception output type and determines if detailed output should be written.
+     *
+     * @return {@code true} if detailed output should be written, otherwise {@code false}
+     */
+    protected boolean isDetailedExceptionOutputType() {
+        return exceptionOutputType == ExceptionOutputType.DETAILED ||
+                exceptionOutputType == ExceptionOutputType.DETAILED_AND_FORMATTED;
+    }
+
+    /**
+     * Checks the exception output type and determines if formatted output should be written. The formatted output is
+     * equivalent to {@link Throwable#printStackTrace()}.
+     *
+     * @return {@code true} if formatted exception output should be written, otherwide {@code false}
+     */
+    protected boolean isFormattedExceptionOutputType() {
+        return exceptionOutputType == ExceptionOutputType.FORMATTED ||
+                exceptionOutputType == ExceptionOutputType.DETAILED_AND_FORMATTED;
+    }
+
+    private void addException(final Generator generator, final Throwable throwable, final FormatContext context,
+                              final FieldPlan plan, final StackTraceElement[] enclosingTrace, final int depth) throws Exception {
+        if (throwable == null) {
+            return;
+        }
+        final String[] keys = plan.keys;
+        final ExceptionLimits limits = plan.exceptionLimits;
+        final Map<Throwable, Integer> seen = context.seen;
+        if (seen.containsKey(throwable)) {
+            generator.addAttribute(keys[Key.EXCEPTION_REFERENCE_ID.ordinal()], seen.get(throwable));
+            generator.startObject(keys[Key.EXCEPTION_CIRCULAR_REFERENCE.ordinal()]);
+            generator.add(keys[Key.EXCEPTION_MESSAGE.ordinal()], throwable.getMessage());
+            generator.endObject(); // end circular reference
+        } else {
+            final int id = ++context.refId;
+            seen.put(throwable, id);
+            generator.addAttribute(keys[Key.EXCEPTION_REFERENCE_ID.ordinal()], id);
+            generator.add(keys[Key.EXCEPTION_TYPE.ordinal()], throwable.getClass().getName());
+            generator.add(keys[Key.EXCEPTION_MESSAGE.ordinal()], throwable.getMessage());
+
+            final StackTraceElement[] elements = throwable.getStackTrace();
+            final int framesInCommon = (limits.elideCommonFrames && enclosingTrace != null ?
+                    ExceptionLimits.framesInCommon(elements, enclosingTrace) : 0);
+            final int end = elements.length - framesInCommon;
+            final int framesOmitted;
+            final ExceptionCache cache = this.exceptionCache;
+            if (cache == null) {
+                framesOmitted = addStackTraceElements(generator, elements, end, plan, context);
+            } else {
+                // Reuse the frames written for a previous exception of the same type with the same stack trace
+                final ExceptionCache.Entry entry = cache.get(throwable.getClass().getName(), elements);
+                final ExceptionCache.DetailedFrames detailed = entry.detailed;
+                final RecordDictionary dictionary = context.dictionary;
+                if (detailed != null && detailed.limits == limits && detailed.end == end && detailed.dictionary == dictionary
+                        && generator.appendFragment(detailed.fragment)) {
+                    framesOmitted = detailed.omitted;
+                } else {
+                    final int start = generator.beginFragment();
+                    final int defined = context.definitions.size();
+                    framesOmitted = addStackTraceElements(generator, elements, end, plan, context);
+                    // Frames written with a reference to a dictionary entry can be reused until the dictionary changes,
+                    // frames first defined by this record cannot
+                    if (start >= 0 && context.definitions.size() == defined) {
+                        entry.detailed = new ExceptionCache.DetailedFrames(limits, end, framesOmitted, dictionary, generator.endFragment(start));
+                    }
+                }
+            }
+            if (framesOmitted > 0) {
+                generator.add(keys[Key.EXCEPTION_FRAMES_OMITTED.ordinal()], framesOmitted);
+            }
+            if (framesInCommon > 0) {
+                generator.add(keys[Key.EXCEPTION_FRAMES_IN_COMMON.ordinal()], framesInCommon);
+            }
+
+            // Nested exceptions beyond the maximum depth are not walked
+            if (!limits.isDepthAllowed(depth + 1)) {
+                return;
+            }
+
+            // Render the suppressed messages
+            final Throwable[] suppressed = throwable.getSuppressed();
+            final int suppressedCount = limits.getSuppressedCount(suppressed.length);
+            if (suppressedCount > 0) {
+                generator.startArray(keys[Key.EXCEPTION_SUPPRESSED.ordinal()]);
+                for (int i = 0; i < suppressedCount; i++) {
+                    if (generator.wrapArrays()) {
+                        generator.startObject(keys[Key.EXCEPTION.ordinal()]);
+                    } else {
+                        generator.startObject(null);
+                    }
+                    addException(generator, suppressed[i], context, plan, elements, depth + 1);
+                    generator.endObject(); // end exception
+                }
+                generator.endArray();
+            }
+            if (suppressedCount < suppressed.length) {
+                generator.add(keys[Key.EXCEPTION_SUPPRESSED_OMITTED.ordinal()], suppressed.length - suppressedCount);
+            }
+
+            // Render the cause
+            final Throwable cause = throwable.getCause();
+            if (cause != null) {
+                generator.startObject(keys[Key.EXCEPTION_CAUSED_BY.ordinal()]);
+                generator.startObject(keys[Key.EXCEPTION.ordinal()]);
+                addException(generator, cause, context, plan, elements, depth + 1);
+                generator.endObject();
+                generator.endObject(); // end exception
+            }
+        }
+    }
+
+    /**
+     * Writes the frames up to the end index, skipping excluded frames and any frames over the maximum.
+     *
+     * @return the number of frames which were not written
+     */
+    private static int addStackTraceElements(final Generator generator, final StackTraceElement[] elements, final int end,
+                                             final FieldPlan plan, final FormatContext context) throws Exception {
+        final String[] keys = plan.keys;
+        final ExceptionLimits limits = plan.exceptionLimits;
+        final RecordDictionary dictionary = context.dictionary;
+        int written = 0;
+        int omitted = 0;
+        generator.startArray(keys[Key.EXCEPTION_FRAMES.ordinal()]);
+        for (int i = 0; i < end; i++) {
+            if (limits.maxFrames >= 0 && written >= limits.maxFrames) {
+                omitted += end - i;
+                break;
+            }
+            final StackTraceElement e = elements[i];
+            if (limits.isExcluded(e)) {
+                omitted++;
+                continue;
+            }
+            final String frameKey = (generator.wrapArrays() ? keys[Key.EXCEPTION_FRAME.ordinal()] : null);
+            if (dictionary == null || !addReference(generator, frameKey, e, context, keys)) {
+                generator.startObject(frameKey);
+                addFrameValues(generator, e, keys);
+                generator.endObject(); // end exception object
+            }
+            written++;
+        }
+        generator.endArray(); // end array
+        return omitted;
+    }
+
+    private static void addFrameValues(final Generator generator, final StackTraceElement e, final String[] keys) throws Exception {
+        generator.add(keys[Key.EXCEPTION_FRAME_CLASS.ordinal()], e.getClassName());
+        generator.add(keys[Key.EXCEPTION_FRAME_METHOD.ordinal()], e.getMethodName());
+        final int line = e.getLineNumber();
+        if (line >= 0) {
+            generator.add(keys[Key.EXCEPTION_FRAME_LINE.ordinal()], line);
+        }
+    }
+
+    /**
+     * An immutable snapshot of the configuration. The keys are indexed by {@link Key#ordinal()} with any overrides
+     * already applied and the fields are the keys written for each record, in order.
+     */
+    private static final class FieldPlan {
+        final String[] keys;
+        final FieldSet fields;
+        // The level policies, highest level first, and the fields written for each
+        final int[] levels;
+        final FieldSet[] levelFields;
+        final String datePattern;
+        final Map<String, String> metaData;
+        final String recordDelimiter;
+        final boolean excludeEmptyValues;
+        final boolean flattenMdc;
+        final ExceptionLimits exceptionLimits;
+        final int exceptionFingerprintFrames;
+        final RepeatedExceptionTracker repeatedExceptionTracker;
+        // A cache of the written meta data, only valid for this configuration
+        volatile Fragment metaDataFragment;
+
+        private FieldPlan(final String[] keys, final FieldSet fields, final int[] levels, final FieldSet[] levelFields,
+                          final String datePattern, final Map<String, String> metaData, final String recordDelimiter,
+                          final boolean excludeEmptyValues, final boolean flattenMdc, final ExceptionLimits exceptionLimits,
+                          final int exceptionFingerprintFrames, final RepeatedExceptionTracker repeatedExceptionTracker) {
+            this.keys = keys;
+            this.fields = fields;
+            this.levels = levels;
+            this.levelFields = levelFields;
+            this.datePattern = datePattern;
+            this.metaData = metaData;
+            this.recordDelimiter = recordDelimiter;
+            this.excludeEmptyValues = excludeEmptyValues;
+            this.flattenMdc = flattenMdc;
+            this.exceptionLimits = exceptionLimits;
+            this.exceptionFingerprintFrames = exceptionFingerprintFrames;
+            this.repeatedExceptionTracker = repeatedExceptionTracker;
+        }
+
+        /**
+         * Returns the fields written for a record logged at the level.
+         *
+         * @param level the {@linkplain Level#intValue() value} of the level of the record
+         *
+         * @return the fields to write
+         */
+        FieldSet getFields(final int level) {
+            final int[] levels = this.levels;
+            for (int i = 0; i < levels.length; i++) {
+                if (level >= levels[i]) {
+                    return levelFields[i];
+                }
+            }
+            return fields;
+        }
+    }
+
+    /**
+     * The fields written for a record, in order.
+     */
+    private static final class FieldSet {
+        final Key[] keys;
+        // Whether or not the exception fingerprint is needed
+        final boolean fingerprint;
+        // Whether or not any of the source fields are written
+        final boolean caller;
+
+        private FieldSet(final Key[] keys, final boolean fingerprint, final boolean caller) {
+            this.keys = keys;
+            this.fingerprint = fingerprint;
+            this.caller = caller;
+        }
+    }
+
+    /**
+     * The exception output type and details written for records at or above a level.
+     */
+    private static final class LevelPolicy {
+        final int level;
+        final ExceptionOutputType exceptionOutputType;
+        final boolean printDetails;
+
+        private LevelPolicy(final int level, final ExceptionOutputType exceptionOutputType, final boolean printDetails) {
+            this.level = level;
+            this.exceptionOutputType = exceptionOutputType;
+            this.printDetails = printDetails;
+        }
+    }
+
+    /**
+     * The state used while formatting a single record. Each thread owns one context which is reset and reused for
+     * every record it formats.
+     */
+    private static final class FormatContext {
+        final StringBuilderWriter writer = new StringBuilderWriter();
+        final Map<Throwable, Integer> seen = new IdentityHashMap<>();
+        final StringBuilder timestamp = new StringBuilder(32);
+        final StringBuilder stackTrace = new StringBuilder();
+        final char[] chunk = new char[1024];
+        final List<Object> definitions = new ArrayList<>();
+        final MessageRenderer messageRenderer = new MessageRenderer();
+        RecordDictionary dictionary;
+        int[] ids = new int[16];
+        Generator generator;
+        // The date format for the current pattern, not shared with other threads
+        CachedDateFormat dateFormat;
+        int refId;
+        boolean inUse;
+
+        CachedDateFormat getDateFormat(final String pattern) {
+            CachedDateFormat result = dateFormat;
+            if (result == null || !pattern.equals(result.toPattern())) {
+                result = new CachedDateFormat(pattern);
+                dateFormat = result;
+            }
+            return result;
+        }
+
+        void reset() {
+            writer.clear(MAX_RETAINED_CAPACITY);
+            timestamp.setLength(0);
+            stackTrace.setLength(0);
+            if (stackTrace.capacity() > MAX_RETAINED_CAPACITY) {
+                stackTrace.trimToSize();
+            }
+            messageRenderer.reset(MAX_RETAINED_CAPACITY);
+            seen.clear();
+            definitions.clear();
+            dictionary = null;
+            refId = 0;
+            inUse = false;
+        }
+    }
+
+    /**
+     * A generator used to create the structured output.
+     */
+    protected abstract static class Generator {
+        // The serializers of the formatter, set before each record is written
+        ValueSerializers serializers = ValueSerializers.DEFAULT;
+
+        /**
+         * Prepares this generator to write another record to the writer. The default is to return {@code false}
+         * indicating the generator cannot be reused and a {@linkplain #createGenerator(Writer) new generator} should
+         * be created for each record.
+         * <p>
+         * Generators returning {@code true} must discard any state left from a previous record, including a record
+         * which failed part way through.
+         * </p>
+         *
+         * @param writer the writer the next record will be written to
+         *
+         * @return {@code true} if this generator was reset and can be used for the next record, otherwise
+         * {@code false}
+         *
+         * @throws Exception if an error occurs resetting the generator
+         */
+        public boolean reset(final Writer writer) throws Exception {
+            return false;
+        }
+
+        /**
+         * Begins a fragment of output which can later be {@linkplain #appendFragment(Fragment) appended} in place of
+         * writing the same values again. The values written before {@link #endFragment(int)} is invoked must be
+         * complete values. Only the built-in generators support fragments.
+         *
+         * @return the start of the fragment or {@code -1} if fragments are not supported
+         */
+        int beginFragment() {
+            return -1;
+        }
+
+        /**
+         * Ends a fragment started with {@link #beginFragment()}. Does nothing if fragments are not supported.
+         *
+         * @param start the start of the fragment
+         *
+         * @return the fragment or {@code null} if fragments are not supported
+         */
+        Fragment endFragment(final int start) {
+            return null;
+        }
+
+        /**
+         * Appends a fragment previously written if the fragment is valid for the current state of this generator.
+         *
+         * @param fragment the fragment to append
+         *
+         * @return {@code true} if the fragment was appended, {@code false} if the values need to be written
+         */
+        boolean appendFragment(final Fragment fragment) {
+            return false;
+        }
+
+        /**
+         * Begins a string value which is appended in pieces to the returned {@link Appendable} rather than being
+         * built and then {@linkplain #add(String, CharSequence) added}. The appended characters are escaped as they
+         * are written. No other method may be invoked on this generator until {@link #endValue()} is invoked. Only the
+         * built-in generators support this.
+         *
+         * @param key the key for the value
+         *
+         * @return the appendable for the value or {@code null} if values cannot be appended in pieces
+         */
+        Appendable beginValue(final String key) {
+            return null;
+        }
+
+        /**
+         * Ends a value started with {@link #beginValue(String)}. Does nothing if values cannot be appended in pieces.
+         */
+        void endValue() {
+        }
+
+        /**
+         * Initial method invoked at the start of the generation.
+         *
+         * @return the generator
+         *
+         * @throws Exception if an error occurs while adding the data
+         */
+        public Generator begin() throws Exception {
+            return this;
+        }
+
+        /**
+         * Writes an integer value.
          *
          * @param key   they key
          * @param value the value
@@ -559,6 +2124,53 @@ public abstract class StructuredFormatter extends ExtFormatter {
          */
         public abstract Generator add(String key, String value) throws Exception;
 
+        /**
+         * Writes a character sequence value.
+         * <p>
+         * By default this converts the value to a string and uses {@link #add(String, String)}. Generators which can
+         * write the characters directly should override this to avoid creating the string. The value must not be
+         * retained after the method returns as it may be reused.
+         * </p>
+         *
+         * @param key   the key for the value
+         * @param value the character sequence value
+         *
+         * @return the generator
+         *
+         * @throws Exception if an error occurs while adding the data
+         */
+        public Generator add(final String key, final CharSequence value) throws Exception {
+            return add(key, (value == null ? null : value.toString()));
+        }
+
+        /**
+         * Writes a value which may be a typed value, for example a number or boolean. By default a value with a
+         * {@linkplain ValueSerializer serializer} registered on the formatter is written by the serializer, otherwise
+         * the {@link #add(String, String)} method is used to add the string representation of the value. If a
+         * formatter supports typed values this method should be overridden.
+         * <p>
+         * If the {@link #wrapArrays()} returns {@code false} the key may be {@code null} when the value is written to
+         * an array.
+         * </p>
+         *
+         * @param key   they key
+         * @param value the value, may be {@code null}
+         *
+         * @return the generator
+         *
+         * @throws Exception if an error occurs while adding the data
+         */
+        public Generator addValue(final String key, final Object value) throws Exception {
+            if (value != null) {
+                final ValueSerializer<Object> serializer = serializers.getSerializer(value.getClass());
+                if (serializer != null) {
+                    serializer.serialize(this, key, value);
+                    return this;
+                }
+            }
+            return add(key, (value == null ? null : String.valueOf(value)));
+        }
+
         /**
          * Adds the meta data to the structured format.
          * <p>
@@ -572,8 +2184,8 @@ public abstract class StructuredFormatter extends ExtFormatter {
          * @throws Exception if an error occurs while adding the data
          */
         public Generator addMetaData(final Map<String, String> metaData) throws Exception {
-            for (String key : metaData.keySet()) {
-                add(key, metaData.get(key));
+            for (Map.Entry<String, String> entry : metaData.entrySet()) {
+                add(entry.getKey(), entry.getValue());
             }
             return this;
         }
@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes characters as UTF-8 directly into a {@link ByteBuffer}.
+ * <p>
+ * Unpaired surrogates are replaced with {@code ?} which is consistent with {@link String#getBytes(java.nio.charset.Charset)}.
+ * </p>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class Utf8Encoder {
+
+    private Utf8Encoder() {
+    }
+
+    /**
+     * Encodes the characters into the buffer growing the buffer if required.
+     *
+     * @param chars  the characters to encode
+     * @param buffer the buffer to write to
+     *
+     * @return the buffer the characters were written to
+     *
+     * @see RecordEncoder#encode(org.jboss.logmanager.ExtLogRecord, ByteBuffer)
+     */
+    static ByteBuffer encode(final CharSequence chars, final ByteBuffer buffer) {
+        final int len = chars.length();
+        // Most log output is ASCII, reserve for one byte per character and grow as required
+        ByteBuffer target = ensureRemaining(buffer, len);
+        for (int i = 0; i < len; i++) {
+            final char c = chars.charAt(i);
+            if (c < 0x80) {
+                if (!target.hasRemaining()) {
+                    target = ensureRemaining(target, len - i);
+                }
+                target.put((byte) c);
+                continue;
+            }
+            if (target.remaining() < 4) {
+                target = ensureRemaining(target, (len - i) + 4);
+            }
+            if (c < 0x800) {
+                target.put((byte) (0xc0 | (c >> 6)))
+                        .put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                final char low;
+                if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(low = chars.charAt(i + 1))) {
+                    final int codePoint = Character.toCodePoint(c, low);
+                    target.put((byte) (0xf0 | (codePoint >> 18)))
+                            .put((byte) (0x80 | ((codePoint >> 12) & 0x3f)))
+                            .put((byte) (0x80 | ((codePoint >> 6) & 0x3f)))
+                            .put((byte) (0x80 | (codePoint & 0x3f)));
+                    i++;
+                } else {
+                    target.put((byte) '?');
+                }
+            } else {
+                target.put((byte) (0xe0 | (c >> 12)))
+                        .put((byte) (0x80 | ((c >> 6) & 0x3f)))
+                        .put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Ensures the buffer has at least the required number of bytes remaining. If not, a new buffer of the same kind
+     * is allocated and the bytes written so far are copied into it.
+     *
+     * @param buffer   the buffer to check
+     * @param required the required number of bytes
+     *
+     * @return the buffer or a new larger buffer
+     */
+    static ByteBuffer ensureRemaining(final ByteBuffer buffer, final int required) {
+        if (buffer.remaining() >= required) {
+            return buffer;
+        }
+        final int size = Math.max(buffer.capacity() << 1, buffer.position() + required);
+        final ByteBuffer result = (buffer.isDirect() ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size));
+        buffer.flip();
+        result.put(buffer);
+        return result;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+/**
+ * Serializes values of a type to a {@linkplain StructuredFormatter.Generator generator}.
+ * <p>
+ * Serializers are registered on a {@link StructuredFormatter} for a type and are used for values of the type, or a
+ * subtype, written as map values, for example the MDC, or as
+ * {@linkplain StructuredFormatter.MessageOutputType#TEMPLATE message parameters}. A serializer may write a nested structure with
+ * {@link StructuredFormatter.Generator#startObject(String)} and {@link StructuredFormatter.Generator#endObject()}.
+ * Nested values written with {@link StructuredFormatter.Generator#addValue(String, Object)} are serialized with the
+ * registered serializers as well.
+ * </p>
+ * <p>
+ * Serializers must be thread-safe.
+ * </p>
+ *
+ * @param <T> the type of the values serialized
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public interface ValueSerializer<T> {
+
+    /**
+     * Writes the value to the generator.
+     *
+     * @param generator the generator to write to
+     * @param key       the key for the value, may be {@code null} if the value is written to an array
+     * @param value     the value to write, never {@code null}
+     *
+     * @throws Exception if an error occurs while writing the value
+     */
+    void serialize(StructuredFormatter.Generator generator, String key, T value) throws Exception;
+}
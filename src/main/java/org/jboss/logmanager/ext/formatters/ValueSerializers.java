@@ -0,0 +1,224 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable registry of {@link ValueSerializer serializers} keyed by the type of the value.
+ * <p>
+ * The way a value is written is resolved once for each class and cached in a {@link ClassValue}, writing a value
+ * requires a single lookup rather than a chain of type checks. A registered serializer is used for its type and any
+ * subtype which does not have a more specific serializer, taking precedence over the types the generators write
+ * natively.
+ * </p>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class ValueSerializers {
+
+    /**
+     * The way a value is written.
+     */
+    enum Kind {
+        STRING,
+        CHARS,
+        BOOLEAN,
+        INTEGER,
+        FLOAT,
+        DOUBLE,
+        NUMBER,
+        JSON_VALUE,
+        SERIALIZER,
+        OTHER,
+    }
+
+    /**
+     * The resolved type of a value.
+     */
+    static final class Type {
+        final Kind kind;
+        final ValueSerializer<Object> serializer;
+
+        private Type(final Kind kind, final ValueSerializer<Object> serializer) {
+            this.kind = kind;
+            this.serializer = serializer;
+        }
+    }
+
+    /**
+     * A registry without any serializers.
+     */
+    static final ValueSerializers DEFAULT = new ValueSerializers(Collections.<Class<?>, ValueSerializer<?>>emptyMap());
+
+    private static final Class<?> JSON_VALUE_TYPE = findJsonValueType();
+    private static final Type STRING = new Type(Kind.STRING, null);
+    private static final Type CHARS = new Type(Kind.CHARS, null);
+    private static final Type BOOLEAN = new Type(Kind.BOOLEAN, null);
+    private static final Type INTEGER = new Type(Kind.INTEGER, null);
+    private static final Type FLOAT = new Type(Kind.FLOAT, null);
+    private static final Type DOUBLE = new Type(Kind.DOUBLE, null);
+    private static final Type NUMBER = new Type(Kind.NUMBER, null);
+    private static final Type JSON_VALUE = new Type(Kind.JSON_VALUE, null);
+    private static final Type OTHER = new Type(Kind.OTHER, null);
+
+    private final Map<Class<?>, ValueSerializer<?>> serializers;
+    private final ClassValue<Type> types = new ClassValue<Type>() {
+        @Override
+        protected Type computeValue(final Class<?> type) {
+            return resolve(type);
+        }
+    };
+
+    private ValueSerializers(final Map<Class<?>, ValueSerializer<?>> serializers) {
+        this.serializers = serializers;
+    }
+
+    /**
+     * Returns the resolved type for the class of a value.
+     *
+     * @param type the class of the value
+     *
+     * @return the resolved type
+     */
+    Type getType(final Class<?> type) {
+        return types.get(type);
+    }
+
+    /**
+     * Returns the serializer for the class of a value.
+     *
+     * @param type the class of the value
+     *
+     * @return the serializer or {@code null} if no serializer has been registered for the class or its super types
+     */
+    ValueSerializer<Object> getSerializer(final Class<?> type) {
+        return types.get(type).serializer;
+    }
+
+    /**
+     * Returns the registered serializers.
+     *
+     * @return an unmodifiable map of the serializers
+     */
+    Map<Class<?>, ValueSerializer<?>> getSerializers() {
+        return serializers;
+    }
+
+    /**
+     * Creates a new registry with the serializer added, replacing any serializer already registered for the type.
+     *
+     * @param type       the type the serializer is for
+     * @param serializer the serializer
+     *
+     * @return the new registry
+     */
+    ValueSerializers with(final Class<?> type, final ValueSerializer<?> serializer) {
+        final Map<Class<?>, ValueSerializer<?>> result = new LinkedHashMap<>(serializers);
+        result.put(type, serializer);
+        return new ValueSerializers(Collections.unmodifiableMap(result));
+    }
+
+    /**
+     * Creates a new registry without the serializer for the type.
+     *
+     * @param type the type to remove the serializer for
+     *
+     * @return the new registry, or this registry if no serializer was registered for the type
+     */
+    ValueSerializers without(final Class<?> type) {
+        if (!serializers.containsKey(type)) {
+            return this;
+        }
+        final Map<Class<?>, ValueSerializer<?>> result = new LinkedHashMap<>(serializers);
+        result.remove(type);
+        return (result.isEmpty() ? DEFAULT : new ValueSerializers(Collections.unmodifiableMap(result)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Type resolve(final Class<?> type) {
+        if (!serializers.isEmpty()) {
+            // Classes take precedence over interfaces, the closest class wins
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                final ValueSerializer<?> serializer = serializers.get(c);
+                if (serializer != null) {
+                    return new Type(Kind.SERIALIZER, (ValueSerializer<Object>) serializer);
+                }
+            }
+            // Breadth first search of the interfaces
+            final Deque<Class<?>> queue = new ArrayDeque<>();
+            final Set<Class<?>> seen = new HashSet<>();
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                Collections.addAll(queue, c.getInterfaces());
+            }
+            while (!queue.isEmpty()) {
+                final Class<?> c = queue.poll();
+                if (seen.add(c)) {
+                    final ValueSerializer<?> serializer = serializers.get(c);
+                    if (serializer != null) {
+                        return new Type(Kind.SERIALIZER, (ValueSerializer<Object>) serializer);
+                    }
+                    Collections.addAll(queue, c.getInterfaces());
+                }
+            }
+        }
+        if (type == String.class) {
+            return STRING;
+        }
+        if (type == Boolean.class) {
+            return BOOLEAN;
+        }
+        if (type == Integer.class || type == Long.class || type == Short.class || type == Byte.class) {
+            return INTEGER;
+        }
+        if (type == Float.class) {
+            return FLOAT;
+        }
+        if (type == Double.class) {
+            return DOUBLE;
+        }
+        if (BigInteger.class.isAssignableFrom(type) || BigDecimal.class.isAssignableFrom(type)) {
+            return NUMBER;
+        }
+        if (JSON_VALUE_TYPE != null && JSON_VALUE_TYPE.isAssignableFrom(type)) {
+            return JSON_VALUE;
+        }
+        if (CharSequence.class.isAssignableFrom(type)) {
+            return CHARS;
+        }
+        return OTHER;
+    }
+
+    private static Class<?> findJsonValueType() {
+        try {
+            return Class.forName("javax.json.JsonValue", false, ValueSerializers.class.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError ignore) {
+            return null;
+        }
+    }
+}
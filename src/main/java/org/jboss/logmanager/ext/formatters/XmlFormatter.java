@@ -20,10 +20,8 @@
 package org.jboss.logmanager.ext.formatters;
 
 import java.io.Writer;
+import java.util.Arrays;
 import java.util.Map;
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
 
 import org.jboss.logmanager.ext.util.PropertyValues;
 
@@ -44,6 +42,23 @@ import org.jboss.logmanager.ext.util.PropertyValues;
 @SuppressWarnings("unused")
 public class XmlFormatter extends StructuredFormatter {
 
+    private static final String SPACES = "    ";
+    private static final String[] TEXT_ESCAPES = createEscapes('&', '<', '>');
+    private static final String[] ATTRIBUTE_ESCAPES = createEscapes('&', '<', '>', '"');
+
+    /**
+     * A new line followed by the indent for each depth.
+     */
+    private static final String[] INDENTS = new String[16];
+
+    static {
+        final StringBuilder indent = new StringBuilder("\n");
+        for (int i = 0; i < INDENTS.length; i++) {
+            INDENTS[i] = indent.toString();
+            indent.append(SPACES);
+        }
+    }
+
     /**
      * The namespaces for logged records.
      */
@@ -66,7 +81,6 @@ public class XmlFormatter extends StructuredFormatter {
         }
     }
 
-    private final XMLOutputFactory factory = XMLOutputFactory.newFactory();
 
     private volatile boolean prettyPrint = false;
     private volatile boolean printNamespace = false;
@@ -182,28 +196,127 @@ public class XmlFormatter extends StructuredFormatter {
     }
 
     @Override
-    protected Generator createGenerator(final Writer writer) throws Exception {
-        final XMLStreamWriter xmlWriter;
-        if (prettyPrint) {
-            xmlWriter = new IndentingXmlWriter(factory.createXMLStreamWriter(writer));
-        } else {
-            xmlWriter = factory.createXMLStreamWriter(writer);
+    protected Generator createGenerator(final Writer writer) {
+        final XmlGenerator generator = new XmlGenerator();
+        generator.reset(writer, prettyPrint, getKey(Key.RECORD), getRecordNamespace());
+        return generator;
+    }
+
+    @Override
+    boolean resetGenerator(final Generator generator, final Writer writer) throws Exception {
+        if (generator instanceof XmlGenerator) {
+            ((XmlGenerator) generator).reset(writer, prettyPrint, getKey(Key.RECORD), getRecordNamespace());
+            return true;
         }
-        return new XmlGenerator(xmlWriter);
+        return super.resetGenerator(generator, writer);
     }
 
-    private class XmlGenerator extends Generator {
-        private final XMLStreamWriter xmlWriter;
+    private String getRecordNamespace() {
+        return (printNamespace ? namespaceUri : null);
+    }
 
-        private XmlGenerator(final XMLStreamWriter xmlWriter) {
-            this.xmlWriter = xmlWriter;
+    private static String[] createEscapes(final char... chars) {
+        final String[] escapes = new String['>' + 1];
+        for (char c : chars) {
+            switch (c) {
+                case '&':
+                    escapes[c] = "&amp;";
+                    break;
+                case '<':
+                    escapes[c] = "&lt;";
+                    break;
+                case '>':
+                    escapes[c] = "&gt;";
+                    break;
+                case '"':
+                    escapes[c] = "&quot;";
+                    break;
+                default:
+                    throw new IllegalArgumentException("No escape for " + c);
+            }
+        }
+        return escapes;
+    }
+
+    private static String getIndent(final int depth) {
+        if (depth < INDENTS.length) {
+            return INDENTS[depth];
+        }
+        final StringBuilder result = new StringBuilder(INDENTS[INDENTS.length - 1]);
+        for (int i = INDENTS.length - 1; i < depth; i++) {
+            result.append(SPACES);
+        }
+        return result.toString();
+    }
+
+    /**
+     * A generator which writes the XML directly to a {@link StringBuilder}. The generator is reused for each record
+     * formatted on the same thread. Text and attribute values are escaped through lookup tables and, when pretty
+     * printing, the indentation for each depth is cached.
+     * <p>
+     * The output is equivalent to the output of the JDK's {@link javax.xml.stream.XMLStreamWriter}.
+     * </p>
+     * <p>
+     * The generator is cached by the formatters thread local and is therefore static, the settings of the formatter
+     * are passed on each {@linkplain #reset(Writer, boolean, String, String) reset}.
+     * </p>
+     */
+    private static class XmlGenerator extends Generator {
+        // The states of the tag currently being written
+        private static final int TAG_CLOSED = 0;
+        private static final int START_TAG_OPEN = 1;
+        private static final int EMPTY_TAG_OPEN = 2;
+
+        // The last event written, used for pretty printing
+        private static final int START_ELEMENT = 1;
+        private static final int END_ELEMENT = 2;
+        private static final int CHARACTERS = 4;
+
+        private final StringBuilder buffer = new StringBuilder();
+        private final ValueAppender valueAppender = new ValueAppender();
+        private Writer writer;
+        private StringBuilder out;
+        private boolean prettyPrint;
+        private String recordName;
+        private String namespaceUri;
+        private String[] names = new String[16];
+        private int depth;
+        private int tagState;
+        private int lastEvent;
+        private boolean indentEnd;
+
+        /**
+         * Prepares the generator to write the next record.
+         *
+         * @param writer       the writer the record will be written to
+         * @param prettyPrint  whether or not the record should be pretty printed
+         * @param recordName   the name of the record element
+         * @param namespaceUri the namespace to write on the record element or {@code null} to not write a namespace
+         */
+        void reset(final Writer writer, final boolean prettyPrint, final String recordName, final String namespaceUri) {
+            this.writer = writer;
+            if (writer instanceof StringBuilderWriter) {
+                out = ((StringBuilderWriter) writer).getBuilder();
+            } else {
+                // Write the record to the writer once complete
+                out = buffer;
+            }
+            buffer.setLength(0);
+            this.prettyPrint = prettyPrint;
+            this.recordName = recordName;
+            this.namespaceUri = namespaceUri;
+            Arrays.fill(names, 0, depth, null);
+            depth = 0;
+            tagState = TAG_CLOSED;
+            lastEvent = 0;
+            indentEnd = false;
         }
 
         @Override
-        public Generator begin() throws Exception {
-            writeStart(getKey(Key.RECORD));
-            if (printNamespace && namespaceUri != null) {
-                xmlWriter.writeDefaultNamespace(namespaceUri);
+        public Generator begin() {
+            writeStart(recordName);
+            if (namespaceUri != null) {
+                writeAttribute("xmlns", namespaceUri);
             }
             return this;
         }
@@ -215,13 +328,7 @@ public class XmlFormatter extends StructuredFormatter {
             } else {
                 writeStart(key);
                 for (Map.Entry<String, ?> entry : value.entrySet()) {
-                    final String k = entry.getKey();
-                    final Object v = entry.getValue();
-                    if (v == null) {
-                        writeEmpty(k);
-                    } else {
-                        add(k, String.valueOf(v));
-                    }
+                    addValue(entry.getKey(), entry.getValue());
                 }
                 writeEnd();
             }
@@ -229,25 +336,30 @@ public class XmlFormatter extends StructuredFormatter {
         }
 
         @Override
-        public Generator add(final String key, final String value) throws Exception {
+        public Generator add(final String key, final String value) {
+            return add(key, (CharSequence) value);
+        }
+
+        @Override
+        public Generator add(final String key, final CharSequence value) {
             if (value == null) {
                 writeEmpty(key);
             } else {
                 writeStart(key);
-                xmlWriter.writeCharacters(value);
+                writeCharacters(value);
                 writeEnd();
             }
             return this;
         }
 
         @Override
-        public Generator addMetaData(final Map<String, String> metaData) throws Exception {
-            for (String key : metaData.keySet()) {
+        public Generator addMetaData(final Map<String, String> metaData) {
+            for (Map.Entry<String, String> entry : metaData.entrySet()) {
                 writeStart("metaData");
-                xmlWriter.writeAttribute("key", key);
-                final String value = metaData.get(key);
+                writeAttribute("key", entry.getKey());
+                final String value = entry.getValue();
                 if (value != null) {
-                    xmlWriter.writeCharacters(metaData.get(key));
+                    writeCharacters(value);
                 }
                 writeEnd();
             }
@@ -255,33 +367,36 @@ public class XmlFormatter extends StructuredFormatter {
         }
 
         @Override
-        public Generator startObject(final String key) throws Exception {
+        public Generator startObject(final String key) {
             writeStart(key);
             return this;
         }
 
         @Override
-        public Generator endObject() throws Exception {
+        public Generator endObject() {
             writeEnd();
             return this;
         }
 
         @Override
-        public Generator addAttribute(final String name, final int value) throws Exception {
-            return addAttribute(name, Integer.toString(value));
+        public Generator addAttribute(final String name, final int value) {
+            writeAttribute(name, Integer.toString(value));
+            return this;
         }
 
         @Override
-        public Generator addAttribute(final String name, final String value) throws Exception {
-            xmlWriter.writeAttribute(name, value);
+        public Generator addAttribute(final String name, final String value) {
+            writeAttribute(name, value);
             return this;
         }
 
         @Override
         public Generator end() throws Exception {
             writeEnd(); // end record
-            safeFlush(xmlWriter);
-            safeClose(xmlWriter);
+            if (out == buffer) {
+                writer.append(buffer);
+                buffer.setLength(0);
+            }
             return this;
         }
 
@@ -290,29 +405,216 @@ public class XmlFormatter extends StructuredFormatter {
             return true;
         }
 
-        private void writeEmpty(final String name) throws XMLStreamException {
-            xmlWriter.writeEmptyElement(name);
+        @Override
+        int beginFragment() {
+            closeTag();
+            return out.length();
         }
 
-        private void writeStart(final String name) throws XMLStreamException {
-            xmlWriter.writeStartElement(name);
+        @Override
+        Fragment endFragment(final int start) {
+            return new Fragment(XmlGenerator.class, depth, prettyPrint, out, start);
         }
 
-        private void writeEnd() throws XMLStreamException {
-            xmlWriter.writeEndElement();
+        @Override
+        Appendable beginValue(final String key) {
+            writeStart(key);
+            closeTag();
+            valueAppender.begin();
+            return valueAppender;
         }
 
-        private void safeFlush(final XMLStreamWriter flushable) {
-            if (flushable != null) try {
-                flushable.flush();
-            } catch (Throwable ignore) {
+        @Override
+        void endValue() {
+            if (prettyPrint) {
+                indentEnd = valueAppender.multiLine;
+                lastEvent = CHARACTERS;
             }
+            writeEnd();
         }
 
-        private void safeClose(final XMLStreamWriter closeable) {
-            if (closeable != null) try {
-                closeable.close();
-            } catch (Throwable ignore) {
+        @Override
+        boolean appendFragment(final Fragment fragment) {
+            if (!fragment.matches(XmlGenerator.class, depth, prettyPrint)) {
+                return false;
+            }
+            closeTag();
+            fragment.appendTo(out);
+            // Leave the state as if the last element of the fragment had just been written
+            if (prettyPrint) {
+                lastEvent = END_ELEMENT;
+                indentEnd = false;
+            }
+            return true;
+        }
+
+        private void writeEmpty(final String name) {
+            closeTag();
+            if (prettyPrint) {
+                out.append(getIndent(depth));
+                lastEvent = END_ELEMENT;
+            }
+            out.append('<').append(name);
+            tagState = EMPTY_TAG_OPEN;
+        }
+
+        private void writeStart(final String name) {
+            closeTag();
+            if (prettyPrint) {
+                out.append(getIndent(depth));
+                indentEnd = false;
+                lastEvent = START_ELEMENT;
+            }
+            out.append('<').append(name);
+            tagState = START_TAG_OPEN;
+            final int depth = this.depth++;
+            if (depth == names.length) {
+                names = Arrays.copyOf(names, depth << 1);
+            }
+            names[depth] = name;
+        }
+
+        private void writeEnd() {
+            final int depth = --this.depth;
+            final String name = names[depth];
+            names[depth] = null;
+            closeTag();
+            if (prettyPrint) {
+                if (lastEvent != CHARACTERS || indentEnd) {
+                    out.append(getIndent(depth));
+                    indentEnd = false;
+                }
+                lastEvent = END_ELEMENT;
+            }
+            out.append("</").append(name).append('>');
+        }
+
+        private void writeAttribute(final String name, final String value) {
+            out.append(' ').append(name).append("=\"");
+            writeEscaped(value, 0, value.length(), ATTRIBUTE_ESCAPES);
+            out.append('"');
+        }
+
+        private void writeCharacters(final CharSequence text) {
+            closeTag();
+            final int len = text.length();
+            if (prettyPrint) {
+                // Each line of multi-line text is written on a new line at the current indent
+                indentEnd = false;
+                int start = 0;
+                int end = indexOfNewline(text, start);
+                if (end >= 0) {
+                    final String indent = getIndent(depth);
+                    out.append(indent);
+                    while (end >= 0) {
+                        writeEscaped(text, start, end, TEXT_ESCAPES);
+                        out.append(indent);
+                        start = end + 1;
+                        end = indexOfNewline(text, start);
+                    }
+                    indentEnd = true;
+                }
+                writeEscaped(text, start, len, TEXT_ESCAPES);
+                lastEvent = CHARACTERS;
+            } else {
+                writeEscaped(text, 0, len, TEXT_ESCAPES);
+            }
+        }
+
+        private void writeEscaped(final CharSequence value, final int offset, final int end, final String[] escapes) {
+            final StringBuilder out = this.out;
+            int start = offset;
+            for (int i = offset; i < end; i++) {
+                final char c = value.charAt(i);
+                if (c < escapes.length) {
+                    final String escape = escapes[c];
+                    if (escape != null) {
+                        out.append(value, start, i).append(escape);
+                        start = i + 1;
+                    }
+                }
+            }
+            out.append(value, start, end);
+        }
+
+        private void closeTag() {
+            final int tagState = this.tagState;
+            if (tagState == START_TAG_OPEN) {
+                out.append('>');
+            } else if (tagState == EMPTY_TAG_OPEN) {
+                out.append("/>");
+            }
+            this.tagState = TAG_CLOSED;
+        }
+
+        private int indexOfNewline(final CharSequence text, final int start) {
+            final int len = text.length();
+            for (int i = start; i < len; i++) {
+                if (text.charAt(i) == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Escapes the characters of a text value as they are appended. When pretty printing each line is written on a
+         * new line at the current indent, the same as {@link #writeCharacters(CharSequence)}.
+         */
+        private class ValueAppender implements Appendable {
+            private int valueStart;
+            private boolean multiLine;
+
+            void begin() {
+                valueStart = out.length();
+                multiLine = false;
+            }
+
+            @Override
+            public Appendable append(final CharSequence csq) {
+                final CharSequence value = (csq == null ? "null" : csq);
+                return append(value, 0, value.length());
+            }
+
+            @Override
+            public Appendable append(final CharSequence csq, final int start, final int end) {
+                final CharSequence value = (csq == null ? "null" : csq);
+                if (prettyPrint) {
+                    int offset = start;
+                    for (int i = start; i < end; i++) {
+                        if (value.charAt(i) == '\n') {
+                            writeEscaped(value, offset, i, TEXT_ESCAPES);
+                            newLine();
+                            offset = i + 1;
+                        }
+                    }
+                    writeEscaped(value, offset, end, TEXT_ESCAPES);
+                } else {
+                    writeEscaped(value, start, end, TEXT_ESCAPES);
+                }
+                return this;
+            }
+
+            @Override
+            public Appendable append(final char c) {
+                if (prettyPrint && c == '\n') {
+                    newLine();
+                } else if (c < TEXT_ESCAPES.length && TEXT_ESCAPES[c] != null) {
+                    out.append(TEXT_ESCAPES[c]);
+                } else {
+                    out.append(c);
+                }
+                return this;
+            }
+
+            private void newLine() {
+                final String indent = getIndent(depth);
+                if (!multiLine) {
+                    // Multi-line text starts on a new line, only the first line has been written so far
+                    out.insert(valueStart, indent);
+                    multiLine = true;
+                }
+                out.append(indent);
             }
         }
     }
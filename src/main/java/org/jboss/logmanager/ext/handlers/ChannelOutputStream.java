@@ -0,0 +1,296 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.handlers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An output stream which writes to a non-blocking {@link SocketChannel} or connected {@link DatagramChannel}.
+ * <p>
+ * For TCP the bytes written are copied into reusable direct buffers and sent with a single gathering write when the
+ * stream is {@linkplain #flush() flushed} or the buffers are full. For UDP each call to {@code write} is sent as a
+ * single datagram, the same as the {@link org.jboss.logmanager.handlers.UdpOutputStream UdpOutputStream}.
+ * </p>
+ * <p>
+ * The interrupt status of the writing thread is cleared while the channel is being written to and restored
+ * afterwards, an interrupt would otherwise close the channel. A write which cannot complete within the write timeout
+ * fails with a {@link SocketTimeoutException}.
+ * </p>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class ChannelOutputStream extends OutputStream {
+
+    static final int BUFFER_SIZE = 16 * 1024;
+    static final int MAX_BUFFERS = 8;
+
+    private final SelectableChannel channel;
+    private final GatheringByteChannel out;
+    private final boolean datagram;
+    private final int writeTimeout;
+    private final ByteBuffer[] buffers;
+    private int count;
+    private ByteBuffer datagramBuffer;
+    private Selector selector;
+    private boolean closed;
+
+    private ChannelOutputStream(final SocketChannel channel, final int writeTimeout) {
+        this.channel = channel;
+        this.out = channel;
+        this.writeTimeout = writeTimeout;
+        datagram = false;
+        buffers = new ByteBuffer[MAX_BUFFERS];
+    }
+
+    private ChannelOutputStream(final DatagramChannel channel, final int writeTimeout) {
+        this.channel = channel;
+        this.out = channel;
+        this.writeTimeout = writeTimeout;
+        datagram = true;
+        buffers = null;
+    }
+
+    /**
+     * Connects a TCP channel.
+     *
+     * @param address        the address to connect to
+     * @param port           the port to connect to
+     * @param tcpNoDelay     {@code true} to disable Nagle's algorithm
+     * @param keepAlive      {@code true} to enable keep alive probes
+     * @param sendBufferSize the size of the socket send buffer or {@code 0} for the system default
+     * @param connectTimeout the time, in milliseconds, to wait for the connection or {@code 0} to wait indefinitely
+     * @param writeTimeout   the time, in milliseconds, a write may wait or {@code 0} to wait indefinitely
+     *
+     * @return the output stream
+     *
+     * @throws IOException if the channel could not be connected
+     */
+    static ChannelOutputStream openTcp(final InetAddress address, final int port, final boolean tcpNoDelay,
+                                       final boolean keepAlive, final int sendBufferSize, final int connectTimeout,
+                                       final int writeTimeout) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        boolean okay = false;
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, keepAlive);
+            if (sendBufferSize > 0) {
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+            }
+            // The socket adaptor supports a connect timeout while the channel is blocking
+            channel.socket().connect(new InetSocketAddress(address, port), connectTimeout);
+            channel.configureBlocking(false);
+            okay = true;
+            return new ChannelOutputStream(channel, writeTimeout);
+        } finally {
+            if (!okay) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Connects a UDP channel.
+     *
+     * @param address        the address to send datagrams to
+     * @param port           the port to send datagrams to
+     * @param sendBufferSize the size of the socket send buffer or {@code 0} for the system default
+     * @param writeTimeout   the time, in milliseconds, a write may wait or {@code 0} to wait indefinitely
+     *
+     * @return the output stream
+     *
+     * @throws IOException if the channel could not be connected
+     */
+    static ChannelOutputStream openUdp(final InetAddress address, final int port, final int sendBufferSize,
+                                       final int writeTimeout) throws IOException {
+        final DatagramChannel channel = DatagramChannel.open();
+        boolean okay = false;
+        try {
+            if (sendBufferSize > 0) {
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+            }
+            channel.connect(new InetSocketAddress(address, port));
+            channel.configureBlocking(false);
+            okay = true;
+            return new ChannelOutputStream(channel, writeTimeout);
+        } finally {
+            if (!okay) {
+                channel.close();
+            }
+        }
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (datagram) {
+            writeDatagram(b, off, len);
+            return;
+        }
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            final ByteBuffer buffer = current();
+            final int length = Math.min(remaining, buffer.remaining());
+            buffer.put(b, offset, length);
+            offset += length;
+            remaining -= length;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (!closed && count > 0) {
+            drain();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            try {
+                if (selector != null) {
+                    selector.close();
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Returns a buffer with space remaining, writing the buffered bytes if all the buffers are full.
+     */
+    private ByteBuffer current() throws IOException {
+        if (count > 0 && buffers[count - 1].hasRemaining()) {
+            return buffers[count - 1];
+        }
+        if (count == buffers.length) {
+            drain();
+        }
+        ByteBuffer buffer = buffers[count];
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffers[count] = buffer;
+        }
+        count++;
+        return buffer;
+    }
+
+    private void drain() throws IOException {
+        long remaining = 0L;
+        for (int i = 0; i < count; i++) {
+            buffers[i].flip();
+            remaining += buffers[i].remaining();
+        }
+        try {
+            writeFully(buffers, count, remaining);
+        } finally {
+            for (int i = 0; i < count; i++) {
+                buffers[i].clear();
+            }
+            count = 0;
+        }
+    }
+
+    private void writeDatagram(final byte[] b, final int off, final int len) throws IOException {
+        ByteBuffer buffer = datagramBuffer;
+        if (buffer == null || buffer.capacity() < len) {
+            buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, len));
+            datagramBuffer = buffer;
+        }
+        buffer.clear();
+        buffer.put(b, off, len);
+        buffer.flip();
+        writeFully(new ByteBuffer[] {buffer}, 1, len);
+    }
+
+    private void writeFully(final ByteBuffer[] srcs, final int length, final long total) throws IOException {
+        final long start = System.nanoTime();
+        boolean interrupted = Thread.interrupted();
+        try {
+            long remaining = total;
+            while (remaining > 0L) {
+                final long written = out.write(srcs, 0, length);
+                if (written == 0L) {
+                    interrupted |= awaitWritable(start);
+                }
+                remaining -= written;
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits until the channel can be written to.
+     *
+     * @param start the time the write started
+     *
+     * @return {@code true} if the thread was interrupted while waiting
+     *
+     * @throws SocketTimeoutException if the write timeout has elapsed
+     */
+    private boolean awaitWritable(final long start) throws IOException {
+        if (selector == null) {
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_WRITE);
+        }
+        if (writeTimeout > 0) {
+            final long remaining = writeTimeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (remaining <= 0L) {
+                throw new SocketTimeoutException("Write timed out after " + writeTimeout + "ms");
+            }
+            selector.select(remaining);
+        } else {
+            selector.select();
+        }
+        selector.selectedKeys().clear();
+        return Thread.interrupted();
+    }
+}
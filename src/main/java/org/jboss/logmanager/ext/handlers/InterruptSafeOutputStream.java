@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.handlers;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream which retries a write interrupted by a thread interrupt and restores the interrupt status
+ * afterwards.
+ * <p>
+ * This behaves like {@link org.jboss.logmanager.handlers.UninterruptibleOutputStream UninterruptibleOutputStream},
+ * except an array is passed to the delegate in a single write rather than one byte at a time.
+ * </p>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class InterruptSafeOutputStream extends OutputStream {
+
+    private final OutputStream out;
+
+    InterruptSafeOutputStream(final OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                try {
+                    out.write(b);
+                    return;
+                } catch (InterruptedIOException e) {
+                    if (e.bytesTransferred == 1) {
+                        return;
+                    }
+                    interrupted |= Thread.interrupted();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        boolean interrupted = false;
+        int offset = off;
+        int remaining = len;
+        try {
+            while (remaining > 0) {
+                try {
+                    out.write(b, offset, remaining);
+                    return;
+                } catch (InterruptedIOException e) {
+                    final int transferred = e.bytesTransferred;
+                    if (transferred > 0) {
+                        offset += transferred;
+                        remaining -= transferred;
+                    }
+                    interrupted |= Thread.interrupted();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                try {
+                    out.flush();
+                    return;
+                } catch (InterruptedIOException e) {
+                    interrupted |= Thread.interrupted();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                try {
+                    out.close();
+                    return;
+                } catch (InterruptedIOException e) {
+                    interrupted |= Thread.interrupted();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "uninterruptible " + out;
+    }
+}
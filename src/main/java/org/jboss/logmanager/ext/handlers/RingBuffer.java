@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.handlers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free queue backed by an array. Any number of threads may offer and poll elements concurrently.
+ * <p>
+ * Each slot holds a sequence number which indicates whether the slot is free for the producer at a position or holds
+ * an element for the consumer at a position. Producers and consumers claim a position with a single compare and set,
+ * there are no locks and no allocation for each element.
+ * </p>
+ *
+ * @param <E> the type of the elements
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class RingBuffer<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Creates a new ring buffer.
+     *
+     * @param capacity the minimum capacity, rounded up to the next power of two with a minimum of two as a single slot
+     *                 cannot tell a full queue from an empty one
+     */
+    RingBuffer(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be greater than 0: " + capacity);
+        }
+        final int size = (capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1);
+        if (size <= 0) {
+            throw new IllegalArgumentException("The capacity is too large: " + capacity);
+        }
+        mask = size - 1;
+        elements = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds the element to the tail of the queue if the queue is not full.
+     *
+     * @param element the element to add, cannot be {@code null}
+     *
+     * @return {@code true} if the element was added, {@code false} if the queue is full
+     */
+    boolean offer(final E element) {
+        long position = tail.get();
+        for (;;) {
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - position;
+            if (difference == 0L) {
+                if (tail.compareAndSet(position, position + 1L)) {
+                    elements.lazySet(index, element);
+                    // Publishes the element to the consumer
+                    sequences.lazySet(index, position + 1L);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0L) {
+                // The slot still holds the element from the previous lap
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the element at the head of the queue.
+     *
+     * @return the element or {@code null} if the queue is empty
+     */
+    E poll() {
+        long position = head.get();
+        for (;;) {
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - (position + 1L);
+            if (difference == 0L) {
+                if (head.compareAndSet(position, position + 1L)) {
+                    final E element = elements.get(index);
+                    elements.lazySet(index, null);
+                    // Frees the slot for the producer on the next lap
+                    sequences.lazySet(index, position + mask + 1L);
+                    return element;
+                }
+                position = head.get();
+            } else if (difference < 0L) {
+                // No element has been published to the slot
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Indicates whether or not the queue is empty. The result may be stale if other threads are modifying the queue.
+     *
+     * @return {@code true} if the queue is empty
+     */
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the number of elements in the queue. The result may be stale if other threads are modifying the queue.
+     *
+     * @return the number of elements
+     */
+    int size() {
+        // Read the head first so the size cannot be negative
+        final long h = head.get();
+        final long t = tail.get();
+        return (int) Math.max(0L, Math.min(t - h, mask + 1L));
+    }
+
+    /**
+     * Returns the capacity of the queue.
+     *
+     * @return the capacity
+     */
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -23,23 +23,89 @@ import java.io.Closeable;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
-import java.io.Writer;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.ErrorManager;
 import java.util.logging.Formatter;
+import java.util.logging.Level;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
 
 import org.jboss.logmanager.ExtHandler;
 import org.jboss.logmanager.ExtLogRecord;
-import org.jboss.logmanager.handlers.SslTcpOutputStream;
-import org.jboss.logmanager.handlers.TcpOutputStream;
+import org.jboss.logmanager.ExtLogRecord.FormatStyle;
+import org.jboss.logmanager.ext.formatters.RecordEncoder;
+import org.jboss.logmanager.ext.formatters.StructuredFormatter;
 import org.jboss.logmanager.handlers.UdpOutputStream;
-import org.jboss.logmanager.handlers.UninterruptibleOutputStream;
 
 /**
  * A handler used to communicate over a socket.
+ * <p>
+ * Records are encoded into a buffer owned by the publishing thread before the socket is locked. If the formatter is a
+ * {@link RecordEncoder} and the encoding is UTF-8 the record is encoded directly to bytes. A
+ * {@link StructuredFormatter} with any other encoding {@linkplain StructuredFormatter#formatTo(ExtLogRecord, Appendable)
+ * formats} into a reusable character buffer. Otherwise the formatted string is encoded with the
+ * {@linkplain #getEncoding() encoding}.
+ * </p>
+ * <p>
+ * If the formatter is a {@link StructuredFormatter} in {@linkplain StructuredFormatter#setUseDictionary(boolean)
+ * dictionary mode} the records are formatted while the socket is locked, so they are written in the order they were
+ * formatted. A new dictionary is started for each connection.
+ * </p>
+ * <p>
+ * In {@linkplain #setAsync(boolean) asynchronous mode} records are encoded by the publishing thread and placed on a
+ * bounded lock-free queue. A dedicated writer thread writes the queued records to the socket, the publishing thread
+ * never waits for the network unless the queue is full and the {@linkplain #setOverflowPolicy(OverflowPolicy)
+ * overflow policy} blocks. In dictionary mode a copy of the record is queued and the writer thread formats it.
+ * </p>
+ * <p>
+ * The writer thread collects the encoded TCP records into a batch which is sent with a single write once the queue is
+ * empty, or when the {@linkplain #setMaxBatchBytes(int) maximum bytes} or {@linkplain #setMaxBatchRecords(int)
+ * maximum records} is reached. With a {@linkplain #setLingerTime(long) linger time} the writer thread waits for more
+ * records before sending a batch the queue was emptied for. UDP records are not batched, each record is sent as a
+ * datagram of its own.
+ * </p>
+ * <p>
+ * In {@linkplain #setGroupCommit(boolean) group commit mode} records are still published synchronously, however the
+ * publishing threads which arrive while the socket is locked are committed together. The thread which acquires the
+ * lock writes and flushes every waiting record as a batch, the other threads return once their record was part of a
+ * committed batch.
+ * </p>
+ * <p>
+ * If the connection cannot be established or a write fails the handler enters a fast-fail state. Records published
+ * while in this state are {@linkplain #getDroppedCount() dropped} without being formatted and a background thread
+ * reconnects with an exponential backoff, starting at the {@linkplain #setReconnectDelay(long) reconnect delay}. Only
+ * the first connection and a connection after the settings have changed are attempted by a publishing thread, bounded
+ * by the {@linkplain #setConnectTimeout(int) connect timeout}. In {@linkplain #setGroupCommit(boolean) group commit
+ * mode} the handler does not fail fast, the publishing threads wait until the connection is re-established.
+ * </p>
+ * <p>
+ * If {@linkplain #setUseChannel(boolean) channels are used} the TCP and UDP protocols write to a non-blocking NIO
+ * channel rather than a socket stream. For TCP a batch is copied into reusable direct buffers and sent with gathering
+ * writes.
+ * </p>
  *
  * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
  */
@@ -63,15 +129,132 @@ public class SocketHandler extends ExtHandler {
         SSL_TCP,
     }
 
+    /**
+     * The action taken when a record is published and the queue of an {@linkplain #setAsync(boolean) asynchronous}
+     * handler is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The publishing thread waits until there is space in the queue.
+         */
+        BLOCK,
+        /**
+         * The record being published is dropped.
+         */
+        DROP_NEW,
+        /**
+         * The oldest record in the queue is dropped to make space for the record being published.
+         */
+        DROP_OLDEST,
+        /**
+         * Records below the {@linkplain #setOverflowLevel(Level) overflow level} are dropped, for any other record the
+         * publishing thread waits until there is space in the queue.
+         */
+        DROP_BELOW_LEVEL,
+    }
+
     public static final int DEFAULT_PORT = 4560;
 
+    /**
+     * The default number of records which can be queued in asynchronous mode.
+     */
+    public static final int DEFAULT_QUEUE_LENGTH = 1024;
+
+    /**
+     * The default interval, in milliseconds, at which the number of dropped records is reported.
+     */
+    public static final long DEFAULT_DROPPED_REPORT_INTERVAL = 10000L;
+
+    /**
+     * The default maximum number of bytes sent in a single batch.
+     */
+    public static final int DEFAULT_MAX_BATCH_BYTES = 64 * 1024;
+
+    /**
+     * The default maximum number of records sent in a single batch.
+     */
+    public static final int DEFAULT_MAX_BATCH_RECORDS = 1024;
+
+    /**
+     * The default time, in milliseconds, to wait for a connection.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+
+    /**
+     * The default time, in milliseconds, a write to a channel may wait.
+     */
+    public static final int DEFAULT_WRITE_TIMEOUT = 10000;
+
+    /**
+     * The default time, in milliseconds, to wait before the first reconnect attempt.
+     */
+    public static final long DEFAULT_RECONNECT_DELAY = 100L;
+
+    /**
+     * The default maximum time, in milliseconds, to wait between reconnect attempts.
+     */
+    public static final long DEFAULT_MAX_RECONNECT_DELAY = 30000L;
+
+    /**
+     * The largest buffer capacity a thread is allowed to retain between records.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int INITIAL_CAPACITY = 1024;
+    // The time a publishing thread waits before checking a full queue again
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100L);
+    // The maximum time the writer thread waits for records before checking for dropped records
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+    private static final long STOP_TIMEOUT = 5000L;
+    // The shortest linger time used by an adaptive linger, any shorter and records are sent without waiting
+    private static final long MIN_ADAPTIVE_LINGER_NANOS = TimeUnit.MICROSECONDS.toNanos(50L);
+
     // All the following fields are guarded by this
     private InetAddress address;
     private int port;
     private Protocol protocol;
-    private Writer writer;
+    private OutputStream out;
     private boolean initialize;
 
+    // Not guarded by the handler lock, publishing threads must not wait on a writer blocked on the socket
+    private final AtomicReference<AsyncWriter> asyncWriter = new AtomicReference<>();
+    private final Batch commitBatch = new Batch();
+    private final List<GroupEntry> committed = new ArrayList<>();
+    // Entries whose write failed, written again before the pending entries once reconnected
+    private final Deque<GroupEntry> retry = new ArrayDeque<>();
+    private final PublishBuffer commitBuffer = new PublishBuffer();
+
+    private volatile Charset charset;
+    private volatile boolean async;
+    private volatile boolean closed;
+    private volatile int queueLength = DEFAULT_QUEUE_LENGTH;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private volatile Level overflowLevel = org.jboss.logmanager.Level.WARN;
+    private volatile long droppedReportInterval = DEFAULT_DROPPED_REPORT_INTERVAL;
+    private volatile int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    private volatile int maxBatchRecords = DEFAULT_MAX_BATCH_RECORDS;
+    private volatile long lingerTime;
+    private volatile boolean adaptiveLinger;
+    private volatile boolean groupCommit;
+    private final Queue<GroupEntry> pending = new ConcurrentLinkedQueue<>();
+    private boolean useChannel;
+    private boolean tcpNoDelay;
+    private boolean keepAlive;
+    private int sendBufferSize;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int writeTimeout = DEFAULT_WRITE_TIMEOUT;
+    private Reconnector reconnector;
+    // false while the connection has failed and the reconnector is running
+    private volatile boolean available = true;
+    private volatile long reconnectDelay = DEFAULT_RECONNECT_DELAY;
+    private volatile long maxReconnectDelay = DEFAULT_MAX_RECONNECT_DELAY;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final ThreadLocal<PublishBuffer> buffers = new ThreadLocal<PublishBuffer>() {
+        @Override
+        protected PublishBuffer initialValue() {
+            return new PublishBuffer();
+        }
+    };
+
     /**
      * Creates a socket handler with an address of {@linkplain java.net.InetAddress#getLocalHost() localhost} and port
      * of {@linkplain #DEFAULT_PORT 4560}.
@@ -129,44 +312,89 @@ public class SocketHandler extends ExtHandler {
         this.port = port;
         this.protocol = protocol;
         initialize = true;
-        writer = null;
+        out = null;
+        charset = Charset.defaultCharset();
     }
 
     @Override
     protected void doPublish(final ExtLogRecord record) {
-        final String formatted;
-        final Formatter formatter = getFormatter();
-        try {
-            formatted = formatter.format(record);
-        } catch (Exception e) {
-            reportError("Could not format message", e, ErrorManager.FORMAT_FAILURE);
+        // A group commit waits for the connection rather than losing the record
+        if (!available && (async || !groupCommit)) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+        if (async) {
+            publishAsync(record);
             return;
         }
-        if (formatted.isEmpty()) {
-            // nothing to write; move along
+        if (groupCommit) {
+            publishGroupCommit(record);
             return;
         }
+        PublishBuffer publishBuffer = buffers.get();
+        // A nested publish on the same thread, e.g. from a toString() which logs, gets its own buffer
+        if (publishBuffer.inUse) {
+            publishBuffer = new PublishBuffer();
+        }
+        publishBuffer.inUse = true;
+        ByteBuffer buffer = publishBuffer.buffer;
         try {
-            synchronized (this) {
-                if (initialize) {
-                    initialize();
-                    initialize = false;
-                }
-                if (writer == null) {
+            final Formatter formatter = getFormatter();
+            // Records referencing a dictionary must be written in the order they're formatted
+            final boolean ordered = (formatter instanceof StructuredFormatter && ((StructuredFormatter) formatter).isUseDictionary());
+            if (!ordered) {
+                buffer = encode(formatter, record, publishBuffer);
+                if (buffer == null || buffer.position() == 0) {
+                    // nothing to write; move along
                     return;
                 }
-                writer.write(formatted);
-                super.doPublish(record);
             }
-        } catch (Exception e) {
-            reportError("Error writing log message", e, ErrorManager.WRITE_FAILURE);
+            try {
+                synchronized (this) {
+                    if (initialize) {
+                        initialize();
+                        initialize = false;
+                    }
+                    if (out == null) {
+                        return;
+                    }
+                    if (ordered) {
+                        buffer = encode(formatter, record, publishBuffer);
+                        if (buffer == null || buffer.position() == 0) {
+                            return;
+                        }
+                    }
+                    try {
+                        write(out, buffer);
+                        if (out instanceof ChannelOutputStream) {
+                            // Only the writer thread collects records before sending them
+                            out.flush();
+                        }
+                    } catch (IOException e) {
+                        writeFailed(e);
+                        return;
+                    }
+                    super.doPublish(record);
+                }
+            } catch (Exception e) {
+                reportError("Error writing log message", e, ErrorManager.WRITE_FAILURE);
+            }
+        } finally {
+            publishBuffer.release(buffer == null ? publishBuffer.buffer : buffer);
         }
     }
 
     @Override
     public void flush() {
-        synchronized (this) {
-            safeFlush(writer);
+        final AsyncWriter writer = asyncWriter.get();
+        if (writer != null) {
+            // Flush the records queued before the flush once they have been written
+            writer.flushRequested = true;
+            writer.signal();
+        } else {
+            synchronized (this) {
+                safeFlush(out);
+            }
         }
         super.flush();
     }
@@ -174,13 +402,25 @@ public class SocketHandler extends ExtHandler {
     @Override
     public void close() throws SecurityException {
         checkAccess(this);
+        // Set before stopping the writer so a publishing thread which installs a new writer stops it
+        closed = true;
+        stopAsyncWriter();
         synchronized (this) {
-            safeClose(writer);
-            writer = null;
+            stopReconnector();
+            safeClose(out);
+            out = null;
         }
         super.close();
     }
 
+    @Override
+    public void setEncoding(final String encoding) throws SecurityException, UnsupportedEncodingException {
+        synchronized (this) {
+            super.setEncoding(encoding);
+            charset = (encoding == null ? Charset.defaultCharset() : Charset.forName(encoding));
+        }
+    }
+
     /**
      * Returns the address being used.
      *
@@ -199,7 +439,7 @@ public class SocketHandler extends ExtHandler {
         checkAccess(this);
         synchronized (this) {
             this.address = address;
-            initialize = true;
+            reconfigure();
         }
     }
 
@@ -233,7 +473,7 @@ public class SocketHandler extends ExtHandler {
         checkAccess(this);
         synchronized (this) {
             this.protocol = protocol;
-            initialize = true;
+            reconfigure();
         }
     }
 
@@ -255,92 +495,1429 @@ public class SocketHandler extends ExtHandler {
         checkAccess(this);
         synchronized (this) {
             this.port = port;
-            initialize = true;
+            reconfigure();
         }
     }
 
-    private void initialize() {
-        final Writer current = this.writer;
-        boolean okay = false;
-        try {
-            if (current != null) {
-                writeTail(current);
-                safeFlush(current);
-            }
-            final OutputStream out = createOutputStream();
-            if (out == null) {
-                return;
-            }
-            final String encoding = getEncoding();
-            final UninterruptibleOutputStream outputStream = new UninterruptibleOutputStream(out);
-            if (encoding == null) {
-                writer = new OutputStreamWriter(outputStream);
-            } else {
-                writer = new OutputStreamWriter(outputStream, encoding);
-            }
-            writeHead(writer);
-            okay = true;
-        } catch (UnsupportedEncodingException e) {
-            reportError("Error opening", e, ErrorManager.OPEN_FAILURE);
-        } finally {
-            safeClose(current);
-            if (!okay) {
-                safeClose(writer);
-            }
+    /**
+     * Indicates whether or not the records are written to an NIO channel.
+     *
+     * @return {@code true} if a channel is used, otherwise {@code false}
+     */
+    public boolean isUseChannel() {
+        return useChannel;
+    }
+
+    /**
+     * Sets whether or not the records are written to a non-blocking NIO channel. The default is {@code false}.
+     * <p>
+     * Channels are only used for the {@link Protocol#TCP TCP} and {@link Protocol#UDP UDP} protocols,
+     * {@link Protocol#SSL_TCP SSL_TCP} always uses a socket stream.
+     * </p>
+     *
+     * @param useChannel {@code true} to use a channel
+     */
+    public void setUseChannel(final boolean useChannel) {
+        checkAccess(this);
+        synchronized (this) {
+            this.useChannel = useChannel;
+            reconfigure();
         }
+    }
 
+    /**
+     * Indicates whether or not Nagle's algorithm is disabled for TCP connections.
+     *
+     * @return {@code true} if {@code TCP_NODELAY} is set
+     */
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
     }
 
-    private OutputStream createOutputStream() {
-        if (address != null || port >= 0) {
-            try {
-                if (protocol == Protocol.SSL_TCP) {
-                    return new SslTcpOutputStream(address, port);
-                } else if (protocol == Protocol.UDP) {
-                    return new UdpOutputStream(address, port);
-                } else {
-                    return new TcpOutputStream(address, port);
-                }
-            } catch (IOException e) {
-                reportError("Failed to create socket output stream", e, ErrorManager.OPEN_FAILURE);
-            }
+    /**
+     * Sets whether or not Nagle's algorithm is disabled, the {@code TCP_NODELAY} socket option, for TCP connections. The
+     * default is {@code false}.
+     *
+     * @param tcpNoDelay {@code true} to disable Nagle's algorithm
+     */
+    public void setTcpNoDelay(final boolean tcpNoDelay) {
+        checkAccess(this);
+        synchronized (this) {
+            this.tcpNoDelay = tcpNoDelay;
+            reconfigure();
         }
-        return null;
     }
 
-    private void writeHead(final Writer writer) {
-        try {
-            final Formatter formatter = getFormatter();
-            if (formatter != null) writer.write(formatter.getHead(this));
-        } catch (Exception e) {
-            reportError("Error writing section header", e, ErrorManager.WRITE_FAILURE);
+    /**
+     * Indicates whether or not keep alive probes are sent for TCP connections.
+     *
+     * @return {@code true} if {@code SO_KEEPALIVE} is set
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Sets whether or not keep alive probes are sent, the {@code SO_KEEPALIVE} socket option, for TCP connections. The
+     * default is {@code false}.
+     *
+     * @param keepAlive {@code true} to send keep alive probes
+     */
+    public void setKeepAlive(final boolean keepAlive) {
+        checkAccess(this);
+        synchronized (this) {
+            this.keepAlive = keepAlive;
+            reconfigure();
         }
     }
 
-    private void writeTail(final Writer writer) {
-        try {
-            final Formatter formatter = getFormatter();
-            if (formatter != null) writer.write(formatter.getTail(this));
-        } catch (Exception ex) {
-            reportError("Error writing section tail", ex, ErrorManager.WRITE_FAILURE);
+    /**
+     * Returns the size of the socket send buffer for TCP connections and UDP channels.
+     *
+     * @return the size or {@code 0} if the system default is used
+     */
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * Sets the size of the socket send buffer, the {@code SO_SNDBUF} socket option, for TCP connections and UDP channels. The default is
+     * {@code 0} which uses the system default.
+     *
+     * @param sendBufferSize the size or {@code 0} to use the system default
+     *
+     * @throws IllegalArgumentException if the size is negative
+     */
+    public void setSendBufferSize(final int sendBufferSize) {
+        checkAccess(this);
+        if (sendBufferSize < 0) {
+            throw new IllegalArgumentException("The send buffer size cannot be negative: " + sendBufferSize);
+        }
+        synchronized (this) {
+            this.sendBufferSize = sendBufferSize;
+            reconfigure();
         }
     }
 
-    private void safeClose(Closeable c) {
-        try {
-            if (c != null) c.close();
-        } catch (Exception e) {
-            reportError("Error closing resource", e, ErrorManager.CLOSE_FAILURE);
-        } catch (Throwable ignored) {
+    /**
+     * Returns the time, in milliseconds, to wait for a connection.
+     *
+     * @return the connect timeout or {@code 0} if the connection waits indefinitely
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the time, in milliseconds, to wait for a TCP connection, including the SSL handshake. The default is
+     * {@value #DEFAULT_CONNECT_TIMEOUT}.
+     *
+     * @param connectTimeout the connect timeout or {@code 0} to wait indefinitely
+     *
+     * @throws IllegalArgumentException if the timeout is negative
+     */
+    public void setConnectTimeout(final int connectTimeout) {
+        checkAccess(this);
+        if (connectTimeout < 0) {
+            throw new IllegalArgumentException("The connect timeout cannot be negative: " + connectTimeout);
+        }
+        synchronized (this) {
+            this.connectTimeout = connectTimeout;
         }
     }
 
-    private void safeFlush(Flushable f) {
-        try {
-            if (f != null) f.flush();
-        } catch (Exception e) {
-            reportError("Error on flush", e, ErrorManager.FLUSH_FAILURE);
-        } catch (Throwable ignored) {
+    /**
+     * Returns the time, in milliseconds, a write to a channel may wait.
+     *
+     * @return the write timeout or {@code 0} if a write waits indefinitely
+     */
+    public int getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    /**
+     * Sets the time, in milliseconds, a write to a {@linkplain #setUseChannel(boolean) channel} may wait for the socket
+     * to accept the bytes. A write which times out fails the connection and the handler reconnects. The default is
+     * {@value #DEFAULT_WRITE_TIMEOUT}.
+     * <p>
+     * Writes to a socket stream block until the bytes are accepted, a write timeout requires a channel.
+     * </p>
+     *
+     * @param writeTimeout the write timeout or {@code 0} to wait indefinitely
+     *
+     * @throws IllegalArgumentException if the timeout is negative
+     */
+    public void setWriteTimeout(final int writeTimeout) {
+        checkAccess(this);
+        if (writeTimeout < 0) {
+            throw new IllegalArgumentException("The write timeout cannot be negative: " + writeTimeout);
+        }
+        synchronized (this) {
+            this.writeTimeout = writeTimeout;
+            reconfigure();
+        }
+    }
+
+    /**
+     * Returns the time, in milliseconds, to wait before the first reconnect attempt.
+     *
+     * @return the reconnect delay
+     */
+    public long getReconnectDelay() {
+        return reconnectDelay;
+    }
+
+    /**
+     * Sets the time, in milliseconds, to wait before the first reconnect attempt after a connection failed. The delay
+     * doubles for each failed attempt up to the {@linkplain #setMaxReconnectDelay(long) maximum reconnect delay}. The
+     * default is {@value #DEFAULT_RECONNECT_DELAY}.
+     *
+     * @param reconnectDelay the reconnect delay
+     *
+     * @throws IllegalArgumentException if the delay is less than 1
+     */
+    public void setReconnectDelay(final long reconnectDelay) {
+        checkAccess(this);
+        if (reconnectDelay < 1L) {
+            throw new IllegalArgumentException("The reconnect delay must be greater than 0: " + reconnectDelay);
+        }
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    /**
+     * Returns the maximum time, in milliseconds, to wait between reconnect attempts.
+     *
+     * @return the maximum reconnect delay
+     */
+    public long getMaxReconnectDelay() {
+        return maxReconnectDelay;
+    }
+
+    /**
+     * Sets the maximum time, in milliseconds, to wait between reconnect attempts. The default is
+     * {@value #DEFAULT_MAX_RECONNECT_DELAY}.
+     *
+     * @param maxReconnectDelay the maximum reconnect delay
+     *
+     * @throws IllegalArgumentException if the delay is less than 1
+     */
+    public void setMaxReconnectDelay(final long maxReconnectDelay) {
+        checkAccess(this);
+        if (maxReconnectDelay < 1L) {
+            throw new IllegalArgumentException("The maximum reconnect delay must be greater than 0: " + maxReconnectDelay);
+        }
+        this.maxReconnectDelay = maxReconnectDelay;
+    }
+
+    /**
+     * Indicates whether or not records are being published. While a failed connection is being reconnected in the
+     * background records are dropped.
+     *
+     * @return {@code true} if records are being published, {@code false} if the handler is failing fast
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Indicates whether or not records are written to the socket by a writer thread.
+     *
+     * @return {@code true} if records are written asynchronously, otherwise {@code false}
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Sets whether or not records are written to the socket by a writer thread. The default is {@code false}.
+     * <p>
+     * When enabled the publishing thread encodes the record and places it on a queue of the
+     * {@linkplain #setQueueLength(int) queue length}. If the queue is full the
+     * {@linkplain #setOverflowPolicy(OverflowPolicy) overflow policy} determines whether the publishing thread waits
+     * or a record is dropped. When disabled, any queued records are written before this method returns.
+     * </p>
+     *
+     * @param async {@code true} to write records asynchronously
+     */
+    public void setAsync(final boolean async) {
+        checkAccess(this);
+        this.async = async;
+        if (!async) {
+            stopAsyncWriter();
+        }
+    }
+
+    /**
+     * Returns the number of records which can be queued in asynchronous mode.
+     *
+     * @return the queue length
+     */
+    public int getQueueLength() {
+        return queueLength;
+    }
+
+    /**
+     * Sets the number of records which can be queued in asynchronous mode, rounded up to the next power of two with a
+     * minimum of two. The default is {@value #DEFAULT_QUEUE_LENGTH}. Any queued records are written before the new queue is used.
+     *
+     * @param queueLength the queue length
+     *
+     * @throws IllegalArgumentException if the queue length is less than 1
+     */
+    public void setQueueLength(final int queueLength) {
+        checkAccess(this);
+        if (queueLength < 1) {
+            throw new IllegalArgumentException("The queue length must be greater than 0: " + queueLength);
+        }
+        this.queueLength = queueLength;
+        stopAsyncWriter();
+    }
+
+    /**
+     * Returns the action taken when the queue is full.
+     *
+     * @return the overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Sets the action taken when the queue is full in asynchronous mode. The default is
+     * {@link OverflowPolicy#BLOCK BLOCK}.
+     *
+     * @param overflowPolicy the overflow policy, if {@code null} {@link OverflowPolicy#BLOCK} is used
+     */
+    public void setOverflowPolicy(final OverflowPolicy overflowPolicy) {
+        checkAccess(this);
+        this.overflowPolicy = (overflowPolicy == null ? OverflowPolicy.BLOCK : overflowPolicy);
+    }
+
+    /**
+     * Returns the level below which records are dropped when the queue is full and the overflow policy is
+     * {@link OverflowPolicy#DROP_BELOW_LEVEL DROP_BELOW_LEVEL}.
+     *
+     * @return the overflow level
+     */
+    public Level getOverflowLevel() {
+        return overflowLevel;
+    }
+
+    /**
+     * Sets the level below which records are dropped when the queue is full and the overflow policy is
+     * {@link OverflowPolicy#DROP_BELOW_LEVEL DROP_BELOW_LEVEL}. The default is
+     * {@link org.jboss.logmanager.Level#WARN WARN}.
+     *
+     * @param overflowLevel the overflow level, if {@code null} {@link org.jboss.logmanager.Level#WARN WARN} is used
+     */
+    public void setOverflowLevel(final Level overflowLevel) {
+        checkAccess(this);
+        this.overflowLevel = (overflowLevel == null ? org.jboss.logmanager.Level.WARN : overflowLevel);
+    }
+
+    /**
+     * Returns the interval, in milliseconds, at which the number of dropped records is reported.
+     *
+     * @return the interval or {@code 0} if dropped records are not reported
+     */
+    public long getDroppedReportInterval() {
+        return droppedReportInterval;
+    }
+
+    /**
+     * Sets the interval, in milliseconds, at which the number of dropped records is reported. The default is
+     * {@value #DEFAULT_DROPPED_REPORT_INTERVAL}.
+     * <p>
+     * If records were dropped since the last report the writer thread writes a {@code WARN} record, with a logger
+     * name of this handler's class name, containing the number of records dropped.
+     * </p>
+     *
+     * @param droppedReportInterval the interval or {@code 0} to not report dropped records
+     *
+     * @throws IllegalArgumentException if the interval is negative
+     */
+    public void setDroppedReportInterval(final long droppedReportInterval) {
+        checkAccess(this);
+        if (droppedReportInterval < 0L) {
+            throw new IllegalArgumentException("The interval cannot be negative: " + droppedReportInterval);
+        }
+        this.droppedReportInterval = droppedReportInterval;
+    }
+
+    /**
+     * Returns the total number of records dropped because the queue was full or the connection had failed.
+     *
+     * @return the number of dropped records
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the maximum number of bytes the writer thread collects before sending a batch.
+     *
+     * @return the maximum number of bytes
+     */
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes the writer thread collects before sending a batch in asynchronous mode. The
+     * default is {@value #DEFAULT_MAX_BATCH_BYTES}. A record larger than the maximum is sent as a batch of its own.
+     *
+     * @param maxBatchBytes the maximum number of bytes
+     *
+     * @throws IllegalArgumentException if the maximum is less than 1
+     */
+    public void setMaxBatchBytes(final int maxBatchBytes) {
+        checkAccess(this);
+        if (maxBatchBytes < 1) {
+            throw new IllegalArgumentException("The maximum batch bytes must be greater than 0: " + maxBatchBytes);
+        }
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Returns the maximum number of records the writer thread collects before sending a batch.
+     *
+     * @return the maximum number of records
+     */
+    public int getMaxBatchRecords() {
+        return maxBatchRecords;
+    }
+
+    /**
+     * Sets the maximum number of records the writer thread collects before sending a batch in asynchronous mode. The
+     * default is {@value #DEFAULT_MAX_BATCH_RECORDS}. A value of {@code 1} sends each record on its own.
+     *
+     * @param maxBatchRecords the maximum number of records
+     *
+     * @throws IllegalArgumentException if the maximum is less than 1
+     */
+    public void setMaxBatchRecords(final int maxBatchRecords) {
+        checkAccess(this);
+        if (maxBatchRecords < 1) {
+            throw new IllegalArgumentException("The maximum batch records must be greater than 0: " + maxBatchRecords);
+        }
+        this.maxBatchRecords = maxBatchRecords;
+    }
+
+    /**
+     * Returns the time, in milliseconds, the writer thread waits for more records before sending a batch.
+     *
+     * @return the linger time
+     */
+    public long getLingerTime() {
+        return lingerTime;
+    }
+
+    /**
+     * Sets the time, in milliseconds, the writer thread waits for more records before sending a batch in asynchronous
+     * mode. The time is measured from when the first record was added to the batch. The default is {@code 0} which
+     * sends the batch as soon as the queue is empty.
+     *
+     * @param lingerTime the linger time
+     *
+     * @throws IllegalArgumentException if the time is negative
+     */
+    public void setLingerTime(final long lingerTime) {
+        checkAccess(this);
+        if (lingerTime < 0L) {
+            throw new IllegalArgumentException("The linger time cannot be negative: " + lingerTime);
+        }
+        this.lingerTime = lingerTime;
+    }
+
+    /**
+     * Indicates whether or not the linger time adapts to the load.
+     *
+     * @return {@code true} if the linger time adapts to the load
+     */
+    public boolean isAdaptiveLinger() {
+        return adaptiveLinger;
+    }
+
+    /**
+     * Sets whether or not the linger time adapts to the load. The default is {@code false}.
+     * <p>
+     * When enabled the writer thread halves the time it waits each time waiting did not collect more than a single
+     * record, and doubles it, up to the {@linkplain #setLingerTime(long) linger time}, each time a batch contained more
+     * than one record. Under a low load records are then sent without waiting.
+     * </p>
+     *
+     * @param adaptiveLinger {@code true} to adapt the linger time
+     */
+    public void setAdaptiveLinger(final boolean adaptiveLinger) {
+        checkAccess(this);
+        this.adaptiveLinger = adaptiveLinger;
+    }
+
+    /**
+     * Indicates whether or not records published at the same time are written and flushed together.
+     *
+     * @return {@code true} if group commit mode is enabled
+     */
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    /**
+     * Sets whether or not records published at the same time are written and flushed together. The default is
+     * {@code false}. Group commit only applies when not in {@linkplain #setAsync(boolean) asynchronous mode}.
+     * <p>
+     * When enabled a publishing thread queues its encoded record before locking the socket. The first thread to
+     * acquire the lock writes every queued record, in batches of at most the {@linkplain #setMaxBatchBytes(int)
+     * maximum bytes} and {@linkplain #setMaxBatchRecords(int) maximum records}, and flushes the socket. A thread
+     * whose record has already been written and flushed returns as soon as it acquires the lock. A publishing thread
+     * does not return before its record has been written, regardless of the {@linkplain #setAutoFlush(boolean) auto
+     * flush} setting. UDP records are written as a datagram each.
+     * </p>
+     * <p>
+     * If the write fails the records of the group are written again once the connection has been re-established, the
+     * publishing threads wait until then. Records published while the connection is down also wait rather than being
+     * dropped, the handler does not fail fast in group commit mode. A record may therefore be received more than once. A record is only
+     * {@linkplain #getDroppedCount() dropped} if there is nothing to connect to, the handler is closed or the publishing
+     * thread is interrupted while waiting.
+     * </p>
+     *
+     * @param groupCommit {@code true} to enable group commit mode
+     */
+    public void setGroupCommit(final boolean groupCommit) {
+        checkAccess(this);
+        this.groupCommit = groupCommit;
+    }
+
+    private void publishGroupCommit(final ExtLogRecord record) {
+        PublishBuffer publishBuffer = buffers.get();
+        if (publishBuffer.inUse) {
+            publishBuffer = new PublishBuffer();
+        }
+        publishBuffer.inUse = true;
+        ByteBuffer buffer = publishBuffer.buffer;
+        try {
+            final Formatter formatter = getFormatter();
+            final GroupEntry entry;
+            if (formatter instanceof StructuredFormatter && ((StructuredFormatter) formatter).isUseDictionary()) {
+                // Records referencing a dictionary are formatted by the committing thread in the order they're written
+                record.copyAll();
+                entry = new GroupEntry(record);
+            } else {
+                buffer = encode(formatter, record, publishBuffer);
+                if (buffer == null || buffer.position() == 0) {
+                    return;
+                }
+                buffer.flip();
+                // The buffer is not released until the entry has been committed
+                entry = new GroupEntry(buffer);
+            }
+            pending.offer(entry);
+            synchronized (this) {
+                while (!entry.done) {
+                    if (out == null && reconnector != null && !initialize) {
+                        // Wait for the reconnector rather than dropping the record
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            if (pending.remove(entry) || retry.remove(entry)) {
+                                droppedCount.incrementAndGet();
+                            }
+                            break;
+                        }
+                    } else {
+                        commit();
+                    }
+                }
+            }
+        } finally {
+            publishBuffer.release(buffer == null ? publishBuffer.buffer : buffer);
+        }
+    }
+
+    /**
+     * Writes and flushes the entries waiting to be retried and the queued group commit entries. The entries are only
+     * marked as done once flushed. If the write fails they are kept to be retried once reconnected. The handler must be
+     * locked.
+     */
+    private void commit() {
+        if (initialize) {
+            initialize();
+            initialize = false;
+        }
+        if (out == null) {
+            if (reconnector == null) {
+                // Nothing to connect to or closed, the records cannot be written
+                dropEntries();
+            }
+            return;
+        }
+        final Batch batch = commitBatch;
+        final int maxBatchBytes = this.maxBatchBytes;
+        final int maxBatchRecords = this.maxBatchRecords;
+        final boolean datagram = (protocol == Protocol.UDP);
+        boolean written = false;
+        boolean failed = false;
+        try {
+            GroupEntry entry;
+            while ((entry = nextEntry()) != null) {
+                committed.add(entry);
+                if (entry.payload instanceof ExtLogRecord) {
+                    ByteBuffer buffer = null;
+                    try {
+                        buffer = encode(getFormatter(), (ExtLogRecord) entry.payload, commitBuffer);
+                        if (buffer != null && buffer.position() > 0) {
+                            buffer.flip();
+                            addEntry(batch, buffer, datagram, maxBatchBytes, maxBatchRecords);
+                        }
+                    } finally {
+                        commitBuffer.release(buffer == null ? commitBuffer.buffer : buffer);
+                    }
+                } else {
+                    final ByteBuffer buffer = (ByteBuffer) entry.payload;
+                    addEntry(batch, buffer, datagram, maxBatchBytes, maxBatchRecords);
+                    // The entry may need to be written again
+                    buffer.rewind();
+                }
+            }
+            if (batch.records > 0) {
+                write(out, batch.buffer);
+            }
+            out.flush();
+            written = true;
+        } catch (IOException e) {
+            writeFailed(e);
+            failed = true;
+        } catch (Exception e) {
+            reportError("Error writing log message", e, ErrorManager.WRITE_FAILURE);
+        } finally {
+            batch.reset(maxBatchBytes);
+            if (!failed) {
+                for (GroupEntry entry : committed) {
+                    if (!written) {
+                        // Not a connection failure, writing the entries again would fail the same way
+                        droppedCount.incrementAndGet();
+                    }
+                    entry.done = true;
+                }
+            } else {
+                // Retried in the same order before any entry queued since
+                for (int i = committed.size() - 1; i >= 0; i--) {
+                    retry.addFirst(committed.get(i));
+                }
+            }
+            committed.clear();
+        }
+    }
+
+    /**
+     * Adds an encoded group commit entry to the batch, writing the batch if it's full. UDP records are written as a
+     * datagram each. The handler must be locked.
+     */
+    private void addEntry(final Batch batch, final ByteBuffer buffer, final boolean datagram, final int maxBatchBytes,
+                          final int maxBatchRecords) throws IOException {
+        if (datagram) {
+            writeRecord(out, buffer);
+        } else if (batch.add(buffer, maxBatchBytes, maxBatchRecords)) {
+            write(out, batch.buffer);
+            batch.reset(maxBatchBytes);
+        }
+    }
+
+    private GroupEntry nextEntry() {
+        final GroupEntry entry = retry.pollFirst();
+        return (entry == null ? pending.poll() : entry);
+    }
+
+    /**
+     * Releases the threads waiting on group commit entries which cannot be written. The handler must be locked.
+     */
+    private void dropEntries() {
+        GroupEntry entry;
+        while ((entry = nextEntry()) != null) {
+            droppedCount.incrementAndGet();
+            entry.done = true;
+        }
+    }
+
+    private void publishAsync(final ExtLogRecord record) {
+        AsyncWriter writer;
+        while ((writer = asyncWriter.get()) == null) {
+            // Only the thread which installs the writer starts it
+            final AsyncWriter created = new AsyncWriter(queueLength);
+            if (asyncWriter.compareAndSet(null, created)) {
+                created.start();
+                if (closed || !async) {
+                    // The handler was closed or made synchronous after async was read, nothing else stops this writer
+                    asyncWriter.compareAndSet(created, null);
+                    created.stop();
+                    if (closed) {
+                        droppedCount.incrementAndGet();
+                    } else {
+                        doPublish(record);
+                    }
+                    return;
+                }
+                writer = created;
+                break;
+            }
+        }
+        final Formatter formatter = getFormatter();
+        final Object element;
+        if (formatter instanceof StructuredFormatter && ((StructuredFormatter) formatter).isUseDictionary()) {
+            // Records referencing a dictionary are formatted by the writer thread in the order they're written
+            record.copyAll();
+            element = record;
+        } else {
+            element = encodeToBuffer(formatter, record, writer);
+            if (element == null) {
+                return;
+            }
+        }
+        writer.enqueue(element, record.getLevel().intValue());
+    }
+
+    /**
+     * Encodes the record for the writer. The encoded buffer is handed to the writer and the publishing thread continues
+     * with a buffer the writer has already written.
+     *
+     * @return the encoded record, ready to be read, or {@code null} if there is nothing to write
+     */
+    private ByteBuffer encodeToBuffer(final Formatter formatter, final ExtLogRecord record, final AsyncWriter writer) {
+        PublishBuffer publishBuffer = buffers.get();
+        if (publishBuffer.inUse) {
+            publishBuffer = new PublishBuffer();
+        }
+        publishBuffer.inUse = true;
+        ByteBuffer buffer = null;
+        try {
+            buffer = encode(formatter, record, publishBuffer);
+            if (buffer == null || buffer.position() == 0) {
+                return null;
+            }
+            final ByteBuffer encoded = buffer;
+            encoded.flip();
+            buffer = writer.takeBuffer();
+            return encoded;
+        } finally {
+            publishBuffer.release(buffer == null ? publishBuffer.buffer : buffer);
+        }
+    }
+
+    private void stopAsyncWriter() {
+        final AsyncWriter writer = asyncWriter.getAndSet(null);
+        if (writer != null) {
+            writer.stop();
+        }
+    }
+
+    /**
+     * Closes the current connection and connects with the current settings. If the connection fails the reconnector
+     * is started. The handler must be locked.
+     */
+    private void initialize() {
+        final OutputStream current = this.out;
+        stopReconnector();
+        this.out = null;
+        try {
+            if (current != null) {
+                writeTail(current);
+                safeFlush(current);
+            }
+        } finally {
+            safeClose(current);
+        }
+        final Endpoint endpoint = endpoint();
+        if (endpoint == null) {
+            return;
+        }
+        try {
+            connected(endpoint.connect());
+        } catch (IOException e) {
+            reportError("Failed to create socket output stream", e, ErrorManager.OPEN_FAILURE);
+            startReconnector();
+        }
+    }
+
+    /**
+     * Uses the new connection. The handler must be locked.
+     */
+    private void connected(final OutputStream out) {
+        // Channels handle interrupts themselves
+        this.out = (out instanceof ChannelOutputStream ? out : new InterruptSafeOutputStream(out));
+        available = true;
+        writeHead(this.out);
+        // Wakes the group commit threads waiting for the connection
+        notifyAll();
+    }
+
+    /**
+     * Closes the failed connection and starts the reconnector. The handler must be locked.
+     */
+    private void writeFailed(final IOException e) {
+        reportError("Error writing log message", e, ErrorManager.WRITE_FAILURE);
+        safeClose(out);
+        out = null;
+        startReconnector();
+    }
+
+    /**
+     * Requests a new connection with the changed settings on the next publish. If the handler is failing fast the next
+     * publish connects rather than waiting for the reconnector. The handler must be locked.
+     */
+    private void reconfigure() {
+        initialize = true;
+        available = true;
+        notifyAll();
+    }
+
+    private void startReconnector() {
+        available = false;
+        if (reconnector == null) {
+            reconnector = new Reconnector();
+            reconnector.thread.start();
+        }
+    }
+
+    private void stopReconnector() {
+        final Reconnector reconnector = this.reconnector;
+        if (reconnector != null) {
+            this.reconnector = null;
+            LockSupport.unpark(reconnector.thread);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Captures the current connection settings. The handler must be locked.
+     *
+     * @return the endpoint or {@code null} if there is nothing to connect to
+     */
+    private Endpoint endpoint() {
+        if (address != null || port >= 0) {
+            return new Endpoint(this);
+        }
+        return null;
+    }
+
+    /**
+     * Encodes the record into the publish buffer.
+     *
+     * @return the buffer the record was encoded into or {@code null} if the record could not be formatted
+     */
+    private ByteBuffer encode(final Formatter formatter, final ExtLogRecord record, final PublishBuffer publishBuffer) {
+        try {
+            return encodeRecord(formatter, record, publishBuffer);
+        } catch (Exception e) {
+            reportError("Could not format message", e, ErrorManager.FORMAT_FAILURE);
+            return null;
+        }
+    }
+
+    private ByteBuffer encodeRecord(final Formatter formatter, final ExtLogRecord record, final PublishBuffer publishBuffer) throws IOException {
+        final Charset charset = this.charset;
+        final ByteBuffer buffer = publishBuffer.buffer;
+        if (formatter instanceof RecordEncoder && StandardCharsets.UTF_8.equals(charset)) {
+            return ((RecordEncoder) formatter).encode(record, buffer);
+        }
+        if (formatter instanceof StructuredFormatter) {
+            final StringBuilder chars = publishBuffer.chars;
+            ((StructuredFormatter) formatter).formatTo(record, chars);
+            return encode(chars, publishBuffer.getEncoder(charset), buffer);
+        }
+        return encode(formatter.format(record), publishBuffer.getEncoder(charset), buffer);
+    }
+
+    private void writeHead(final OutputStream out) {
+        try {
+            final Formatter formatter = getFormatter();
+            if (formatter != null) out.write(formatter.getHead(this).getBytes(charset));
+        } catch (Exception e) {
+            reportError("Error writing section header", e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    private void writeTail(final OutputStream out) {
+        try {
+            final Formatter formatter = getFormatter();
+            if (formatter != null) out.write(formatter.getTail(this).getBytes(charset));
+        } catch (Exception ex) {
+            reportError("Error writing section tail", ex, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    private void safeClose(Closeable c) {
+        try {
+            if (c != null) c.close();
+        } catch (Exception e) {
+            reportError("Error closing resource", e, ErrorManager.CLOSE_FAILURE);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    private void safeFlush(Flushable f) {
+        try {
+            if (f != null) f.flush();
+        } catch (Exception e) {
+            reportError("Error on flush", e, ErrorManager.FLUSH_FAILURE);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    private static void write(final OutputStream out, final ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+        } else {
+            final byte[] bytes = new byte[buffer.position()];
+            buffer.flip();
+            buffer.get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer in a single write.
+     */
+    private static void writeRecord(final OutputStream out, final ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    private static ByteBuffer encode(final CharSequence chars, final CharsetEncoder encoder, final ByteBuffer buffer) throws CharacterCodingException {
+        final CharBuffer in = CharBuffer.wrap(chars);
+        ByteBuffer result = buffer;
+        encoder.reset();
+        CoderResult coderResult;
+        while ((coderResult = encoder.encode(in, result, true)).isOverflow()) {
+            result = grow(result, (int) (in.remaining() * encoder.maxBytesPerChar()));
+        }
+        if (coderResult.isError()) {
+            coderResult.throwException();
+        }
+        while (encoder.flush(result).isOverflow()) {
+            result = grow(result, (int) encoder.maxBytesPerChar());
+        }
+        return result;
+    }
+
+    private static ByteBuffer grow(final ByteBuffer buffer, final int required) {
+        final int size = Math.max(buffer.capacity() << 1, buffer.position() + required);
+        final ByteBuffer result = ByteBuffer.allocate(size);
+        buffer.flip();
+        result.put(buffer);
+        return result;
+    }
+
+    /**
+     * Writes the queued records to the socket on a dedicated thread.
+     */
+    private class AsyncWriter implements Runnable {
+        private final RingBuffer<Object> queue;
+        // The encoded record buffers the writer has finished with, reused by the publishing threads
+        private final RingBuffer<ByteBuffer> freeBuffers;
+        private final Thread thread;
+        private final PublishBuffer publishBuffer = new PublishBuffer();
+        private volatile boolean waiting;
+        private volatile boolean stopped;
+        volatile boolean flushRequested;
+        private long reportedCount;
+        private final Batch batch = new Batch();
+        private long adaptedLinger = Long.MAX_VALUE;
+
+        AsyncWriter(final int queueLength) {
+            queue = new RingBuffer<>(queueLength);
+            freeBuffers = new RingBuffer<>(queueLength);
+            thread = new Thread(this, "SocketHandler Writer " + address + ":" + port);
+            thread.setDaemon(true);
+        }
+
+        void start() {
+            reportedCount = droppedCount.get();
+            thread.start();
+        }
+
+        /**
+         * Adds the element to the queue applying the overflow policy if the queue is full.
+         */
+        void enqueue(final Object element, final int level) {
+            if (!queue.offer(element)) {
+                final OverflowPolicy overflowPolicy = SocketHandler.this.overflowPolicy;
+                if (overflowPolicy == OverflowPolicy.DROP_NEW
+                        || (overflowPolicy == OverflowPolicy.DROP_BELOW_LEVEL && level < overflowLevel.intValue())) {
+                    droppedCount.incrementAndGet();
+                    return;
+                }
+                if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                    do {
+                        final Object dropped = queue.poll();
+                        if (dropped != null) {
+                            droppedCount.incrementAndGet();
+                            recycle(dropped);
+                        }
+                    } while (!queue.offer(element));
+                } else {
+                    do {
+                        if (stopped) {
+                            droppedCount.incrementAndGet();
+                            return;
+                        }
+                        signal();
+                        LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                    } while (!queue.offer(element));
+                }
+            }
+            signal();
+        }
+
+        /**
+         * Returns a buffer to encode the next record into, reusing a buffer which has been written if there is one.
+         */
+        ByteBuffer takeBuffer() {
+            final ByteBuffer buffer = freeBuffers.poll();
+            return (buffer == null ? ByteBuffer.allocate(INITIAL_CAPACITY) : buffer);
+        }
+
+        /**
+         * Returns a written, or dropped, buffer to the pool unless it's grown larger than should be retained.
+         */
+        void recycle(final Object element) {
+            if (element instanceof ByteBuffer) {
+                final ByteBuffer buffer = (ByteBuffer) element;
+                if (buffer.capacity() <= MAX_RETAINED_CAPACITY) {
+                    buffer.clear();
+                    freeBuffers.offer(buffer);
+                }
+            }
+        }
+
+        void signal() {
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        /**
+         * Stops the writer once the queued records have been written, waiting a bounded amount of time for the
+         * writer thread to complete.
+         */
+        void stop() {
+            stopped = true;
+            LockSupport.unpark(thread);
+            if (thread != Thread.currentThread()) {
+                try {
+                    thread.join(STOP_TIMEOUT);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            long lastReport = System.nanoTime();
+            for (;;) {
+                final Object element = queue.poll();
+                if (element != null) {
+                    append(element);
+                }
+                final long interval = droppedReportInterval;
+                if (interval > 0L && System.nanoTime() - lastReport >= TimeUnit.MILLISECONDS.toNanos(interval)) {
+                    lastReport = System.nanoTime();
+                    reportDropped();
+                }
+                if (element != null) {
+                    continue;
+                }
+                // The queue is empty, send the batch unless lingering for more records
+                final boolean flush = flushRequested;
+                if (flush) {
+                    flushRequested = false;
+                }
+                long parkNanos = IDLE_PARK_NANOS;
+                if (batch.records > 0) {
+                    final long remaining = linger() - (System.nanoTime() - batch.start);
+                    if (remaining <= 0L || flush || stopped) {
+                        send();
+                    } else {
+                        parkNanos = Math.min(parkNanos, remaining);
+                    }
+                }
+                if (flush) {
+                    synchronized (SocketHandler.this) {
+                        safeFlush(out);
+                    }
+                }
+                if (stopped) {
+                    if (queue.isEmpty()) {
+                        reportDropped();
+                        send();
+                        break;
+                    }
+                    continue;
+                }
+                waiting = true;
+                if (queue.isEmpty() && !stopped && !flushRequested) {
+                    LockSupport.parkNanos(this, parkNanos);
+                }
+                waiting = false;
+            }
+        }
+
+        /**
+         * Adds a queued record to the batch, sending the batch if the maximum number of bytes or records is reached.
+         */
+        private void append(final Object element) {
+            try {
+                synchronized (SocketHandler.this) {
+                    if (initialize) {
+                        // The batch belongs to the current connection
+                        sendBatch();
+                        initialize();
+                        initialize = false;
+                    }
+                    if (out == null) {
+                        if (!available) {
+                            droppedCount.incrementAndGet();
+                        }
+                        return;
+                    }
+                    if (element instanceof ExtLogRecord) {
+                        ByteBuffer buffer = null;
+                        try {
+                            buffer = encode(getFormatter(), (ExtLogRecord) element, publishBuffer);
+                            if (buffer != null && buffer.position() > 0) {
+                                buffer.flip();
+                                append(buffer);
+                            }
+                        } finally {
+                            publishBuffer.release(buffer == null ? publishBuffer.buffer : buffer);
+                        }
+                    } else {
+                        final ByteBuffer buffer = (ByteBuffer) element;
+                        try {
+                            append(buffer);
+                        } finally {
+                            recycle(buffer);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                reportError("Error writing log message", e, ErrorManager.WRITE_FAILURE);
+            }
+        }
+
+        /**
+         * Adds the encoded record to the batch. A UDP record is sent on its own, the receiver expects a record per
+         * datagram. The handler must be locked.
+         */
+        private void append(final ByteBuffer buffer) {
+            if (protocol == Protocol.UDP) {
+                try {
+                    writeRecord(out, buffer);
+                } catch (IOException e) {
+                    writeFailed(e);
+                }
+            } else if (batch.add(buffer, maxBatchBytes, maxBatchRecords)) {
+                sendBatch();
+            }
+        }
+
+        private void send() {
+            synchronized (SocketHandler.this) {
+                sendBatch();
+            }
+        }
+
+        /**
+         * Writes and flushes the batch. The handler must be locked.
+         */
+        private void sendBatch() {
+            if (batch.records == 0) {
+                return;
+            }
+            try {
+                if (out != null) {
+                    write(out, batch.buffer);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                writeFailed(e);
+            } finally {
+                adaptLinger();
+                batch.reset(maxBatchBytes);
+            }
+        }
+
+        /**
+         * Returns the time, in nanoseconds, to wait for more records before sending a batch.
+         */
+        private long linger() {
+            final long linger = TimeUnit.MILLISECONDS.toNanos(lingerTime);
+            if (!adaptiveLinger) {
+                return linger;
+            }
+            if (adaptedLinger > linger) {
+                adaptedLinger = linger;
+            }
+            return adaptedLinger;
+        }
+
+        /**
+         * A batch of a single record means waiting did not collect any more records, so the linger time is halved.
+         * Otherwise it's doubled, up to the configured linger time.
+         */
+        private void adaptLinger() {
+            if (!adaptiveLinger) {
+                return;
+            }
+            if (batch.records <= 1) {
+                adaptedLinger = (adaptedLinger >> 1 < MIN_ADAPTIVE_LINGER_NANOS ? 0L : adaptedLinger >> 1);
+            } else {
+                adaptedLinger = Math.min(TimeUnit.MILLISECONDS.toNanos(lingerTime), Math.max(adaptedLinger << 1, MIN_ADAPTIVE_LINGER_NANOS));
+            }
+        }
+
+        private void reportDropped() {
+            if (!available) {
+                // Reported once connected, the report itself would otherwise be dropped
+                return;
+            }
+            final long count = droppedCount.get();
+            final long dropped = count - reportedCount;
+            if (dropped > 0L) {
+                reportedCount = count;
+                final ExtLogRecord record = new ExtLogRecord(org.jboss.logmanager.Level.WARN,
+                        "%d log records were dropped", FormatStyle.PRINTF, SocketHandler.class.getName());
+                record.setParameters(new Object[] {dropped});
+                record.setLoggerName(SocketHandler.class.getName());
+                record.disableCallerCalculation();
+                append(record);
+            }
+        }
+    }
+
+    /**
+     * The settings used to create a connection, captured so the connection can be created without locking the handler.
+     */
+    private static class Endpoint {
+        private final Protocol protocol;
+        private final InetAddress address;
+        private final int port;
+        private final boolean useChannel;
+        private final boolean tcpNoDelay;
+        private final boolean keepAlive;
+        private final int sendBufferSize;
+        private final int connectTimeout;
+        private final int writeTimeout;
+
+        Endpoint(final SocketHandler handler) {
+            protocol = handler.protocol;
+            address = handler.address;
+            port = handler.port;
+            useChannel = handler.useChannel;
+            tcpNoDelay = handler.tcpNoDelay;
+            keepAlive = handler.keepAlive;
+            sendBufferSize = handler.sendBufferSize;
+            connectTimeout = handler.connectTimeout;
+            writeTimeout = handler.writeTimeout;
+        }
+
+        OutputStream connect() throws IOException {
+            if (protocol == Protocol.UDP) {
+                if (useChannel) {
+                    return ChannelOutputStream.openUdp(address, port, sendBufferSize, writeTimeout);
+                }
+                return new UdpOutputStream(address, port);
+            }
+            if (useChannel && protocol == Protocol.TCP) {
+                return ChannelOutputStream.openTcp(address, port, tcpNoDelay, keepAlive, sendBufferSize, connectTimeout, writeTimeout);
+            }
+            final InetSocketAddress endpoint = new InetSocketAddress(address, port);
+            Socket socket = new Socket();
+            boolean okay = false;
+            try {
+                socket.setTcpNoDelay(tcpNoDelay);
+                socket.setKeepAlive(keepAlive);
+                if (sendBufferSize > 0) {
+                    socket.setSendBufferSize(sendBufferSize);
+                }
+                socket.connect(endpoint, connectTimeout);
+                if (protocol == Protocol.SSL_TCP) {
+                    final SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                            .createSocket(socket, endpoint.getHostString(), port, true);
+                    socket = sslSocket;
+                    // Bound the handshake by the connect timeout as well
+                    sslSocket.setSoTimeout(connectTimeout);
+                    sslSocket.startHandshake();
+                    sslSocket.setSoTimeout(0);
+                }
+                final OutputStream out = socket.getOutputStream();
+                okay = true;
+                return out;
+            } finally {
+                if (!okay) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reconnects on a background thread after a connection failed, waiting an exponentially increasing time with
+     * jitter between the attempts.
+     */
+    private class Reconnector implements Runnable {
+        final Thread thread;
+
+        Reconnector() {
+            thread = new Thread(this, "SocketHandler Reconnector " + address + ":" + port);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int attempt = 0;
+            for (;;) {
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff(attempt++));
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0L) {
+                    LockSupport.parkNanos(this, remaining);
+                    if (!isCurrent()) {
+                        return;
+                    }
+                }
+                final Endpoint endpoint;
+                synchronized (SocketHandler.this) {
+                    if (reconnector != this) {
+                        return;
+                    }
+                    endpoint = endpoint();
+                }
+                if (endpoint == null) {
+                    continue;
+                }
+                final OutputStream out;
+                try {
+                    out = endpoint.connect();
+                } catch (IOException ignore) {
+                    // The failure which started the reconnector has been reported
+                    continue;
+                }
+                synchronized (SocketHandler.this) {
+                    if (reconnector == this) {
+                        reconnector = null;
+                        connected(out);
+                        return;
+                    }
+                }
+                // The handler was closed or reinitialized while connecting
+                safeClose(out);
+                return;
+            }
+        }
+
+        private boolean isCurrent() {
+            synchronized (SocketHandler.this) {
+                return reconnector == this;
+            }
+        }
+
+        /**
+         * The delay doubles for each attempt up to the maximum. A random delay of up to half is subtracted so handlers
+         * which lost the same connection don't reconnect at the same time.
+         */
+        private long backoff(final int attempt) {
+            final long max = maxReconnectDelay;
+            long delay = reconnectDelay << Math.min(attempt, 30);
+            if (delay <= 0L || delay > max) {
+                delay = max;
+            }
+            final long half = delay >> 1;
+            return delay - half + ThreadLocalRandom.current().nextLong(half + 1L);
+        }
+    }
+
+    /**
+     * Encoded records collected to be sent with a single write.
+     */
+    private static class Batch {
+        ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        int records;
+        long start;
+
+        /**
+         * Adds an encoded record to the batch.
+         *
+         * @return {@code true} if the maximum bytes or records has been reached and the batch should be sent
+         */
+        boolean add(final ByteBuffer src, final int maxBytes, final int maxRecords) {
+            if (buffer.remaining() < src.remaining()) {
+                buffer = grow(buffer, src.remaining());
+            }
+            buffer.put(src);
+            if (records++ == 0) {
+                start = System.nanoTime();
+            }
+            return buffer.position() >= maxBytes || records >= maxRecords;
+        }
+
+        void reset(final int maxBytes) {
+            records = 0;
+            buffer.clear();
+            // A batch may grow past the maximum bytes by a single record
+            if (buffer.capacity() > Math.max((long) MAX_RETAINED_CAPACITY, (long) maxBytes << 1)) {
+                buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+            }
+        }
+    }
+
+    /**
+     * A record waiting to be written by a group commit.
+     */
+    private static class GroupEntry {
+        // Either the encoded record or a record to be encoded by the thread committing the group
+        final Object payload;
+        boolean done;
+
+        GroupEntry(final Object payload) {
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * The buffer a thread encodes records into before they are written.
+     */
+    private static class PublishBuffer {
+        ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        final StringBuilder chars = new StringBuilder(INITIAL_CAPACITY);
+        boolean inUse;
+        private CharsetEncoder encoder;
+
+        CharsetEncoder getEncoder(final Charset charset) {
+            CharsetEncoder encoder = this.encoder;
+            if (encoder == null || !encoder.charset().equals(charset)) {
+                encoder = charset.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                this.encoder = encoder;
+            }
+            return encoder;
+        }
+
+        void release(final ByteBuffer buffer) {
+            buffer.clear();
+            // Keep the largest buffer unless it's grown larger than should be retained
+            this.buffer = (buffer.capacity() > MAX_RETAINED_CAPACITY ? ByteBuffer.allocate(INITIAL_CAPACITY) : buffer);
+            chars.setLength(0);
+            if (chars.capacity() > MAX_RETAINED_CAPACITY) {
+                chars.trimToSize();
+            }
+            inUse = false;
         }
     }
 }
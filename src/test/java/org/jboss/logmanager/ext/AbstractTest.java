@@ -19,6 +19,7 @@
 
 package org.jboss.logmanager.ext;
 
+import java.lang.ref.Reference;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -50,6 +51,15 @@ public abstract class AbstractTest {
         return record;
     }
 
+    protected static Throwable createException(final String message) {
+        final Throwable cause = new IllegalStateException("Cause of " + message);
+        final Throwable result = new RuntimeException(message, cause);
+        result.addSuppressed(new IllegalArgumentException("Suppressed"));
+        // Creates a circular reference
+        cause.addSuppressed(result);
+        return result;
+    }
+
     protected static void compareMaps(final Map<String, String> m1, final Map<String, String> m2) {
         String failureMessage = String.format("Keys did not match%n%s%n%s%n", m1.keySet(), m2.keySet());
         Assert.assertTrue(failureMessage, m1.keySet().containsAll(m2.keySet()));
@@ -57,6 +67,14 @@ public abstract class AbstractTest {
         Assert.assertTrue(failureMessage, m1.values().containsAll(m2.values()));
     }
 
+    protected static void assertCollected(final Reference<?> reference) throws InterruptedException {
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20L);
+        }
+        Assert.assertNull("Expected the referent to be garbage collected", reference.get());
+    }
+
     public static class MapBuilder<K, V> {
         private final Map<K, V> result;
 
@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.util.Map;
+
+import org.jboss.logmanager.ext.formatters.StructuredFormatter.Generator;
+
+/**
+ * A generator which delegates to a built-in generator without supporting values appended in pieces or fragments, so
+ * every value is built and then added the way a custom generator receives it.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+class BufferedGenerator extends Generator {
+    private final Generator delegate;
+
+    BufferedGenerator(final Generator delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Generator begin() throws Exception {
+        delegate.begin();
+        return this;
+    }
+
+    @Override
+    public Generator add(final String key, final int value) throws Exception {
+        delegate.add(key, value);
+        return this;
+    }
+
+    @Override
+    public Generator add(final String key, final long value) throws Exception {
+        delegate.add(key, value);
+        return this;
+    }
+
+    @Override
+    public Generator add(final String key, final Map<String, ?> value) throws Exception {
+        delegate.add(key, value);
+        return this;
+    }
+
+    @Override
+    public Generator add(final String key, final String value) throws Exception {
+        delegate.add(key, value);
+        return this;
+    }
+
+    @Override
+    public Generator add(final String key, final CharSequence value) throws Exception {
+        delegate.add(key, value);
+        return this;
+    }
+
+    @Override
+    public Generator addValue(final String key, final Object value) throws Exception {
+        delegate.addValue(key, value);
+        return this;
+    }
+
+    @Override
+    public Generator addMetaData(final Map<String, String> metaData) throws Exception {
+        delegate.addMetaData(metaData);
+        return this;
+    }
+
+    @Override
+    public Generator startObject(final String key) throws Exception {
+        delegate.startObject(key);
+        return this;
+    }
+
+    @Override
+    public Generator endObject() throws Exception {
+        delegate.endObject();
+        return this;
+    }
+
+    @Override
+    public Generator startArray(final String key) throws Exception {
+        delegate.startArray(key);
+        return this;
+    }
+
+    @Override
+    public Generator endArray() throws Exception {
+        delegate.endArray();
+        return this;
+    }
+
+    @Override
+    public Generator addAttribute(final String name, final int value) throws Exception {
+        delegate.addAttribute(name, value);
+        return this;
+    }
+
+    @Override
+    public Generator addAttribute(final String name, final String value) throws Exception {
+        delegate.addAttribute(name, value);
+        return this;
+    }
+
+    @Override
+    public Generator end() throws Exception {
+        delegate.end();
+        return this;
+    }
+
+    @Override
+    public boolean wrapArrays() {
+        return delegate.wrapArrays();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.ext.AbstractTest;
+import org.jboss.logmanager.ext.formatters.StructuredFormatter.Key;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class CachedDateFormatTest extends AbstractTest {
+
+    @Test
+    public void testPatterns() {
+        compare(StructuredFormatter.DEFAULT_DATE_FORMAT);
+        compare("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+        compare("yyyy-MM-dd HH:mm:ss,SSSS Z");
+        compare("HH:mm:ss.S");
+        compare("EEE, d MMM yyyy HH:mm:ss.SS a zzz");
+        compare("'ms='SSS' literal 987'");
+        compare("yyyyMMdd");
+    }
+
+    @Test
+    public void testVariableWidthFields() {
+        // Fields before the milliseconds which change width across hours and days
+        final String[] patterns = {"H:mm:ss.SSS", "d HH:mm:ss.SSS", "EEEE HH:mm:ss.SSS", "h:mm:ss.SSS a", "MMMM d, H:mm:ss,SSS"};
+        final Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2019, Calendar.SEPTEMBER, 28, 0, 0, 0);
+        final long base = calendar.getTimeInMillis();
+        final long[] offsets = {-1000L, -1L, 0L, 9L, 217L, 999L};
+        for (String pattern : patterns) {
+            final CachedDateFormat cachedDateFormat = new CachedDateFormat(pattern);
+            final SimpleDateFormat expectedFormat = new SimpleDateFormat(pattern);
+            final StringBuilder builder = new StringBuilder();
+            // Every hour across the end of a month, forwards then backwards
+            for (int hour = -48; hour <= 96; hour++) {
+                for (long offset : offsets) {
+                    compare(cachedDateFormat, expectedFormat, builder, base + hour * 3_600_000L + offset);
+                }
+            }
+            for (int hour = 96; hour >= -48; hour -= 5) {
+                compare(cachedDateFormat, expectedFormat, builder, base + hour * 3_600_000L + 17L);
+            }
+        }
+    }
+
+    private static void compare(final CachedDateFormat cachedDateFormat, final SimpleDateFormat expectedFormat,
+                                final StringBuilder builder, final long millis) {
+        final String expected = expectedFormat.format(new Date(millis));
+        Assert.assertEquals(expected, cachedDateFormat.format(millis));
+        builder.setLength(0);
+        cachedDateFormat.formatTo(millis, builder);
+        Assert.assertEquals(expected, builder.toString());
+    }
+
+    private static void compare(final String pattern) {
+        final CachedDateFormat cachedDateFormat = new CachedDateFormat(pattern);
+        final SimpleDateFormat expectedFormat = new SimpleDateFormat(pattern);
+        Assert.assertEquals(pattern, cachedDateFormat.toPattern());
+        final StringBuilder builder = new StringBuilder();
+        final long start = System.currentTimeMillis();
+        // Walk forwards and backwards across second boundaries
+        final long[] offsets = {0L, 1L, 7L, 999L, 1000L, 1001L, 1999L, 61_000L, -1L, -999L, -1000L, 3_600_000L};
+        for (long offset : offsets) {
+            final long millis = start + offset;
+            final String expected = expectedFormat.format(new Date(millis));
+            Assert.assertEquals(expected, cachedDateFormat.format(millis));
+            builder.setLength(0);
+            cachedDateFormat.formatTo(millis, builder);
+            Assert.assertEquals(expected, builder.toString());
+        }
+        for (long millis = start; millis < start + 2500L; millis += 13L) {
+            final String expected = expectedFormat.format(new Date(millis));
+            builder.setLength(0);
+            cachedDateFormat.formatTo(millis, builder);
+            Assert.assertEquals(expected, builder.toString());
+        }
+        Assert.assertEquals(expectedFormat.format(new Date(0L)), cachedDateFormat.format(0L));
+        Assert.assertEquals(expectedFormat.format(new Date(-1L)), cachedDateFormat.format(-1L));
+    }
+
+    @Test
+    public void testFormat() throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        final ExtLogRecord record = createLogRecord("Test date format");
+        record.setMillis(1_500_000_000_123L);
+        Assert.assertEquals(new SimpleDateFormat(StructuredFormatter.DEFAULT_DATE_FORMAT).format(new Date(record.getMillis())),
+                read(formatter.format(record)).getString(Key.TIMESTAMP.getKey()));
+
+        // The date format held by the thread must be replaced once the pattern changes
+        formatter.setDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+        Assert.assertEquals(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS").format(new Date(record.getMillis())),
+                read(formatter.format(record)).getString(Key.TIMESTAMP.getKey()));
+        try {
+            formatter.setDateFormat("invalid");
+            Assert.fail("Expected the pattern to be rejected");
+        } catch (IllegalArgumentException ignore) {
+        }
+        Assert.assertEquals("yyyy-MM-dd HH:mm:ss,SSS", formatter.getDateFormat());
+
+        // Threads formatting records from different seconds must each render their own second
+        final int threadCount = 4;
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            final List<Future<Void>> results = new ArrayList<>(threadCount);
+            for (int t = 0; t < threadCount; t++) {
+                final long base = record.getMillis() + t * 1_000L;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        final SimpleDateFormat expectedFormat = new SimpleDateFormat(formatter.getDateFormat());
+                        for (int i = 0; i < 500; i++) {
+                            final ExtLogRecord r = createLogRecord("Test date format");
+                            r.setMillis(base + (i % 2) * threadCount * 1_000L + i);
+                            Assert.assertEquals(expectedFormat.format(new Date(r.getMillis())),
+                                    read(formatter.format(r)).getString(Key.TIMESTAMP.getKey()));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static JsonObject read(final String json) {
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return reader.readObject();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.jboss.logmanager.ext.AbstractTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class CallSiteCacheTest extends AbstractTest {
+
+    @Test
+    public void testCache() {
+        final CallSiteCache cache = new CallSiteCache(2);
+        final StackTraceElement element = new StackTraceElement(Target.class.getName(), "call", "Target.java", 10);
+        Assert.assertNull(cache.get(Target.class, "call", 1));
+        cache.put(Target.class, "call", 1, element);
+        Assert.assertSame(element, cache.get(Target.class, "call", 1));
+        Assert.assertNull(cache.get(Target.class, "call", 2));
+        Assert.assertNull(cache.get(Target.class, "other", 1));
+        Assert.assertEquals(1L, cache.getHits());
+        Assert.assertEquals(3L, cache.getMisses());
+
+        // Once full new call sites are not cached
+        cache.put(Target.class, "call", 2, element);
+        cache.put(Target.class, "call", 3, element);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.get(Target.class, "call", 3));
+    }
+
+    @Test
+    public void testClassLoaders() throws Exception {
+        // Classes of the same name from different class loaders are different call sites
+        final CallSiteCache cache = new CallSiteCache(8);
+        final Class<?> first = loadTarget();
+        final Class<?> second = loadTarget();
+        Assert.assertEquals(first.getName(), second.getName());
+        Assert.assertNotSame(first, second);
+        final StackTraceElement element = new StackTraceElement(Target.class.getName(), "call", "Target.java", 10);
+        cache.put(first, "call", 1, element);
+        Assert.assertSame(element, cache.get(first, "call", 1));
+        Assert.assertNull(cache.get(second, "call", 1));
+        Assert.assertNull(cache.get(Target.class, "call", 1));
+    }
+
+    @Test
+    public void testClassUnloaded() throws Exception {
+        // The cache must not keep the class loader of a call site reachable
+        final CallSiteCache cache = new CallSiteCache(8);
+        assertCollected(cacheTarget(cache));
+        for (int i = 0; i < 50 && cache.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(20L);
+        }
+        Assert.assertEquals(0, cache.size());
+    }
+
+    private static WeakReference<ClassLoader> cacheTarget(final CallSiteCache cache) throws Exception {
+        final Class<?> type = loadTarget();
+        cache.put(type, "call", 1, new StackTraceElement(type.getName(), "call", "Target.java", 10));
+        Assert.assertEquals(1, cache.size());
+        return new WeakReference<>(type.getClassLoader());
+    }
+
+    private static Class<?> loadTarget() throws Exception {
+        final URL location = Target.class.getProtectionDomain().getCodeSource().getLocation();
+        // No parent so the class is defined by this class loader
+        final ClassLoader classLoader = new URLClassLoader(new URL[] {location}, null);
+        return Class.forName(Target.class.getName(), false, classLoader);
+    }
+
+    public static class Target {
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.io.StringReader;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.jboss.logmanager.ExtFormatter;
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.Level;
+import org.jboss.logmanager.ext.AbstractTest;
+import org.jboss.logmanager.ext.formatters.StructuredFormatter.Key;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class CallerResolverTest extends AbstractTest {
+
+    @Test
+    public void testResolve() {
+        if (!CallerResolver.isAvailable()) {
+            return;
+        }
+        final CallSiteCache cache = new CallSiteCache(8);
+        for (int i = 0; i < 2; i++) {
+            final ExtLogRecord record = new ExtLogRecord(Level.INFO, "Test caller", CallSite.class.getName());
+            final ExtLogRecord expected = new ExtLogRecord(Level.INFO, "Test caller", CallSite.class.getName());
+            CallSite.resolve(record, cache, expected);
+            Assert.assertEquals(expected.getSourceClassName(), record.getSourceClassName());
+            Assert.assertEquals(expected.getSourceMethodName(), record.getSourceMethodName());
+            Assert.assertEquals(expected.getSourceFileName(), record.getSourceFileName());
+            Assert.assertEquals(expected.getSourceLineNumber(), record.getSourceLineNumber());
+        }
+        Assert.assertEquals(1L, cache.getHits());
+        Assert.assertEquals(1L, cache.getMisses());
+
+        // A caller which has already been set is left as is
+        final ExtLogRecord record = new ExtLogRecord(Level.INFO, "Test caller", CallSite.class.getName());
+        record.setSourceClassName("org.jboss.Test");
+        CallSite.resolve(record, cache, record);
+        Assert.assertEquals("org.jboss.Test", record.getSourceClassName());
+        Assert.assertEquals(1L, cache.getHits());
+    }
+
+    @Test
+    public void testFormat() throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setPrintDetails(true);
+        // The record calculates the caller unless the stack walker is enabled
+        final ExtLogRecord defaultRecord = new ExtLogRecord(Level.INFO, "Test caller", CallSite.class.getName());
+        final ExtLogRecord defaultExpected = new ExtLogRecord(Level.INFO, "Test caller", CallSite.class.getName());
+        assertSource(defaultRecord, read(CallSite.format(formatter, defaultRecord, defaultExpected)));
+        Assert.assertEquals(defaultExpected.getSourceLineNumber(), defaultRecord.getSourceLineNumber());
+        Assert.assertEquals(0L, formatter.getCallSiteCacheMisses());
+
+        formatter.setUseStackWalker(true);
+        for (int i = 0; i < 3; i++) {
+            final ExtLogRecord record = new ExtLogRecord(Level.INFO, "Test caller " + i, CallSite.class.getName());
+            final ExtLogRecord expected = new ExtLogRecord(Level.INFO, "Test caller " + i, CallSite.class.getName());
+            final JsonObject json = read(CallSite.format(formatter, record, expected));
+            Assert.assertEquals(expected.getSourceClassName(), json.getString(Key.SOURCE_CLASS_NAME.getKey()));
+            Assert.assertEquals(expected.getSourceMethodName(), json.getString(Key.SOURCE_METHOD_NAME.getKey()));
+            Assert.assertEquals(expected.getSourceFileName(), json.getString(Key.SOURCE_FILE_NAME.getKey()));
+            Assert.assertEquals(expected.getSourceLineNumber(), json.getInt(Key.SOURCE_LINE_NUMBER.getKey()));
+            Assert.assertEquals(getClass().getName(), record.getSourceClassName());
+        }
+        if (CallerResolver.isAvailable()) {
+            Assert.assertEquals(2L, formatter.getCallSiteCacheHits());
+            Assert.assertEquals(1L, formatter.getCallSiteCacheMisses());
+        }
+
+        // A caller which has already been set should not be resolved
+        final ExtLogRecord record = createLogRecord("Test caller");
+        record.setSourceClassName("org.jboss.Test");
+        record.setSourceMethodName("test");
+        final JsonObject json = read(formatter.format(record));
+        Assert.assertEquals("org.jboss.Test", json.getString(Key.SOURCE_CLASS_NAME.getKey()));
+        Assert.assertEquals("test", json.getString(Key.SOURCE_METHOD_NAME.getKey()));
+
+        // The caller is unknown if the logger class is not on the stack
+        formatter.setCallSiteCacheSize(0);
+        final ExtLogRecord unknown = new ExtLogRecord(Level.INFO, "Test caller", "org.jboss.Unknown");
+        assertSource(unknown, read(formatter.format(unknown)));
+        Assert.assertEquals("<unknown>", unknown.getSourceClassName());
+        Assert.assertEquals(0L, formatter.getCallSiteCacheMisses());
+    }
+
+    private static void assertSource(final ExtLogRecord record, final JsonObject json) {
+        Assert.assertEquals(record.getSourceClassName(), json.getString(Key.SOURCE_CLASS_NAME.getKey()));
+        Assert.assertEquals(record.getSourceMethodName(), json.getString(Key.SOURCE_METHOD_NAME.getKey()));
+        Assert.assertEquals(record.getSourceLineNumber(), json.getInt(Key.SOURCE_LINE_NUMBER.getKey()));
+    }
+
+    private static JsonObject read(final String json) {
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return reader.readObject();
+        }
+    }
+
+    /**
+     * Acts as the logger class, the caller of the records is the frame which invokes this class.
+     */
+    private static class CallSite {
+        static String format(final ExtFormatter formatter, final ExtLogRecord record, final ExtLogRecord expected) {
+            final String result = formatter.format(record);
+            expected.copyAll();
+            return result;
+        }
+
+        static void resolve(final ExtLogRecord record, final CallSiteCache cache, final ExtLogRecord expected) {
+            CallerResolver.resolve(record, cache);
+            expected.copyAll();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.io.StringReader;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.ext.AbstractTest;
+import org.jboss.logmanager.ext.formatters.StructuredFormatter.Key;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class DictionaryDecoderTest extends AbstractTest {
+
+    @Test
+    public void testDecode() throws Exception {
+        final JsonFormatter expectedFormatter = new JsonFormatter();
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setUseDictionary(true);
+        final DictionaryDecoder decoder = new DictionaryDecoder();
+        final ExtLogRecord record = createLogRecord("Test dictionary");
+        record.setLoggerName("org.jboss.logmanager.ext.test");
+        record.putMdc("testMdcKey", "testMdcValue");
+        record.setThrown(createException("Test Exception"));
+
+        // The first record defines the entries, the second only references them
+        final String first = formatter.format(record);
+        final String second = formatter.format(record);
+        final String expected = expectedFormatter.format(record);
+        Assert.assertTrue(read(first).containsKey(Key.DICTIONARY.getKey()));
+        Assert.assertFalse(read(second).containsKey(Key.DICTIONARY.getKey()));
+        Assert.assertTrue(second.length() < expected.length() / 2);
+        Assert.assertEquals(read(expected), read(decoder.decode(first)));
+        Assert.assertEquals(read(expected), read(decoder.decode(second)));
+
+        // The head starts a new dictionary
+        formatter.getHead(null);
+        final String head = formatter.format(record);
+        Assert.assertEquals(first, head);
+        try {
+            new DictionaryDecoder().decode(second);
+            Assert.fail("Expected the references to be undefined");
+        } catch (IllegalArgumentException ignore) {
+        }
+
+        // Values are written in full once the dictionary is full
+        formatter.setMaxDictionarySize(2);
+        final DictionaryDecoder fullDecoder = new DictionaryDecoder();
+        final JsonObject json = read(formatter.format(record));
+        Assert.assertEquals(2, json.getJsonArray(Key.DICTIONARY.getKey()).size());
+        Assert.assertEquals(read(expected), read(fullDecoder.decode(json.toString())));
+        Assert.assertEquals(read(expected), read(fullDecoder.decode(formatter.format(record))));
+    }
+
+    private static JsonObject read(final String json) {
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return reader.readObject();
+        }
+    }
+}
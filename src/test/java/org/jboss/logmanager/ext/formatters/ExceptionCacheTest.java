@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.ext.AbstractTest;
+import org.jboss.logmanager.ext.formatters.StructuredFormatter.Key;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class ExceptionCacheTest extends AbstractTest {
+
+    @Test
+    public void testCache() {
+        final ExceptionCache cache = new ExceptionCache(8);
+        final StackTraceElement[] frames = new RuntimeException().getStackTrace();
+        final ExceptionCache.Entry entry = cache.get(RuntimeException.class.getName(), frames);
+        // An equal stack trace of the same type shares the entry, another type does not
+        Assert.assertSame(entry, cache.get(RuntimeException.class.getName(), frames.clone()));
+        Assert.assertNotSame(entry, cache.get(IllegalStateException.class.getName(), frames));
+        Assert.assertNotSame(entry, cache.get(RuntimeException.class.getName(), new Throwable().getStackTrace()));
+        Assert.assertEquals(1L, cache.getHits());
+        Assert.assertEquals(3L, cache.getMisses());
+
+        for (int i = 0; i < frames.length; i++) {
+            Assert.assertEquals(frames[i].toString(), entry.getFormatted(i));
+            Assert.assertSame(entry.getFormatted(i), entry.getFormatted(i));
+        }
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final ExceptionCache cache = new ExceptionCache(2);
+        final String type = RuntimeException.class.getName();
+        final StackTraceElement[] first = {new StackTraceElement("org.jboss.Test", "first", "Test.java", 1)};
+        final StackTraceElement[] second = {new StackTraceElement("org.jboss.Test", "second", "Test.java", 2)};
+        final StackTraceElement[] third = {new StackTraceElement("org.jboss.Test", "third", "Test.java", 3)};
+        final ExceptionCache.Entry firstEntry = cache.get(type, first);
+        Thread.sleep(1L);
+        cache.get(type, second);
+        Thread.sleep(1L);
+        // Accessing the first entry makes the second the least recently used
+        Assert.assertSame(firstEntry, cache.get(type, first));
+        Thread.sleep(1L);
+        cache.get(type, third);
+        Assert.assertSame(firstEntry, cache.get(type, first));
+        final long misses = cache.getMisses();
+        cache.get(type, second);
+        Assert.assertEquals(misses + 1L, cache.getMisses());
+    }
+
+    @Test
+    public void testFormat() throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setExceptionOutputType(JsonFormatter.ExceptionOutputType.DETAILED_AND_FORMATTED);
+        final JsonFormatter uncachedFormatter = new JsonFormatter();
+        uncachedFormatter.setExceptionOutputType(JsonFormatter.ExceptionOutputType.DETAILED_AND_FORMATTED);
+        uncachedFormatter.setExceptionCacheSize(0);
+        for (boolean prettyPrint : new boolean[] {false, true, false}) {
+            formatter.setPrettyPrint(prettyPrint);
+            uncachedFormatter.setPrettyPrint(prettyPrint);
+            for (int i = 0; i < 3; i++) {
+                final ExtLogRecord record = createLogRecord("Test exception %d", i);
+                record.setThrown(createException("Test Exception " + i));
+                record.copyAll();
+                final String expected = uncachedFormatter.format(record);
+                Assert.assertEquals(expected, formatter.format(record));
+
+                // The formatted stack trace must be the same as printStackTrace()
+                final StringWriter writer = new StringWriter();
+                record.getThrown().printStackTrace(new PrintWriter(writer));
+                Assert.assertEquals(writer.toString(), read(expected).getString(Key.STACK_TRACE.getKey()));
+            }
+        }
+        Assert.assertTrue(formatter.getExceptionCacheHits() > 0L);
+        Assert.assertEquals(0L, uncachedFormatter.getExceptionCacheHits());
+        Assert.assertEquals(0L, uncachedFormatter.getExceptionCacheMisses());
+
+        // Each format looks up a single stack trace, the least recently used should be evicted
+        formatter.setExceptionOutputType(JsonFormatter.ExceptionOutputType.DETAILED);
+        formatter.setExceptionCacheSize(1);
+        final ExtLogRecord record1 = createLogRecord("Test exception 1");
+        record1.setThrown(new RuntimeException("Test Exception 1"));
+        final ExtLogRecord record2 = createLogRecord("Test exception 2");
+        record2.setThrown(new RuntimeException("Test Exception 2"));
+        formatter.format(record1);
+        formatter.format(record1);
+        formatter.format(record2);
+        formatter.format(record1);
+        Assert.assertEquals(1L, formatter.getExceptionCacheHits());
+        Assert.assertEquals(3L, formatter.getExceptionCacheMisses());
+    }
+
+    private static JsonObject read(final String json) {
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return reader.readObject();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import org.jboss.logmanager.ext.AbstractTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class ExceptionFingerprintTest extends AbstractTest {
+
+    @Test
+    public void testCompute() {
+        final Throwable[] exceptions = new Throwable[2];
+        for (int i = 0; i < exceptions.length; i++) {
+            exceptions[i] = createException("Test Exception " + i);
+        }
+        final String fingerprint = ExceptionFingerprint.compute(exceptions[0], 5);
+        Assert.assertEquals(16, fingerprint.length());
+        // The message is not part of the fingerprint
+        Assert.assertEquals(fingerprint, ExceptionFingerprint.compute(exceptions[1], 5));
+        // The types of the exception and its causes are
+        Assert.assertNotEquals(fingerprint, ExceptionFingerprint.compute(new IllegalStateException("Test Exception 0",
+                exceptions[0].getCause()), 0));
+        Assert.assertNotEquals(ExceptionFingerprint.compute(new RuntimeException(), 0),
+                ExceptionFingerprint.compute(new RuntimeException(new IllegalStateException()), 0));
+        // Only the top frames are included
+        final Throwable other = new RuntimeException("Test Exception 0", exceptions[0].getCause());
+        Assert.assertEquals(ExceptionFingerprint.compute(exceptions[0], 0), ExceptionFingerprint.compute(other, 0));
+        Assert.assertNotEquals(fingerprint, ExceptionFingerprint.compute(other, 5));
+    }
+}
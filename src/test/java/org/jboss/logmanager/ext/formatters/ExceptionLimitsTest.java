@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.io.StringReader;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.ext.AbstractTest;
+import org.jboss.logmanager.ext.formatters.StructuredFormatter.Key;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class ExceptionLimitsTest extends AbstractTest {
+
+    @Test
+    public void testNone() {
+        final ExceptionLimits limits = ExceptionLimits.NONE;
+        Assert.assertTrue(limits.isDepthAllowed(Integer.MAX_VALUE));
+        Assert.assertEquals(10, limits.getSuppressedCount(10));
+        Assert.assertFalse(limits.isExcluded(new StackTraceElement("org.junit.Assert", "fail", "Assert.java", 1)));
+    }
+
+    @Test
+    public void testLimits() {
+        final ExceptionLimits limits = new ExceptionLimits(2, 1, 3, true, new String[] {"org.junit", "sun.reflect"});
+        Assert.assertTrue(limits.isDepthAllowed(0));
+        Assert.assertTrue(limits.isDepthAllowed(1));
+        Assert.assertFalse(limits.isDepthAllowed(2));
+        Assert.assertEquals(2, limits.getSuppressedCount(2));
+        Assert.assertEquals(3, limits.getSuppressedCount(5));
+    }
+
+    @Test
+    public void testExcludedPackages() {
+        final ExceptionLimits limits = new ExceptionLimits(-1, -1, -1, false, new String[] {"org.junit", "sun.reflect"});
+        Assert.assertTrue(limits.isExcluded(new StackTraceElement("org.junit.Assert", "fail", "Assert.java", 1)));
+        Assert.assertTrue(limits.isExcluded(new StackTraceElement("org.junit.runners.Suite", "run", "Suite.java", 1)));
+        Assert.assertTrue(limits.isExcluded(new StackTraceElement("sun.reflect.Method", "invoke", "Method.java", 1)));
+        // Only whole package names match
+        Assert.assertFalse(limits.isExcluded(new StackTraceElement("org.junitx.Assert", "fail", "Assert.java", 1)));
+        Assert.assertFalse(limits.isExcluded(new StackTraceElement("org.jboss.Test", "test", "Test.java", 1)));
+    }
+
+    @Test
+    public void testFramesInCommon() {
+        final StackTraceElement a = new StackTraceElement("org.jboss.Test", "a", "Test.java", 1);
+        final StackTraceElement b = new StackTraceElement("org.jboss.Test", "b", "Test.java", 2);
+        final StackTraceElement c = new StackTraceElement("org.jboss.Test", "c", "Test.java", 3);
+        final StackTraceElement d = new StackTraceElement("org.jboss.Test", "d", "Test.java", 4);
+        Assert.assertEquals(2, ExceptionLimits.framesInCommon(new StackTraceElement[] {d, b, c}, new StackTraceElement[] {a, b, c}));
+        Assert.assertEquals(0, ExceptionLimits.framesInCommon(new StackTraceElement[] {a, b, d}, new StackTraceElement[] {a, b, c}));
+        // A trace which is entirely the end of the enclosing trace has every frame in common
+        Assert.assertEquals(2, ExceptionLimits.framesInCommon(new StackTraceElement[] {b, c}, new StackTraceElement[] {a, b, c}));
+        Assert.assertEquals(0, ExceptionLimits.framesInCommon(new StackTraceElement[0], new StackTraceElement[] {a}));
+    }
+
+    @Test
+    public void testFormat() throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setExceptionOutputType(JsonFormatter.ExceptionOutputType.DETAILED_AND_FORMATTED);
+        formatter.setMaxExceptionFrames(2);
+        formatter.setMaxSuppressedExceptions(0);
+        formatter.setElideCommonFrames(true);
+        formatter.setExcludedFramePackages("org.junit., sun.reflect");
+        final ExtLogRecord record = createLogRecord("Test exception limits");
+        final Throwable thrown = createException("Test Exception");
+        record.setThrown(thrown);
+
+        // Format twice, the second uses the cached frames
+        for (int i = 0; i < 2; i++) {
+            final JsonObject json = read(formatter.format(record));
+            final JsonObject exception = json.getJsonObject(Key.EXCEPTION.getKey());
+            Assert.assertEquals(2, exception.getJsonArray(Key.EXCEPTION_FRAMES.getKey()).size());
+            Assert.assertEquals(thrown.getStackTrace().length - 2, exception.getInt(Key.EXCEPTION_FRAMES_OMITTED.getKey()));
+            Assert.assertFalse(exception.containsKey(Key.EXCEPTION_SUPPRESSED.getKey()));
+            Assert.assertEquals(1, exception.getInt(Key.EXCEPTION_SUPPRESSED_OMITTED.getKey()));
+            Assert.assertFalse(exception.containsKey(Key.EXCEPTION_FRAMES_IN_COMMON.getKey()));
+
+            // Only the first frame of the cause differs from the enclosing exception
+            final JsonObject cause = exception.getJsonObject(Key.EXCEPTION_CAUSED_BY.getKey()).getJsonObject(Key.EXCEPTION.getKey());
+            Assert.assertEquals(1, cause.getJsonArray(Key.EXCEPTION_FRAMES.getKey()).size());
+            Assert.assertEquals(thrown.getCause().getStackTrace().length - 1, cause.getInt(Key.EXCEPTION_FRAMES_IN_COMMON.getKey()));
+            Assert.assertFalse(cause.containsKey(Key.EXCEPTION_FRAMES_OMITTED.getKey()));
+
+            final String stackTrace = json.getString(Key.STACK_TRACE.getKey());
+            Assert.assertTrue(stackTrace, stackTrace.contains("\t... " + (thrown.getStackTrace().length - 2) + " frames omitted"));
+            Assert.assertTrue(stackTrace, stackTrace.contains("\t... 1 suppressed exceptions omitted"));
+            Assert.assertTrue(stackTrace, stackTrace.contains("Caused by: " + thrown.getCause()));
+            Assert.assertFalse(stackTrace, stackTrace.contains("org.junit."));
+        }
+
+        // Nested exceptions should not be walked
+        formatter.setMaxCauseDepth(0);
+        final JsonObject json = read(formatter.format(record));
+        final JsonObject exception = json.getJsonObject(Key.EXCEPTION.getKey());
+        Assert.assertFalse(exception.containsKey(Key.EXCEPTION_CAUSED_BY.getKey()));
+        Assert.assertFalse(exception.containsKey(Key.EXCEPTION_SUPPRESSED_OMITTED.getKey()));
+        Assert.assertFalse(json.getString(Key.STACK_TRACE.getKey()).contains("Caused by: "));
+    }
+
+    private static JsonObject read(final String json) {
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return reader.readObject();
+        }
+    }
+}
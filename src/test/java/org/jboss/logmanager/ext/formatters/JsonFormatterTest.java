@@ -19,14 +19,29 @@
 
 package org.jboss.logmanager.ext.formatters;
 
+import java.io.PrintWriter;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.json.Json;
+import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 import javax.json.JsonValue;
@@ -34,7 +49,9 @@ import javax.json.JsonValue.ValueType;
 
 import org.jboss.logmanager.ExtFormatter;
 import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.ExtLogRecord.FormatStyle;
 import org.jboss.logmanager.Level;
+import org.jboss.logmanager.MDC;
 import org.jboss.logmanager.ext.AbstractTest;
 import org.jboss.logmanager.ext.formatters.StructuredFormatter.Key;
 import org.junit.Assert;
@@ -79,6 +96,89 @@ public class JsonFormatterTest extends AbstractTest {
         compare(record, formatter);
     }
 
+    @Test
+    public void testStreamedValues() throws Exception {
+        testStreamedValues(false);
+    }
+
+    @Test
+    public void testStreamedValuesPrettyPrint() throws Exception {
+        testStreamedValues(true);
+    }
+
+    private void testStreamedValues(final boolean prettyPrint) throws Exception {
+        // The message and stack trace written in pieces must match the values built and then added
+        final ExtLogRecord record = createLogRecord(Level.ERROR, "Control \u0001\t\"characters\"\r\n<&> %s", "\uD83D\uDE00");
+        record.setLoggerName("org.jboss.logmanager.ext.test");
+        final Throwable cause = new IllegalStateException("Cause\u001f\\\n  second line");
+        final Throwable thrown = new RuntimeException("Test \"exception\"\u0000", cause);
+        thrown.addSuppressed(new IllegalArgumentException("Suppressed <&>"));
+        record.setThrown(thrown);
+
+        final JsonFormatter streamed = new JsonFormatter();
+        final JsonFormatter buffered = new JsonFormatter() {
+            @Override
+            protected Generator createGenerator(final Writer writer) {
+                return new BufferedGenerator(super.createGenerator(writer));
+            }
+        };
+        for (JsonFormatter formatter : new JsonFormatter[] {streamed, buffered}) {
+            formatter.setPrettyPrint(prettyPrint);
+            formatter.setExceptionOutputType(StructuredFormatter.ExceptionOutputType.DETAILED_AND_FORMATTED);
+        }
+        final String result = streamed.format(record);
+        Assert.assertTrue(result, result.contains("second line"));
+        Assert.assertEquals(buffered.format(record), result);
+    }
+
+    @Test
+    public void testSplitEscapes() throws Exception {
+        testSplitEscapes(false);
+    }
+
+    @Test
+    public void testSplitEscapesPrettyPrint() throws Exception {
+        testSplitEscapes(true);
+    }
+
+    private static void testSplitEscapes(final boolean prettyPrint) throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setPrettyPrint(prettyPrint);
+        final String value = "a\u0000b\u001f\"\\\r\n\t<&>\n\uD83D\uDE00\u007f\u2028c\n";
+        final String expected = writeValue(formatter, value, -1);
+        // Every escaped character, and each half of the surrogate pair, is split from its neighbours by some append
+        for (int split = 0; split <= value.length(); split++) {
+            Assert.assertEquals("Split at " + split, expected, writeValue(formatter, value, split));
+        }
+        Assert.assertEquals(expected, writeValue(formatter, value, value.length() + 1));
+    }
+
+    /**
+     * Writes the value with a single add when the split is negative, in two appends split at the index or, when the
+     * split is past the end, a character at a time.
+     */
+    private static String writeValue(final JsonFormatter formatter, final String value, final int split) throws Exception {
+        final StringWriter writer = new StringWriter();
+        final StructuredFormatter.Generator generator = formatter.createGenerator(writer);
+        generator.begin();
+        if (split < 0) {
+            generator.add("value", value);
+        } else {
+            final Appendable appendable = generator.beginValue("value");
+            if (split > value.length()) {
+                for (int i = 0; i < value.length(); i++) {
+                    appendable.append(value.charAt(i));
+                }
+            } else {
+                appendable.append(value.substring(0, split));
+                appendable.append(value, split, value.length());
+            }
+            generator.endValue();
+        }
+        generator.end();
+        return writer.toString();
+    }
+
     @Test
     public void testMetaData() throws Exception {
         final JsonFormatter formatter = new JsonFormatter();
@@ -98,6 +198,40 @@ public class JsonFormatterTest extends AbstractTest {
         compare(record, formatter, metaDataMap);
     }
 
+    @Test
+    public void testMetaDataExpressions() throws Exception {
+        System.setProperty("org.jboss.logmanager.ext.test.version", "1.0");
+        try {
+            final JsonFormatter formatter = new JsonFormatter();
+            formatter.setMetaData("version=${org.jboss.logmanager.ext.test.version},env=${org.jboss.logmanager.ext.test.env:test}," +
+                    "unresolved=${org.jboss.logmanager.ext.test.missing},pid=${pid},host=${hostname},plain=value");
+            final ExtLogRecord record = createLogRecord("Test meta data %s", "message");
+            record.copyAll();
+            final String formatted = formatter.format(record);
+            final JsonObject json = read(formatted);
+            Assert.assertEquals("1.0", json.getString("version"));
+            Assert.assertEquals("test", json.getString("env"));
+            Assert.assertEquals("${org.jboss.logmanager.ext.test.missing}", json.getString("unresolved"));
+            Assert.assertTrue(json.getString("pid").matches("\\d+"));
+            Assert.assertFalse(json.getString("host").contains("${"));
+            Assert.assertEquals("value", json.getString("plain"));
+            // Changing the property after the meta data was set has no effect
+            System.setProperty("org.jboss.logmanager.ext.test.version", "2.0");
+            Assert.assertEquals(formatted, formatter.format(record));
+
+            // The rendered meta data is reused and must match the meta data being rendered
+            formatter.setPrettyPrint(true);
+            final String pretty = formatter.format(record);
+            Assert.assertEquals(pretty, formatter.format(record));
+            Assert.assertEquals(json, read(pretty));
+            formatter.setPrettyPrint(false);
+            formatter.setIncludeKeys("level");
+            Assert.assertEquals(7, read(formatter.format(record)).size());
+        } finally {
+            System.clearProperty("org.jboss.logmanager.ext.test.version");
+        }
+    }
+
     @Test
     public void testLogstashFormat() throws Exception {
         KEY_OVERRIDES.put(Key.TIMESTAMP, "@timestamp");
@@ -119,6 +253,352 @@ public class JsonFormatterTest extends AbstractTest {
         compareLogstash(record, formatter, 2);
     }
 
+    @Test
+    public void testConcurrentFormat() throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setPrintDetails(true);
+        formatter.setExceptionOutputType(JsonFormatter.ExceptionOutputType.DETAILED_AND_FORMATTED);
+        formatter.setMetaData("context-id=context1");
+        final int recordCount = 100;
+        final ExtLogRecord[] records = new ExtLogRecord[recordCount];
+        final String[] expected = new String[recordCount];
+        for (int i = 0; i < recordCount; i++) {
+            final ExtLogRecord record = createLogRecord(Level.ERROR, "Test formatted %d", i);
+            record.setThrown(new RuntimeException("Test Exception " + i, new IllegalStateException("cause")));
+            record.putMdc("testMdcKey", "testMdcValue" + i);
+            // Calculate the caller before the record is handed off to other threads
+            record.copyAll();
+            records[i] = record;
+            expected[i] = formatter.format(record);
+        }
+
+        final int threadCount = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            final List<Future<Void>> results = new ArrayList<>(threadCount);
+            for (int t = 0; t < threadCount; t++) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int n = 0; n < 50; n++) {
+                            for (int i = 0; i < recordCount; i++) {
+                                Assert.assertEquals(expected[i], formatter.format(records[i]));
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFormatterCollected() throws Exception {
+        // The generator is cached by a thread local of the formatter, it must not keep the formatter reachable
+        assertCollected(formatAndRelease());
+    }
+
+    private WeakReference<JsonFormatter> formatAndRelease() {
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setExceptionOutputType(StructuredFormatter.ExceptionOutputType.DETAILED_AND_FORMATTED);
+        final ExtLogRecord record = createLogRecord("Test collected");
+        record.setThrown(new RuntimeException("Test Exception"));
+        formatter.format(record);
+        return new WeakReference<>(formatter);
+    }
+
+    @Test
+    public void testJsonProviderOutput() throws Exception {
+        final ExtLogRecord record = createLogRecord(Level.ERROR, "Test \"formatted\" %s\n\ttab\\ \u0001 \u00e9 \u2028", "message");
+        record.setLoggerName("org.jboss.logmanager.ext.test");
+        final Throwable cause = new RuntimeException("Test Exception", new IllegalStateException("Cause"));
+        cause.addSuppressed(new IllegalArgumentException("Suppressed"));
+        record.setThrown(cause);
+        record.putMdc("testMdcKey", "testMdcValue");
+        record.putMdc("quoted\"Key", "line1\nline2");
+        record.setNdc("testNdc");
+        record.copyAll();
+
+        for (boolean prettyPrint : new boolean[] {false, true}) {
+            final LogstashFormatter expectedFormatter = new LogstashFormatter();
+            expectedFormatter.setUseJsonProvider(true);
+            final LogstashFormatter formatter = new LogstashFormatter();
+            Assert.assertFalse(formatter.isUseJsonProvider());
+            for (JsonFormatter f : new JsonFormatter[] {expectedFormatter, formatter}) {
+                f.setPrettyPrint(prettyPrint);
+                f.setPrintDetails(true);
+                f.setExceptionOutputType(JsonFormatter.ExceptionOutputType.DETAILED_AND_FORMATTED);
+                f.setMetaData("vendor=Red Hat\\, Inc.,empty=");
+            }
+            Assert.assertEquals(expectedFormatter.format(record), formatter.format(record));
+            // Format a second time to ensure the reused generator produces the same output
+            Assert.assertEquals(expectedFormatter.format(record), formatter.format(record));
+        }
+    }
+
+    @Test
+    public void testEncode() throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setExceptionOutputType(JsonFormatter.ExceptionOutputType.FORMATTED);
+        final ExtLogRecord record = createLogRecord("Test \u00e9\u20ac\ud83d\ude00 %s \ud800", "message");
+        record.setThrown(new RuntimeException("Test Exception"));
+        record.copyAll();
+        final byte[] expected = formatter.format(record).getBytes(StandardCharsets.UTF_8);
+
+        // Small heap and direct buffers should be grown with any existing bytes retained
+        for (ByteBuffer buffer : new ByteBuffer[] {ByteBuffer.allocate(8), ByteBuffer.allocateDirect(8), ByteBuffer.allocate(expected.length * 2)}) {
+            buffer.put((byte) 'x');
+            final ByteBuffer result = formatter.encode(record, buffer);
+            Assert.assertEquals(buffer.isDirect(), result.isDirect());
+            Assert.assertEquals(expected.length + 1, result.position());
+            result.flip();
+            Assert.assertEquals('x', result.get());
+            final byte[] encoded = new byte[result.remaining()];
+            result.get(encoded);
+            Assert.assertArrayEquals(expected, encoded);
+        }
+    }
+
+    @Test
+    public void testFormatTo() throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setExceptionOutputType(JsonFormatter.ExceptionOutputType.DETAILED);
+        final ExtLogRecord record = createLogRecord("Test formatTo %s", "message");
+        record.setThrown(new RuntimeException("Test Exception"));
+        // Create a message larger than a single chunk
+        final StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            large.append("value ").append(i).append(' ');
+        }
+        record.setParameters(new Object[] {large});
+        record.copyAll();
+        final String expected = formatter.format(record);
+
+        final StringBuilder builder = new StringBuilder("prefix");
+        formatter.formatTo(record, builder);
+        Assert.assertEquals("prefix" + expected, builder.toString());
+
+        final StringWriter writer = new StringWriter();
+        formatter.formatTo(record, writer);
+        Assert.assertEquals(expected, writer.toString());
+    }
+
+    @Test
+    public void testConfigurationChanges() throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        final ExtLogRecord record = createLogRecord("Test configuration %s", "message");
+        record.setThrown(new RuntimeException("Test Exception"));
+        record.copyAll();
+
+        JsonObject json = read(formatter.format(record));
+        Assert.assertTrue(json.containsKey(Key.EXCEPTION.getKey()));
+        Assert.assertFalse(json.containsKey(Key.STACK_TRACE.getKey()));
+        Assert.assertFalse(json.containsKey(Key.SOURCE_CLASS_NAME.getKey()));
+        Assert.assertFalse(json.containsKey("metaData"));
+
+        formatter.setExceptionOutputType(JsonFormatter.ExceptionOutputType.FORMATTED);
+        formatter.setPrintDetails(true);
+        formatter.setMetaData("context-id=context1");
+        formatter.setRecordDelimiter(null);
+        final String formatted = formatter.format(record);
+        Assert.assertFalse(formatted.endsWith("\n"));
+        json = read(formatted);
+        Assert.assertFalse(json.containsKey(Key.EXCEPTION.getKey()));
+        Assert.assertTrue(json.containsKey(Key.STACK_TRACE.getKey()));
+        Assert.assertEquals(record.getSourceClassName(), json.getString(Key.SOURCE_CLASS_NAME.getKey()));
+        Assert.assertEquals("context1", json.getString("context-id"));
+
+        formatter.setMetaData(null);
+        formatter.setPrintDetails(false);
+        json = read(formatter.format(record));
+        Assert.assertFalse(json.containsKey(Key.SOURCE_CLASS_NAME.getKey()));
+        Assert.assertFalse(json.containsKey("context-id"));
+    }
+
+    @Test
+    public void testFieldProjection() throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setPrintDetails(true);
+        formatter.setExcludeKeys("logger-class-name,SEQUENCE,thread_id");
+        formatter.setExcludeEmptyValues(true);
+        final ExtLogRecord record = createLogRecord("Test projection %s", "message");
+        record.setLoggerName("org.jboss.logmanager.ext.test");
+        record.copyAll();
+
+        JsonObject json = read(formatter.format(record));
+        Assert.assertFalse(json.containsKey(Key.LOGGER_CLASS_NAME.getKey()));
+        Assert.assertFalse(json.containsKey(Key.SEQUENCE.getKey()));
+        Assert.assertFalse(json.containsKey(Key.THREAD_ID.getKey()));
+        Assert.assertFalse(json.containsKey(Key.NDC.getKey()));
+        Assert.assertFalse(json.containsKey(Key.MDC.getKey()));
+        Assert.assertEquals(record.getLoggerName(), json.getString(Key.LOGGER_NAME.getKey()));
+        Assert.assertEquals(record.getSourceMethodName(), json.getString(Key.SOURCE_METHOD_NAME.getKey()));
+
+        // Excluded keys take precedence over included keys
+        formatter.setIncludeKeys("level,message,sequence");
+        json = read(formatter.format(record));
+        Assert.assertEquals(2, json.size());
+        Assert.assertEquals(record.getLevel().getName(), json.getString(Key.LEVEL.getKey()));
+        Assert.assertEquals(record.getFormattedMessage(), json.getString(Key.MESSAGE.getKey()));
+
+        formatter.setIncludeKeys(null);
+        formatter.setExcludeKeys(null);
+        formatter.setExcludeEmptyValues(false);
+        compare(record, formatter);
+    }
+
+    @Test
+    public void testMdc() throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setPrintDetails(true);
+        MDC.put("mdcKey1", "value1");
+        MDC.put("mdcKey2", "value 2");
+        final ExtLogRecord record;
+        try {
+            record = createLogRecord("Test MDC %s", "message");
+            // The MDC must be captured while it's set
+            record.copyAll();
+        } finally {
+            MDC.remove("mdcKey1");
+            MDC.remove("mdcKey2");
+        }
+        record.putMdc("mdcKey3", "value3");
+        final Map<String, String> expected = record.getMdcCopy();
+        Assert.assertEquals(3, expected.size());
+        compare(record, formatter);
+
+        formatter.setFlattenMdc(true);
+        final JsonObject json = read(formatter.format(record));
+        Assert.assertFalse(json.containsKey(Key.MDC.getKey()));
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), json.getString(entry.getKey()));
+        }
+        // Formatting must not modify the records MDC
+        Assert.assertEquals(expected, record.getMdcCopy());
+    }
+
+    @Test
+    public void testMessageTemplate() throws Exception {
+        final Object value = new Object() {
+            @Override
+            public String toString() {
+                return "custom \"value\"";
+            }
+        };
+        final ExtLogRecord record = createLogRecord("Test %s %d %d %.1f %.1f %b %s %s %s %s", "message", 10, 20L, 1.5d, 2.5f,
+                true, null, value, new BigDecimal("1.25"), Double.NaN);
+        final ExtLogRecord noParameters = createLogRecord("Test message");
+        for (boolean useJsonProvider : new boolean[] {false, true}) {
+            final JsonFormatter formatter = new JsonFormatter();
+            formatter.setUseJsonProvider(useJsonProvider);
+            formatter.setMessageOutputType(StructuredFormatter.MessageOutputType.TEMPLATE);
+            JsonObject json = read(formatter.format(record));
+            Assert.assertFalse(json.containsKey(Key.MESSAGE.getKey()));
+            Assert.assertEquals(record.getMessage(), getString(json, Key.MESSAGE_TEMPLATE));
+            final JsonArray parameters = json.getJsonArray(Key.MESSAGE_PARAMETERS.getKey());
+            Assert.assertEquals(10, parameters.size());
+            Assert.assertEquals("message", parameters.getString(0));
+            Assert.assertEquals(10, parameters.getInt(1));
+            Assert.assertEquals(20L, parameters.getJsonNumber(2).longValue());
+            Assert.assertEquals(1.5d, parameters.getJsonNumber(3).doubleValue(), 0d);
+            Assert.assertEquals(new BigDecimal("2.5"), parameters.getJsonNumber(4).bigDecimalValue());
+            Assert.assertEquals(ValueType.TRUE, parameters.get(5).getValueType());
+            Assert.assertTrue(parameters.isNull(6));
+            Assert.assertEquals("custom \"value\"", parameters.getString(7));
+            Assert.assertEquals(new BigDecimal("1.25"), parameters.getJsonNumber(8).bigDecimalValue());
+            Assert.assertEquals("NaN", parameters.getString(9));
+
+            // Records without parameters only write the template
+            json = read(formatter.format(noParameters));
+            Assert.assertEquals("Test message", getString(json, Key.MESSAGE_TEMPLATE));
+            Assert.assertFalse(json.containsKey(Key.MESSAGE_PARAMETERS.getKey()));
+
+            formatter.setMessageOutputType(StructuredFormatter.MessageOutputType.FORMATTED_AND_TEMPLATE);
+            json = read(formatter.format(record));
+            Assert.assertEquals(record.getFormattedMessage(), getString(json, Key.MESSAGE));
+            Assert.assertEquals(record.getMessage(), getString(json, Key.MESSAGE_TEMPLATE));
+            Assert.assertEquals(10, json.getJsonArray(Key.MESSAGE_PARAMETERS.getKey()).size());
+        }
+
+        // The template is a dictionary entry in dictionary mode
+        final JsonFormatter expectedFormatter = new JsonFormatter();
+        expectedFormatter.setMessageOutputType(StructuredFormatter.MessageOutputType.TEMPLATE);
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setMessageOutputType(StructuredFormatter.MessageOutputType.TEMPLATE);
+        formatter.setUseDictionary(true);
+        final DictionaryDecoder decoder = new DictionaryDecoder();
+        final String expected = expectedFormatter.format(record);
+        Assert.assertEquals(read(expected), read(decoder.decode(formatter.format(record))));
+        final JsonObject json = read(formatter.format(record));
+        Assert.assertEquals(ValueType.OBJECT, json.get(Key.MESSAGE_TEMPLATE.getKey()).getValueType());
+        Assert.assertEquals(read(expected), read(decoder.decode(json.toString())));
+    }
+
+    @Test
+    public void testLevelPolicies() throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setPrintExceptionFingerprint(true);
+        formatter.setLevelPolicies("ERROR=DETAILED_AND_FORMATTED+DETAILS, WARN=formatted, INFO=DETAILED, ALL=NONE");
+        final Throwable thrown = createException("Test Exception");
+
+        JsonObject json = read(formatter.format(createLogRecord(Level.FATAL, thrown)));
+        Assert.assertTrue(json.containsKey(Key.EXCEPTION.getKey()));
+        Assert.assertTrue(json.containsKey(Key.STACK_TRACE.getKey()));
+        Assert.assertTrue(json.containsKey(Key.SOURCE_CLASS_NAME.getKey()));
+
+        json = read(formatter.format(createLogRecord(Level.WARN, thrown)));
+        Assert.assertFalse(json.containsKey(Key.EXCEPTION.getKey()));
+        Assert.assertTrue(json.containsKey(Key.STACK_TRACE.getKey()));
+        Assert.assertFalse(json.containsKey(Key.SOURCE_CLASS_NAME.getKey()));
+
+        json = read(formatter.format(createLogRecord(Level.INFO, thrown)));
+        Assert.assertTrue(json.containsKey(Key.EXCEPTION.getKey()));
+        Assert.assertFalse(json.containsKey(Key.STACK_TRACE.getKey()));
+        Assert.assertFalse(json.containsKey(Key.SOURCE_CLASS_NAME.getKey()));
+
+        json = read(formatter.format(createLogRecord(Level.DEBUG, thrown)));
+        Assert.assertFalse(json.containsKey(Key.EXCEPTION.getKey()));
+        Assert.assertFalse(json.containsKey(Key.STACK_TRACE.getKey()));
+        Assert.assertFalse(json.containsKey(Key.EXCEPTION_FINGERPRINT.getKey()));
+
+        // Without policies the formatter settings are used for all levels
+        formatter.setLevelPolicies(null);
+        json = read(formatter.format(createLogRecord(Level.DEBUG, thrown)));
+        Assert.assertTrue(json.containsKey(Key.EXCEPTION.getKey()));
+        Assert.assertTrue(json.containsKey(Key.EXCEPTION_FINGERPRINT.getKey()));
+        Assert.assertFalse(json.containsKey(Key.STACK_TRACE.getKey()));
+
+        for (String invalid : new String[] {"INVALID=DETAILED", "ERROR=INVALID", "ERROR=DETAILS", "ERROR=NONE+FORMATTED", "ERROR=NONE,SEVERE=NONE"}) {
+            try {
+                formatter.setLevelPolicies(invalid);
+                Assert.fail("Expected the level policies to be invalid: " + invalid);
+            } catch (IllegalArgumentException ignore) {
+            }
+        }
+    }
+
+    private ExtLogRecord createLogRecord(final Level level, final Throwable thrown) {
+        final ExtLogRecord record = createLogRecord(level, "Test level policies");
+        record.setThrown(thrown);
+        return record;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidProjectionKey() {
+        new JsonFormatter().setExcludeKeys("invalid");
+    }
+
+    private static JsonObject read(final String jsonString) {
+        try (JsonReader reader = Json.createReader(new StringReader(jsonString))) {
+            return reader.readObject();
+        }
+    }
+
     private static int getInt(final JsonObject json, final Key key) {
         final String name = getKey(key);
         if (json.containsKey(name) && !json.isNull(name)) {
@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.util.Map;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.Level;
+import org.jboss.logmanager.MDC;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class MdcAccessorTest {
+
+    @Before
+    public void setMdc() {
+        MDC.put("mdcKey1", "value1");
+    }
+
+    @After
+    public void clearMdc() {
+        MDC.remove("mdcKey1");
+    }
+
+    @Test
+    public void testThreadMdc() {
+        final ExtLogRecord record = createRecord();
+        final Map<String, String> mdc = MdcAccessor.getMdc(record);
+        Assert.assertEquals("value1", mdc.get("mdcKey1"));
+        assertUnmodifiable(mdc);
+
+        // Reading the MDC must not copy it to the record
+        MDC.put("mdcKey1", "value2");
+        Assert.assertEquals("value2", record.getMdc("mdcKey1"));
+    }
+
+    @Test
+    public void testRecordMdc() {
+        final ExtLogRecord record = createRecord();
+        record.copyMdc();
+        MDC.put("mdcKey1", "value2");
+        final Map<String, String> mdc = MdcAccessor.getMdc(record);
+        Assert.assertEquals("value1", mdc.get("mdcKey1"));
+        assertUnmodifiable(mdc);
+        Assert.assertEquals("value1", record.getMdc("mdcKey1"));
+    }
+
+    @Test
+    public void testFormatNotCopied() {
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setFlattenMdc(true);
+        final ExtLogRecord record = createRecord();
+        Assert.assertTrue(formatter.format(record).contains("\"mdcKey1\":\"value1\""));
+
+        // Formatting must not have copied the MDC to the record, so later changes are still visible
+        MDC.put("mdcKey1", "value2");
+        Assert.assertEquals("value2", record.getMdc("mdcKey1"));
+    }
+
+    @Test
+    public void testNotAccessible() {
+        // Without access to the fields a copy of the MDC is returned
+        final ExtLogRecord record = createRecord();
+        final Map<String, String> mdc = MdcAccessor.getMdc(record, null, null);
+        Assert.assertEquals("value1", mdc.get("mdcKey1"));
+        mdc.put("mdcKey2", "value2");
+        Assert.assertNull(record.getMdc("mdcKey2"));
+    }
+
+    private static void assertUnmodifiable(final Map<String, String> mdc) {
+        try {
+            mdc.put("mdcKey2", "value2");
+            Assert.fail("Expected the MDC to be unmodifiable");
+        } catch (UnsupportedOperationException ignore) {
+        }
+    }
+
+    private static ExtLogRecord createRecord() {
+        return new ExtLogRecord(Level.INFO, "Test MDC", MdcAccessorTest.class.getName());
+    }
+}
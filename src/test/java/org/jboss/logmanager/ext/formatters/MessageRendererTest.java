@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.ExtLogRecord.FormatStyle;
+import org.jboss.logmanager.Level;
+import org.jboss.logmanager.ext.AbstractTest;
+import org.jboss.logmanager.ext.formatters.StructuredFormatter.Key;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class MessageRendererTest extends AbstractTest {
+
+    @Test
+    public void testRender() throws Exception {
+        final MessageRenderer renderer = new MessageRenderer();
+        final StringBuilder out = new StringBuilder();
+        for (FormatStyle formatStyle : new FormatStyle[] {FormatStyle.PRINTF, FormatStyle.MESSAGE_FORMAT}) {
+            final String message = (formatStyle == FormatStyle.PRINTF ? "Test %s %d %tY" : "Test {0} {1} {2,date,yyyy}");
+            final ExtLogRecord record = createRecord(message, formatStyle, "message", 42, new Date(0L));
+            Assert.assertTrue(MessageRenderer.isRenderable(record));
+            out.setLength(0);
+            renderer.render(out, record);
+
+            // The rendered message is not stored on the record, it remains renderable
+            Assert.assertTrue(MessageRenderer.isRenderable(record));
+            Assert.assertEquals(record.getFormattedMessage(), out.toString());
+            // Once the record has formatted the message the formatted message is used
+            Assert.assertFalse(MessageRenderer.isRenderable(record));
+        }
+    }
+
+    @Test
+    public void testNotRenderable() {
+        Assert.assertFalse(MessageRenderer.isRenderable(createRecord("Test %s", FormatStyle.NO_FORMAT, "message")));
+        Assert.assertFalse(MessageRenderer.isRenderable(createRecord("Test", FormatStyle.PRINTF)));
+        Assert.assertFalse(MessageRenderer.isRenderable(createRecord("Test no pattern", FormatStyle.MESSAGE_FORMAT, "message")));
+    }
+
+    @Test
+    public void testFormattedMessageNotAccessible() {
+        // Without access to the formatted message of the record the record formats the message
+        final ExtLogRecord record = createRecord("Test %s", FormatStyle.PRINTF, "message");
+        Assert.assertTrue(MessageRenderer.isRenderable(record));
+        Assert.assertFalse(MessageRenderer.isRenderable(record, null));
+    }
+
+    @Test
+    public void testFormat() throws Exception {
+        final StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            longValue.append("SELECT \"value\"\n");
+        }
+        final JsonFormatter formatter = new JsonFormatter();
+        for (boolean prettyPrint : new boolean[] {false, true}) {
+            formatter.setPrettyPrint(prettyPrint);
+            final List<ExtLogRecord> records = new ArrayList<>();
+            records.add(createLogRecord("Test \"%s\"%n\ttab %d %.2f", "formatted\u0001", 1000, 1.5d));
+            records.add(createLogRecord("Test long %s", longValue));
+            ExtLogRecord record = new ExtLogRecord(Level.INFO, "Test {0} ''quoted'' {1,number,#.##} \"{2}\"", FormatStyle.MESSAGE_FORMAT, getClass().getName());
+            record.setParameters(new Object[] {"message", 1.2345d, null});
+            records.add(record);
+            record = new ExtLogRecord(Level.INFO, "Test long {0}", FormatStyle.MESSAGE_FORMAT, getClass().getName());
+            record.setParameters(new Object[] {longValue});
+            records.add(record);
+            record = new ExtLogRecord(Level.INFO, "Test no {0} format", FormatStyle.NO_FORMAT, getClass().getName());
+            record.setParameters(new Object[] {"message"});
+            records.add(record);
+            for (ExtLogRecord r : records) {
+                // The message is formatted directly into the output without formatting the record
+                final JsonObject json = read(formatter.format(r));
+                Assert.assertEquals(r.getFormattedMessage(), json.getString(Key.MESSAGE.getKey()));
+                // An already formatted message should be written as is
+                Assert.assertEquals(r.getFormattedMessage(), read(formatter.format(r)).getString(Key.MESSAGE.getKey()));
+            }
+        }
+
+        // An invalid format should fail the same as formatting the record
+        final ExtLogRecord record = createLogRecord("Test invalid %d", "message");
+        try {
+            formatter.format(record);
+            Assert.fail("Expected the invalid format to fail");
+        } catch (RuntimeException expected) {
+            Assert.assertNotNull(expected.getCause());
+        }
+        final ExtLogRecord valid = createLogRecord("Test valid %s", "message");
+        Assert.assertEquals("Test valid message", read(formatter.format(valid)).getString(Key.MESSAGE.getKey()));
+    }
+
+    private static JsonObject read(final String json) {
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return reader.readObject();
+        }
+    }
+
+    private static ExtLogRecord createRecord(final String message, final FormatStyle formatStyle, final Object... parameters) {
+        final ExtLogRecord record = new ExtLogRecord(Level.INFO, message, formatStyle, MessageRendererTest.class.getName());
+        record.setParameters(parameters);
+        return record;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.ext.AbstractTest;
+import org.jboss.logmanager.ext.formatters.StructuredFormatter.Key;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class RecordDictionaryTest extends AbstractTest {
+
+    @Test
+    public void testIds() {
+        final RecordDictionary dictionary = new RecordDictionary(10);
+        final List<Object> definitions = new ArrayList<>();
+        final StackTraceElement frame = new StackTraceElement("org.jboss.Test", "test", "Test.java", 10);
+        Assert.assertEquals(-1, dictionary.getDefinedId("first"));
+        Assert.assertEquals(0, dictionary.getId("first", definitions));
+        Assert.assertEquals(1, dictionary.getId(frame, definitions));
+        // A value which already has an id is not defined again
+        Assert.assertEquals(0, dictionary.getId("first", definitions));
+        final StackTraceElement equalFrame = new StackTraceElement("org.jboss.Test", "test", "Test.java", 10);
+        Assert.assertEquals(1, dictionary.getId(equalFrame, definitions));
+        Assert.assertEquals(2, definitions.size());
+        Assert.assertEquals("first", definitions.get(0));
+        Assert.assertEquals(frame, definitions.get(1));
+        Assert.assertEquals(0, dictionary.getDefinedId("first"));
+        Assert.assertEquals(1, dictionary.getDefinedId(frame));
+    }
+
+    @Test
+    public void testBound() {
+        final RecordDictionary dictionary = new RecordDictionary(2);
+        Assert.assertEquals(2, dictionary.getMaxSize());
+        final List<Object> definitions = new ArrayList<>();
+        Assert.assertEquals(0, dictionary.getId("first", definitions));
+        Assert.assertEquals(1, dictionary.getId("second", definitions));
+        // Once full, values without an id are not assigned one, values with an id are still referenced
+        Assert.assertEquals(-1, dictionary.getId("third", definitions));
+        Assert.assertEquals(-1, dictionary.getDefinedId("third"));
+        Assert.assertEquals(1, dictionary.getId("second", definitions));
+        Assert.assertEquals(2, definitions.size());
+    }
+
+    @Test
+    public void testConcurrentFormat() throws Exception {
+        final int maxSize = 100;
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setUseDictionary(true);
+        formatter.setMaxDictionarySize(maxSize);
+        final int threadCount = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            final List<Future<List<String>>> results = new ArrayList<>(threadCount);
+            for (int t = 0; t < threadCount; t++) {
+                final int thread = t;
+                results.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        final List<String> formatted = new ArrayList<>();
+                        for (int i = 0; i < maxSize; i++) {
+                            // Each thread defines distinct logger names and shares the rest with the other threads
+                            final ExtLogRecord record = createLogRecord("Concurrent message");
+                            record.setLoggerName(i % 2 == 0 ? "org.jboss.test" + thread + "." + i : "org.jboss.shared" + i);
+                            formatted.add(formatter.format(record));
+                        }
+                        return formatted;
+                    }
+                }));
+            }
+            // No id may be lost, each id must be defined by exactly one record
+            final boolean[] defined = new boolean[maxSize];
+            int count = 0;
+            for (Future<List<String>> result : results) {
+                for (String formatted : result.get(30, TimeUnit.SECONDS)) {
+                    final JsonArray entries = read(formatted).getJsonArray(Key.DICTIONARY.getKey());
+                    if (entries == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < entries.size(); i++) {
+                        final int id = entries.getJsonObject(i).getInt(Key.DICTIONARY_ID.getKey());
+                        Assert.assertTrue("Id " + id + " exceeds the maximum size", id >= 0 && id < maxSize);
+                        Assert.assertFalse("Id " + id + " was defined twice", defined[id]);
+                        defined[id] = true;
+                        count++;
+                    }
+                }
+            }
+            Assert.assertEquals(maxSize, count);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static JsonObject read(final String json) {
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return reader.readObject();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.io.StringReader;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.ext.AbstractTest;
+import org.jboss.logmanager.ext.formatters.StructuredFormatter.Key;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class RepeatedExceptionTrackerTest extends AbstractTest {
+
+    @Test
+    public void testWindow() {
+        final RepeatedExceptionTracker tracker = new RepeatedExceptionTracker(1000L);
+        Assert.assertEquals(1000L, tracker.getWindow());
+        Assert.assertEquals(0, tracker.occurred("first", 5000L));
+        Assert.assertEquals(1, tracker.occurred("first", 5100L));
+        // Another fingerprint has its own window
+        Assert.assertEquals(0, tracker.occurred("second", 5200L));
+        // A record formatted out of order is within the window
+        Assert.assertEquals(2, tracker.occurred("first", 4900L));
+        Assert.assertEquals(3, tracker.occurred("first", 5999L));
+        // The first occurrence after the window has elapsed starts a new window
+        Assert.assertEquals(0, tracker.occurred("first", 6000L));
+        Assert.assertEquals(1, tracker.occurred("first", 6500L));
+        Assert.assertEquals(1, tracker.occurred("second", 6100L));
+    }
+
+    @Test
+    public void testFormat() throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setExceptionOutputType(JsonFormatter.ExceptionOutputType.DETAILED_AND_FORMATTED);
+        formatter.setExceptionSuppressionWindow(1000L);
+        final long start = System.currentTimeMillis();
+
+        // Exceptions thrown from the same place share a fingerprint regardless of the message
+        final Throwable[] exceptions = new Throwable[5];
+        for (int i = 0; i < exceptions.length; i++) {
+            exceptions[i] = createException("Test Exception " + i);
+        }
+        final String[] fingerprints = new String[4];
+        for (int i = 0; i < fingerprints.length; i++) {
+            final ExtLogRecord record = createLogRecord("Test exception suppression " + i);
+            record.setMillis(start + (i * 100L));
+            record.setThrown(exceptions[i]);
+            final JsonObject json = read(formatter.format(record));
+            fingerprints[i] = json.getString(Key.EXCEPTION_FINGERPRINT.getKey());
+            Assert.assertEquals(16, fingerprints[i].length());
+            Assert.assertEquals(fingerprints[0], fingerprints[i]);
+            final JsonObject exception = json.getJsonObject(Key.EXCEPTION.getKey());
+            Assert.assertEquals("Test Exception " + i, exception.getString(Key.EXCEPTION_MESSAGE.getKey()));
+            if (i == 0) {
+                Assert.assertFalse(json.containsKey(Key.EXCEPTION_REPEAT_COUNT.getKey()));
+                Assert.assertTrue(exception.containsKey(Key.EXCEPTION_FRAMES.getKey()));
+                Assert.assertTrue(json.getString(Key.STACK_TRACE.getKey()).contains("Caused by: "));
+            } else {
+                Assert.assertEquals(i, json.getInt(Key.EXCEPTION_REPEAT_COUNT.getKey()));
+                Assert.assertFalse(exception.containsKey(Key.EXCEPTION_FRAMES.getKey()));
+                Assert.assertFalse(exception.containsKey(Key.EXCEPTION_CAUSED_BY.getKey()));
+                Assert.assertEquals(record.getThrown().toString(), json.getString(Key.STACK_TRACE.getKey()));
+            }
+        }
+
+        // A different exception type has a different fingerprint and is not suppressed
+        ExtLogRecord record = createLogRecord("Test exception suppression");
+        record.setMillis(start + 500L);
+        record.setThrown(new IllegalStateException("Test Exception"));
+        JsonObject json = read(formatter.format(record));
+        Assert.assertNotEquals(fingerprints[0], json.getString(Key.EXCEPTION_FINGERPRINT.getKey()));
+        Assert.assertFalse(json.containsKey(Key.EXCEPTION_REPEAT_COUNT.getKey()));
+
+        // Once the window has elapsed the exception is written in full
+        record = createLogRecord("Test exception suppression");
+        record.setMillis(start + 1000L);
+        record.setThrown(exceptions[4]);
+        json = read(formatter.format(record));
+        Assert.assertEquals(fingerprints[0], json.getString(Key.EXCEPTION_FINGERPRINT.getKey()));
+        Assert.assertFalse(json.containsKey(Key.EXCEPTION_REPEAT_COUNT.getKey()));
+        Assert.assertTrue(json.getJsonObject(Key.EXCEPTION.getKey()).containsKey(Key.EXCEPTION_FRAMES.getKey()));
+
+        // The fingerprint may be written without suppressing exceptions
+        formatter.setExceptionSuppressionWindow(0L);
+        formatter.setPrintExceptionFingerprint(true);
+        json = read(formatter.format(record));
+        Assert.assertEquals(fingerprints[0], json.getString(Key.EXCEPTION_FINGERPRINT.getKey()));
+        Assert.assertTrue(json.getJsonObject(Key.EXCEPTION.getKey()).containsKey(Key.EXCEPTION_FRAMES.getKey()));
+        formatter.setPrintExceptionFingerprint(false);
+        Assert.assertFalse(read(formatter.format(record)).containsKey(Key.EXCEPTION_FINGERPRINT.getKey()));
+    }
+
+    private static JsonObject read(final String json) {
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return reader.readObject();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.jboss.logmanager.ext.AbstractTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class Utf8EncoderTest extends AbstractTest {
+
+    @Test
+    public void testEncode() {
+        final String[] values = {
+                "",
+                "ascii \u0000\u007f",
+                // The boundaries of the two and three byte forms
+                "\u0080\u07ff\u0800\uffff",
+                "\u00e9\u20ac",
+                // A supplementary character is encoded from the surrogate pair
+                "\ud83d\ude00 \udbff\udfff",
+                // Unpaired surrogates are replaced
+                "\ud800",
+                "\udc00 low",
+                "\ud800 high",
+                "\ud800\ud800\udc00",
+        };
+        for (String value : values) {
+            Assert.assertArrayEquals(value, value.getBytes(StandardCharsets.UTF_8), encode(value, ByteBuffer.allocate(64)));
+        }
+    }
+
+    @Test
+    public void testGrow() {
+        final StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            value.append("ascii \u00e9\u20ac\ud83d\ude00 ");
+        }
+        final byte[] expected = value.toString().getBytes(StandardCharsets.UTF_8);
+        // Buffers which are too small are replaced with a larger buffer of the same kind retaining the existing bytes
+        for (ByteBuffer buffer : new ByteBuffer[] {ByteBuffer.allocate(4), ByteBuffer.allocateDirect(4)}) {
+            buffer.put((byte) 'x');
+            final ByteBuffer result = Utf8Encoder.encode(value, buffer);
+            Assert.assertNotSame(buffer, result);
+            Assert.assertEquals(buffer.isDirect(), result.isDirect());
+            Assert.assertEquals(expected.length + 1, result.position());
+            result.flip();
+            Assert.assertEquals('x', result.get());
+            final byte[] encoded = new byte[result.remaining()];
+            result.get(encoded);
+            Assert.assertArrayEquals(expected, encoded);
+        }
+
+        // A buffer with enough space remaining is used as is
+        final ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+        Assert.assertSame(buffer, Utf8Encoder.encode(value, buffer));
+        final ByteBuffer small = ByteBuffer.allocate(8);
+        Assert.assertSame(small, Utf8Encoder.ensureRemaining(small, 8));
+        Assert.assertEquals(16, Utf8Encoder.ensureRemaining(small, 9).capacity());
+    }
+
+    private static byte[] encode(final CharSequence value, final ByteBuffer buffer) {
+        final ByteBuffer result = Utf8Encoder.encode(value, buffer);
+        result.flip();
+        final byte[] bytes = new byte[result.remaining()];
+        result.get(bytes);
+        return bytes;
+    }
+}
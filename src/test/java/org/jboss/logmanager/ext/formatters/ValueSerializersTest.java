@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.formatters;
+
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.ext.AbstractTest;
+import org.jboss.logmanager.ext.formatters.StructuredFormatter.Key;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class ValueSerializersTest extends AbstractTest {
+
+    @Test
+    public void testKinds() {
+        final ValueSerializers serializers = ValueSerializers.DEFAULT;
+        Assert.assertEquals(ValueSerializers.Kind.STRING, serializers.getType(String.class).kind);
+        Assert.assertEquals(ValueSerializers.Kind.CHARS, serializers.getType(StringBuilder.class).kind);
+        Assert.assertEquals(ValueSerializers.Kind.BOOLEAN, serializers.getType(Boolean.class).kind);
+        Assert.assertEquals(ValueSerializers.Kind.INTEGER, serializers.getType(Long.class).kind);
+        Assert.assertEquals(ValueSerializers.Kind.FLOAT, serializers.getType(Float.class).kind);
+        Assert.assertEquals(ValueSerializers.Kind.DOUBLE, serializers.getType(Double.class).kind);
+        Assert.assertEquals(ValueSerializers.Kind.NUMBER, serializers.getType(BigInteger.class).kind);
+        Assert.assertEquals(ValueSerializers.Kind.JSON_VALUE, serializers.getType(JsonValue.TRUE.getClass()).kind);
+        Assert.assertEquals(ValueSerializers.Kind.OTHER, serializers.getType(Money.class).kind);
+        Assert.assertNull(serializers.getSerializer(Money.class));
+    }
+
+    @Test
+    public void testResolve() {
+        final ValueSerializer<Money> amountSerializer = new MoneySerializer();
+        final ValueSerializer<Money> moneySerializer = new MoneySerializer();
+        final ValueSerializers interfaceSerializers = ValueSerializers.DEFAULT.with(Amount.class, amountSerializer);
+        // A serializer for an interface applies to the implementations
+        Assert.assertSame(amountSerializer, interfaceSerializers.getSerializer(Money.class));
+        Assert.assertSame(amountSerializer, interfaceSerializers.getSerializer(SubMoney.class));
+        Assert.assertEquals(ValueSerializers.Kind.STRING, interfaceSerializers.getType(String.class).kind);
+
+        // A serializer for a class takes precedence over an interface, the closest class wins
+        final ValueSerializers serializers = interfaceSerializers.with(Money.class, moneySerializer);
+        Assert.assertSame(moneySerializer, serializers.getSerializer(SubMoney.class));
+        Assert.assertSame(amountSerializer, interfaceSerializers.getSerializer(SubMoney.class));
+
+        // The registry is immutable, removing the last serializer returns the default
+        Assert.assertEquals(1, serializers.without(Money.class).getSerializers().size());
+        Assert.assertSame(ValueSerializers.DEFAULT, interfaceSerializers.without(Amount.class));
+        Assert.assertSame(interfaceSerializers, interfaceSerializers.without(Money.class));
+    }
+
+    @Test
+    public void testFormat() throws Exception {
+        final ExtLogRecord record = createLogRecord("Test %s %s %s", new Money(new BigDecimal("9.99"), "EUR"),
+                new Money(new BigDecimal("1.50"), "USD"), new StringBuilder("chars"));
+        for (boolean useJsonProvider : new boolean[] {false, true}) {
+            final JsonFormatter formatter = new JsonFormatter();
+            formatter.setUseJsonProvider(useJsonProvider);
+            formatter.setMessageOutputType(StructuredFormatter.MessageOutputType.TEMPLATE);
+            formatter.setValueSerializers(Amount.class.getName() + "=" + MoneySerializer.class.getName());
+            JsonArray parameters = read(formatter.format(record)).getJsonArray(Key.MESSAGE_PARAMETERS.getKey());
+            // The serializer for the interface applies to the implementation
+            JsonObject money = parameters.getJsonObject(0);
+            Assert.assertEquals(new BigDecimal("9.99"), money.getJsonNumber("amount").bigDecimalValue());
+            Assert.assertEquals("EUR", money.getString("currency"));
+            Assert.assertEquals("USD", parameters.getJsonObject(1).getString("currency"));
+            Assert.assertEquals("chars", parameters.getString(2));
+
+            // A serializer for the class takes precedence over the interface
+            formatter.addValueSerializer(Money.class, new ValueSerializer<Money>() {
+                @Override
+                public void serialize(final StructuredFormatter.Generator generator, final String key, final Money value) throws Exception {
+                    generator.add(key, value.currency + " " + value.amount);
+                }
+            });
+            parameters = read(formatter.format(record)).getJsonArray(Key.MESSAGE_PARAMETERS.getKey());
+            Assert.assertEquals("EUR 9.99", parameters.getString(0));
+
+            // Without a serializer the string representation is written
+            Assert.assertTrue(formatter.removeValueSerializer(Money.class));
+            Assert.assertTrue(formatter.removeValueSerializer(Amount.class));
+            Assert.assertFalse(formatter.removeValueSerializer(Amount.class));
+            parameters = read(formatter.format(record)).getJsonArray(Key.MESSAGE_PARAMETERS.getKey());
+            Assert.assertEquals("9.99 EUR", parameters.getString(0));
+        }
+    }
+
+    private static JsonObject read(final String json) {
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return reader.readObject();
+        }
+    }
+
+    public interface Amount {
+        BigDecimal getAmount();
+    }
+
+    private static class Money implements Amount {
+        final BigDecimal amount;
+        final String currency;
+
+        private Money(final BigDecimal amount, final String currency) {
+            this.amount = amount;
+            this.currency = currency;
+        }
+
+        @Override
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        @Override
+        public String toString() {
+            return amount + " " + currency;
+        }
+    }
+
+    public static class MoneySerializer implements ValueSerializer<Money> {
+        @Override
+        public void serialize(final StructuredFormatter.Generator generator, final String key, final Money value) throws Exception {
+            generator.startObject(key);
+            generator.addValue("amount", value.amount);
+            generator.addValue("currency", value.currency);
+            generator.endObject();
+        }
+    }
+
+    private static class SubMoney extends Money {
+        private SubMoney(final BigDecimal amount, final String currency) {
+            super(amount, currency);
+        }
+    }
+}
@@ -20,6 +20,9 @@
 package org.jboss.logmanager.ext.formatters;
 
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
 import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Date;
@@ -53,8 +56,167 @@ public class XmlFormatterTest extends AbstractTest {
 
     @Test
     public void validate() throws Exception {
-        // Configure the formatter
+        validate(false);
+    }
+
+    @Test
+    public void validatePrettyPrint() throws Exception {
+        validate(true);
+    }
+
+    @Test
+    public void testFormatterCollected() throws Exception {
+        // The generator is cached by a thread local of the formatter, it must not keep the formatter reachable
+        assertCollected(formatAndRelease());
+    }
+
+    private WeakReference<XmlFormatter> formatAndRelease() {
+        final XmlFormatter formatter = new XmlFormatter();
+        formatter.setExceptionOutputType(StructuredFormatter.ExceptionOutputType.DETAILED_AND_FORMATTED);
+        final ExtLogRecord record = createLogRecord("Test collected");
+        record.setThrown(new RuntimeException("Test Exception"));
+        formatter.format(record);
+        return new WeakReference<>(formatter);
+    }
+
+    @Test
+    public void testStreamedValues() throws Exception {
+        testStreamedValues(false);
+    }
+
+    @Test
+    public void testStreamedValuesPrettyPrint() throws Exception {
+        testStreamedValues(true);
+    }
+
+    private void testStreamedValues(final boolean prettyPrint) throws Exception {
+        // The message and stack trace written in pieces must match the values built and then added
+        final ExtLogRecord record = createLogRecord(Level.ERROR, "Control \u0001\t\"characters\"\r\n<&> %s", "\uD83D\uDE00");
+        record.setLoggerName("org.jboss.logmanager.ext.test");
+        final Throwable cause = new IllegalStateException("Cause\u001f\\\n  second line");
+        final Throwable thrown = new RuntimeException("Test \"exception\"\u0000", cause);
+        thrown.addSuppressed(new IllegalArgumentException("Suppressed <&>"));
+        record.setThrown(thrown);
+
+        final XmlFormatter streamed = new XmlFormatter();
+        final XmlFormatter buffered = new XmlFormatter() {
+            @Override
+            protected Generator createGenerator(final Writer writer) {
+                return new BufferedGenerator(super.createGenerator(writer));
+            }
+        };
+        for (XmlFormatter formatter : new XmlFormatter[] {streamed, buffered}) {
+            formatter.setPrettyPrint(prettyPrint);
+            formatter.setExceptionOutputType(StructuredFormatter.ExceptionOutputType.DETAILED_AND_FORMATTED);
+        }
+        final String result = streamed.format(record);
+        Assert.assertTrue(result, result.contains("second line"));
+        Assert.assertEquals(buffered.format(record), result);
+    }
+
+    @Test
+    public void testSplitEscapes() throws Exception {
+        testSplitEscapes(false);
+    }
+
+    @Test
+    public void testSplitEscapesPrettyPrint() throws Exception {
+        testSplitEscapes(true);
+    }
+
+    private static void testSplitEscapes(final boolean prettyPrint) throws Exception {
+        final XmlFormatter formatter = new XmlFormatter();
+        formatter.setPrettyPrint(prettyPrint);
+        final String value = "a\u0000b\u001f\"\\\r\n\t<&>\n\uD83D\uDE00\u007f\u2028c\n";
+        final String expected = writeValue(formatter, value, -1);
+        // Every escaped character, and each half of the surrogate pair, is split from its neighbours by some append
+        for (int split = 0; split <= value.length(); split++) {
+            Assert.assertEquals("Split at " + split, expected, writeValue(formatter, value, split));
+        }
+        Assert.assertEquals(expected, writeValue(formatter, value, value.length() + 1));
+    }
+
+    /**
+     * Writes the value with a single add when the split is negative, in two appends split at the index or, when the
+     * split is past the end, a character at a time.
+     */
+    private static String writeValue(final XmlFormatter formatter, final String value, final int split) throws Exception {
+        final StringWriter writer = new StringWriter();
+        final StructuredFormatter.Generator generator = formatter.createGenerator(writer);
+        generator.begin();
+        if (split < 0) {
+            generator.add("value", value);
+        } else {
+            final Appendable appendable = generator.beginValue("value");
+            if (split > value.length()) {
+                for (int i = 0; i < value.length(); i++) {
+                    appendable.append(value.charAt(i));
+                }
+            } else {
+                appendable.append(value.substring(0, split));
+                appendable.append(value, split, value.length());
+            }
+            generator.endValue();
+        }
+        generator.end();
+        return writer.toString();
+    }
+
+    @Test
+    public void validateExceptionLimits() throws Exception {
+        final XmlFormatter formatter = new XmlFormatter();
+        formatter.setMaxExceptionFrames(1);
+        formatter.setMaxSuppressedExceptions(1);
+        formatter.setElideCommonFrames(true);
+        validate(formatter, true);
+    }
+
+    @Test
+    public void validateDictionary() throws Exception {
         final XmlFormatter formatter = new XmlFormatter();
+        formatter.setUseDictionary(true);
+        validate(formatter, true);
+    }
+
+    @Test
+    public void validateExceptionSuppression() throws Exception {
+        final XmlFormatter formatter = new XmlFormatter();
+        formatter.setExceptionSuppressionWindow(60000L);
+        validate(formatter, true);
+    }
+
+    @Test
+    public void validateMessageTemplate() throws Exception {
+        final XmlFormatter formatter = new XmlFormatter();
+        formatter.setMessageOutputType(StructuredFormatter.MessageOutputType.FORMATTED_AND_TEMPLATE);
+        validate(formatter, true);
+
+        formatter.setPrettyPrint(false);
+        final String message = formatter.format(createLogRecord("Test %s %d %s", "<message>", 1, null));
+        Assert.assertTrue(message, message.contains("<messageTemplate>Test %s %d %s</messageTemplate>"));
+        Assert.assertTrue(message, message.contains("<messageParameters><parameter>&lt;message&gt;</parameter><parameter>1</parameter><parameter/></messageParameters>"));
+        validate(message);
+
+        // Serializers may write a nested structure
+        formatter.addValueSerializer(Thread.State.class, new ValueSerializer<Thread.State>() {
+            @Override
+            public void serialize(final StructuredFormatter.Generator generator, final String key, final Thread.State value) throws Exception {
+                generator.startObject(key);
+                generator.addValue("state", value.name());
+                generator.endObject();
+            }
+        });
+        final String serialized = formatter.format(createLogRecord("Test %s", Thread.State.NEW));
+        Assert.assertTrue(serialized, serialized.contains("<messageParameters><parameter><state>NEW</state></parameter></messageParameters>"));
+    }
+
+    private void validate(final boolean prettyPrint) throws Exception {
+        validate(new XmlFormatter(), prettyPrint);
+    }
+
+    private void validate(final XmlFormatter formatter, final boolean prettyPrint) throws Exception {
+        // Configure the formatter
+        formatter.setPrettyPrint(prettyPrint);
         formatter.setPrintNamespace(true);
         formatter.setPrintDetails(true);
         formatter.setExceptionOutputType(StructuredFormatter.ExceptionOutputType.DETAILED_AND_FORMATTED);
@@ -66,7 +228,25 @@ public class XmlFormatterTest extends AbstractTest {
         record.setThrown(createMultiNestedCause());
         record.putMdc("testMdcKey", "testMdcValue");
         record.setNdc("testNdc");
+        final String first = formatter.format(record);
         final String message = formatter.format(record);
+        if (formatter.getExceptionSuppressionWindow() != 0L) {
+            // The second record is a repeated exception
+            Assert.assertTrue(message, message.contains("<exceptionRepeatCount>1</exceptionRepeatCount>"));
+        } else if (formatter.isUseDictionary()) {
+            // The second record references the entries defined by the first record
+            Assert.assertTrue(first, first.contains("<dictionary>"));
+            Assert.assertFalse(message, message.contains("<dictionary>"));
+            Assert.assertTrue(message, message.contains("<frame ref=\""));
+            validate(first);
+        } else {
+            // The meta data rendered for the first record is reused for subsequent records
+            Assert.assertEquals(first, message);
+        }
+        validate(message);
+    }
+
+    private void validate(final String message) throws Exception {
 
         final ErrorHandler handler = new ErrorHandler() {
             @Override
@@ -134,6 +314,30 @@ public class XmlFormatterTest extends AbstractTest {
         compare(record, formatter);
     }
 
+    @Test
+    public void testEscapedFormat() throws Exception {
+        final XmlFormatter formatter = new XmlFormatter();
+        formatter.setPrintDetails(true);
+        formatter.setMetaData("vendor=<Red Hat & \"JBoss\">");
+        final ExtLogRecord record = createLogRecord("Test <formatted> & \"escaped\" %s", "message > 1");
+        record.setThrown(new IllegalStateException("<Exception> & cause"));
+        record.putMdc("testMdcKey", "<testMdcValue & more>");
+        record.setNdc("a < b");
+        final String message = formatter.format(record);
+        Assert.assertTrue(message, message.contains("<metaData key=\"vendor\">&lt;Red Hat &amp; \"JBoss\"&gt;</metaData>"));
+        Assert.assertTrue(message, message.contains("<message>&lt;Exception&gt; &amp; cause</message>"));
+        compare(record, message);
+
+        // The same generator should be reused without any state from the previous record
+        formatter.setPrettyPrint(true);
+        final String prettyMessage = formatter.format(record);
+        Assert.assertTrue(prettyMessage, prettyMessage.startsWith("\n<record>\n    <timestamp>"));
+        Assert.assertTrue(prettyMessage, prettyMessage.endsWith("\n</record>\n"));
+        Assert.assertEquals(prettyMessage, formatter.format(record));
+        formatter.setPrettyPrint(false);
+        Assert.assertEquals(message, formatter.format(record));
+    }
+
     private static int getInt(final XMLStreamReader reader) throws XMLStreamException {
         final String value = getString(reader, true);
         if (value != null) {
@@ -200,6 +404,7 @@ public class XmlFormatterTest extends AbstractTest {
 
     private static void compare(final ExtLogRecord record, final String xmlString) throws XMLStreamException {
         final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
         final XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(xmlString));
 
         boolean inException = false;
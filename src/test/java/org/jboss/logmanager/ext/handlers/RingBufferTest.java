@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.handlers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class RingBufferTest {
+
+    @Test
+    public void testCapacity() {
+        Assert.assertEquals(2, new RingBuffer<String>(1).capacity());
+        Assert.assertEquals(2, new RingBuffer<String>(2).capacity());
+        Assert.assertEquals(4, new RingBuffer<String>(3).capacity());
+        Assert.assertEquals(1024, new RingBuffer<String>(1024).capacity());
+        Assert.assertEquals(2048, new RingBuffer<String>(1025).capacity());
+        for (int capacity : new int[] {0, -1, Integer.MAX_VALUE}) {
+            try {
+                new RingBuffer<String>(capacity);
+                Assert.fail("Expected the capacity to be invalid: " + capacity);
+            } catch (IllegalArgumentException ignore) {
+            }
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        final RingBuffer<String> queue = new RingBuffer<>(4);
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(0, queue.size());
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.offer("first"));
+        Assert.assertFalse(queue.isEmpty());
+        Assert.assertEquals("first", queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testFull() {
+        final RingBuffer<String> queue = new RingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(queue.offer("value" + i));
+        }
+        Assert.assertEquals(4, queue.size());
+        Assert.assertFalse(queue.offer("rejected"));
+        // Polling frees a single slot
+        Assert.assertEquals("value0", queue.poll());
+        Assert.assertTrue(queue.offer("value4"));
+        Assert.assertFalse(queue.offer("rejected"));
+        for (int i = 1; i <= 4; i++) {
+            Assert.assertEquals("value" + i, queue.poll());
+        }
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testWraparound() {
+        final RingBuffer<Integer> queue = new RingBuffer<>(4);
+        int next = 0;
+        int expected = 0;
+        // Each lap leaves the head and tail at a different slot
+        for (int lap = 0; lap < 100; lap++) {
+            final int count = 1 + lap % 4;
+            for (int i = 0; i < count; i++) {
+                Assert.assertTrue(queue.offer(next++));
+            }
+            Assert.assertEquals(count, queue.size());
+            for (int i = 0; i < count; i++) {
+                Assert.assertEquals(Integer.valueOf(expected++), queue.poll());
+            }
+            Assert.assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final RingBuffer<Integer> queue = new RingBuffer<>(16);
+        final int producers = 4;
+        final int count = 10000;
+        final ExecutorService executor = Executors.newFixedThreadPool(producers * 2);
+        try {
+            final List<Future<long[]>> consumed = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                final int producer = p;
+                executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < count; i++) {
+                            while (!queue.offer(producer * count + i)) {
+                                Thread.yield();
+                            }
+                        }
+                        return null;
+                    }
+                });
+                consumed.add(executor.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() {
+                        // The number of elements polled and their sum
+                        final long[] result = new long[2];
+                        while (result[0] < count) {
+                            final Integer element = queue.poll();
+                            if (element == null) {
+                                Thread.yield();
+                            } else {
+                                result[0]++;
+                                result[1] += element;
+                            }
+                        }
+                        return result;
+                    }
+                }));
+            }
+            // Every element must be polled exactly once
+            long sum = 0L;
+            for (Future<long[]> result : consumed) {
+                sum += result.get(30, TimeUnit.SECONDS)[1];
+            }
+            final long total = (long) producers * count;
+            Assert.assertEquals(total * (total - 1) / 2, sum);
+            Assert.assertTrue(queue.isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
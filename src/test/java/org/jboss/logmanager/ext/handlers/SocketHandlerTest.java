@@ -0,0 +1,653 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.logmanager.ext.handlers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.ErrorManager;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.Level;
+import org.jboss.logmanager.ext.AbstractTest;
+import org.jboss.logmanager.ext.formatters.DictionaryDecoder;
+import org.jboss.logmanager.ext.formatters.JsonFormatter;
+import org.jboss.logmanager.formatters.PatternFormatter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class SocketHandlerTest extends AbstractTest {
+
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+    private volatile Charset serverCharset = StandardCharsets.UTF_8;
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+    // The number of accepted connections to close without reading
+    private final AtomicInteger rejectedConnections = new AtomicInteger();
+
+    @Before
+    public void startServer() throws Exception {
+        startServer(0);
+    }
+
+    private void startServer(final int port) throws Exception {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 50);
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        if (rejectedConnections.getAndDecrement() > 0) {
+                            socket.close();
+                            continue;
+                        }
+                        final Thread reader = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), serverCharset))) {
+                                    String line;
+                                    while ((line = in.readLine()) != null) {
+                                        lines.add(line);
+                                    }
+                                } catch (IOException ignore) {
+                                }
+                            }
+                        });
+                        reader.setDaemon(true);
+                        reader.start();
+                    } catch (IOException ignore) {
+                    }
+                }
+            }
+        });
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        serverSocket.close();
+        acceptThread.join(5000L);
+    }
+
+    @Test
+    public void testEncodedRecords() throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        final SocketHandler handler = createHandler(formatter);
+        handler.setEncoding("UTF-8");
+        try {
+            final ExtLogRecord record = createLogRecord("Test \u00e9\u20ac %s", "message");
+            handler.publish(record);
+            handler.publish(createLogRecord(Level.WARN, "Second message"));
+            Assert.assertEquals(formatter.format(record).trim(), poll());
+            Assert.assertTrue(poll().contains("\"message\":\"Second message\""));
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void testFormattedRecords() throws Exception {
+        serverCharset = StandardCharsets.ISO_8859_1;
+        final SocketHandler handler = createHandler(new PatternFormatter("%s%n"));
+        handler.setEncoding("ISO-8859-1");
+        try {
+            handler.publish(createLogRecord("Test \u00e9 %s", "message"));
+            handler.publish(createLogRecord(""));
+            handler.publish(createLogRecord("Last message"));
+            Assert.assertEquals("Test \u00e9 message", poll());
+            Assert.assertEquals("", poll());
+            Assert.assertEquals("Last message", poll());
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void testDictionaryRecords() throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setUseDictionary(true);
+        final SocketHandler handler = createHandler(formatter);
+        handler.setEncoding("UTF-8");
+        try {
+            final ExtLogRecord record = createLogRecord(Level.ERROR, "Test dictionary");
+            record.setLoggerName("org.jboss.logmanager.ext.test");
+            record.setThrown(new IllegalStateException("Test exception"));
+            final String expected = new DictionaryDecoder().decode(formatter.format(record));
+            DictionaryDecoder decoder = new DictionaryDecoder();
+            handler.publish(record);
+            handler.publish(record);
+            Assert.assertEquals(expected, decoder.decode(poll()));
+            Assert.assertEquals(expected, decoder.decode(poll()));
+
+            // A new connection starts a new dictionary
+            handler.setPort(serverSocket.getLocalPort());
+            decoder = new DictionaryDecoder();
+            handler.publish(record);
+            Assert.assertEquals(expected, decoder.decode(poll()));
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void testAsyncRecords() throws Exception {
+        final JsonFormatter formatter = new JsonFormatter();
+        formatter.setUseDictionary(true);
+        final SocketHandler handler = createHandler(formatter);
+        handler.setEncoding("UTF-8");
+        handler.setAsync(true);
+        try {
+            final DictionaryDecoder decoder = new DictionaryDecoder();
+            for (int i = 0; i < 100; i++) {
+                final ExtLogRecord record = createLogRecord("Async message %d", i);
+                record.setLoggerName("org.jboss.logmanager.ext.test");
+                handler.publish(record);
+            }
+            for (int i = 0; i < 100; i++) {
+                Assert.assertTrue(decoder.decode(poll()).contains("\"message\":\"Async message " + i + "\""));
+            }
+            Assert.assertEquals(0L, handler.getDroppedCount());
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void testAsyncReusedBuffers() throws Exception {
+        final SocketHandler handler = createHandler(new PatternFormatter("%s%n"));
+        handler.setAsync(true);
+        handler.setQueueLength(4);
+        try {
+            // Longer and shorter records are encoded into the buffers the writer has finished with
+            final StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                expected.setLength(0);
+                expected.append("Message ").append(i);
+                for (int j = 0; j < (i * 37) % 300; j++) {
+                    expected.append((char) ('a' + j % 26));
+                }
+                handler.publish(createLogRecord(expected.toString()));
+                Assert.assertEquals(expected.toString(), poll());
+            }
+            Assert.assertEquals(0L, handler.getDroppedCount());
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void testAsyncClosed() throws Exception {
+        final SocketHandler handler = createHandler(new PatternFormatter("%s%n"));
+        handler.setAsync(true);
+        handler.publish(createLogRecord("First message"));
+        Assert.assertEquals("First message", poll());
+        handler.close();
+        // A record published after the writer was stopped must not leave a new writer running
+        handler.publish(createLogRecord("Closed message"));
+        Assert.assertEquals(1L, handler.getDroppedCount());
+        Assert.assertFalse("A writer thread is still running", isWriterRunning());
+        Assert.assertNull(lines.poll(200L, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testAsyncStalledPeer() throws Exception {
+        // A peer which accepts the connection but never reads
+        try (ServerSocket stalled = new ServerSocket()) {
+            stalled.setReceiveBufferSize(4096);
+            stalled.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+            final SocketHandler handler = new SocketHandler(stalled.getInetAddress(), stalled.getLocalPort());
+            handler.setFormatter(new PatternFormatter("%s%n"));
+            handler.setSendBufferSize(4096);
+            handler.setAsync(true);
+            handler.setQueueLength(4);
+            handler.setOverflowPolicy(SocketHandler.OverflowPolicy.DROP_NEW);
+            final StringBuilder large = new StringBuilder();
+            while (large.length() < 16 * 1024) {
+                large.append("0123456789");
+            }
+            final Thread publisher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        handler.publish(createLogRecord(large.toString()));
+                    }
+                }
+            });
+            Socket accepted = null;
+            try {
+                publisher.start();
+                accepted = stalled.accept();
+                // The writer thread is blocked writing to the socket, publishing must not wait for it
+                publisher.join(10000L);
+                Assert.assertFalse("The publishing thread is blocked", publisher.isAlive());
+                Assert.assertTrue(handler.getDroppedCount() > 0L);
+            } finally {
+                // Fails the blocked write so the handler can be closed
+                if (accepted != null) {
+                    accepted.close();
+                }
+                handler.close();
+            }
+        }
+    }
+
+    @Test
+    public void testAsyncDroppedRecords() throws Exception {
+        final SocketHandler handler = createHandler(new PatternFormatter("%s%n"));
+        handler.setAsync(true);
+        handler.setQueueLength(2);
+        handler.setOverflowPolicy(SocketHandler.OverflowPolicy.DROP_NEW);
+        handler.setDroppedReportInterval(1L);
+        try {
+            handler.publish(createLogRecord("First message"));
+            Assert.assertEquals("First message", poll());
+            // Holding the lock stops the writer thread from writing records
+            synchronized (handler) {
+                for (int i = 0; i < 10; i++) {
+                    handler.publish(createLogRecord("Message %d", i));
+                }
+                Assert.assertTrue(handler.getDroppedCount() >= 7L);
+            }
+            final long dropped = handler.getDroppedCount();
+            // The report may be written before the queued records
+            final List<String> written = new ArrayList<>();
+            for (long i = dropped; i <= 10L; i++) {
+                written.add(poll());
+            }
+            Assert.assertTrue("Missing report in " + written, written.remove(dropped + " log records were dropped"));
+            for (String line : written) {
+                Assert.assertTrue(line.startsWith("Message "));
+            }
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void testBatchedRecords() throws Exception {
+        final SocketHandler handler = createHandler(new PatternFormatter("%s%n"));
+        handler.setAsync(true);
+        handler.setLingerTime(TimeUnit.MINUTES.toMillis(1L));
+        handler.setMaxBatchRecords(3);
+        try {
+            // The batch is sent once the maximum records is reached
+            for (int i = 0; i < 3; i++) {
+                handler.publish(createLogRecord("Batch message %d", i));
+            }
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals("Batch message " + i, poll());
+            }
+
+            // A flush sends the batch without waiting for the linger time
+            handler.publish(createLogRecord("Lingering message"));
+            Assert.assertNull(lines.poll(200L, TimeUnit.MILLISECONDS));
+            handler.flush();
+            Assert.assertEquals("Lingering message", poll());
+
+            handler.setLingerTime(500L);
+            handler.publish(createLogRecord("Last message"));
+            Assert.assertEquals("Last message", poll());
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        final SocketHandler handler = createHandler(new PatternFormatter("%s%n"));
+        handler.setAutoFlush(false);
+        handler.setGroupCommit(true);
+        handler.setMaxBatchRecords(16);
+        final int threadCount = 8;
+        final int recordCount = 100;
+        try {
+            final Thread[] threads = new Thread[threadCount];
+            for (int t = 0; t < threadCount; t++) {
+                final int id = t;
+                threads[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < recordCount; i++) {
+                            handler.publish(createLogRecord("Thread %d message %d", id, i));
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join(10000L);
+            }
+            // Each record was written before publish returned
+            final int[] next = new int[threadCount];
+            for (int i = 0; i < threadCount * recordCount; i++) {
+                final String[] parts = poll().split(" ");
+                final int id = Integer.parseInt(parts[1]);
+                Assert.assertEquals(next[id]++, Integer.parseInt(parts[3]));
+            }
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        final int port = serverSocket.getLocalPort();
+        stopServer();
+        final BlockingQueue<Integer> errors = new LinkedBlockingQueue<>();
+        final SocketHandler handler = createHandler(new PatternFormatter("%s%n"));
+        handler.setErrorManager(new ErrorManager() {
+            @Override
+            public synchronized void error(final String msg, final Exception ex, final int code) {
+                errors.add(code);
+            }
+        });
+        handler.setReconnectDelay(10L);
+        handler.setMaxReconnectDelay(100L);
+        try {
+            // The failed connection is reported and the handler fails fast until reconnected
+            handler.publish(createLogRecord("Lost message"));
+            Assert.assertEquals(Integer.valueOf(ErrorManager.OPEN_FAILURE), errors.poll());
+            Assert.assertFalse(handler.isAvailable());
+            handler.publish(createLogRecord("Dropped message"));
+            Assert.assertEquals(1L, handler.getDroppedCount());
+
+            startServer(port);
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+            while (!handler.isAvailable() && System.nanoTime() < deadline) {
+                Thread.sleep(10L);
+            }
+            Assert.assertTrue("The handler did not reconnect", handler.isAvailable());
+            handler.publish(createLogRecord("Reconnected message"));
+            Assert.assertEquals("Reconnected message", poll());
+            Assert.assertTrue("Unexpected errors " + errors, errors.isEmpty());
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void testGroupCommitRetry() throws Exception {
+        rejectedConnections.set(1);
+        final BlockingQueue<Integer> errors = new LinkedBlockingQueue<>();
+        final SocketHandler handler = createHandler(new PatternFormatter("%s%n"));
+        handler.setErrorManager(new ErrorManager() {
+            @Override
+            public synchronized void error(final String msg, final Exception ex, final int code) {
+                errors.add(code);
+            }
+        });
+        handler.setGroupCommit(true);
+        handler.setReconnectDelay(10L);
+        try {
+            // The first connection is closed by the peer, the records of a failed write are written once reconnected
+            for (int i = 0; i < 20; i++) {
+                handler.publish(createLogRecord("Message %d", i));
+                Thread.sleep(10L);
+            }
+            Assert.assertEquals(Integer.valueOf(ErrorManager.WRITE_FAILURE), errors.poll());
+            Assert.assertEquals(0L, handler.getDroppedCount());
+            String line;
+            int last = -1;
+            while ((line = lines.poll(1L, TimeUnit.SECONDS)) != null) {
+                final int i = Integer.parseInt(line.substring("Message ".length()));
+                if (last >= 0) {
+                    Assert.assertEquals(last + 1, i);
+                }
+                last = i;
+            }
+            Assert.assertEquals(19, last);
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void testGroupCommitReconnect() throws Exception {
+        final int port = serverSocket.getLocalPort();
+        stopServer();
+        final SocketHandler handler = createHandler(new PatternFormatter("%s%n"));
+        handler.setErrorManager(new ErrorManager() {
+            @Override
+            public void error(final String msg, final Exception ex, final int code) {
+            }
+        });
+        handler.setGroupCommit(true);
+        handler.setReconnectDelay(10L);
+        handler.setMaxReconnectDelay(100L);
+        try {
+            // The handler does not fail fast, the publishing threads wait for the connection
+            final Thread[] publishers = new Thread[2];
+            for (int t = 0; t < publishers.length; t++) {
+                final int id = t;
+                publishers[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handler.publish(createLogRecord("Waiting message %d", id));
+                    }
+                });
+                publishers[t].start();
+            }
+            Thread.sleep(200L);
+            for (Thread publisher : publishers) {
+                Assert.assertTrue("The record was not kept for the connection", publisher.isAlive());
+            }
+            startServer(port);
+            final List<String> received = new ArrayList<>();
+            for (Thread publisher : publishers) {
+                publisher.join(10000L);
+                Assert.assertFalse(publisher.isAlive());
+                received.add(poll());
+            }
+            Assert.assertTrue(received.contains("Waiting message 0"));
+            Assert.assertTrue(received.contains("Waiting message 1"));
+            Assert.assertEquals(0L, handler.getDroppedCount());
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void testGroupCommitDatagrams() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            socket.setSoTimeout(10000);
+            final SocketHandler handler = new SocketHandler(SocketHandler.Protocol.UDP, socket.getLocalAddress(), socket.getLocalPort());
+            handler.setFormatter(new PatternFormatter("%s"));
+            handler.setEncoding("UTF-8");
+            handler.setGroupCommit(true);
+            try {
+                final Thread[] threads = new Thread[4];
+                for (int t = 0; t < threads.length; t++) {
+                    threads[t] = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (int i = 0; i < 5; i++) {
+                                handler.publish(createLogRecord("Datagram"));
+                            }
+                        }
+                    });
+                    threads[t].start();
+                }
+                for (Thread thread : threads) {
+                    thread.join(10000L);
+                }
+                // Records are never combined into a single datagram
+                final DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+                for (int i = 0; i < 20; i++) {
+                    socket.receive(packet);
+                    Assert.assertEquals("Datagram", new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+                }
+            } finally {
+                handler.close();
+            }
+        }
+    }
+
+    @Test
+    public void testChannelRecords() throws Exception {
+        final SocketHandler handler = createHandler(new PatternFormatter("%s%n"));
+        handler.setEncoding("UTF-8");
+        handler.setUseChannel(true);
+        handler.setTcpNoDelay(true);
+        handler.setKeepAlive(true);
+        handler.setSendBufferSize(8192);
+        try {
+            handler.publish(createLogRecord("Channel \u00e9 %s", "message"));
+            Assert.assertEquals("Channel \u00e9 message", poll());
+
+            // Records larger than the buffers are sent in order
+            final StringBuilder large = new StringBuilder();
+            while (large.length() < ChannelOutputStream.BUFFER_SIZE * ChannelOutputStream.MAX_BUFFERS * 2) {
+                large.append("0123456789");
+            }
+            handler.setAsync(true);
+            for (int i = 0; i < 100; i++) {
+                handler.publish(createLogRecord("Async message %d", i));
+                if (i == 50) {
+                    handler.publish(createLogRecord(large.toString()));
+                }
+            }
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals("Async message " + i, poll());
+                if (i == 50) {
+                    Assert.assertEquals(large.toString(), poll());
+                }
+            }
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void testStreamDatagrams() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            socket.setSoTimeout(10000);
+            final SocketHandler handler = new SocketHandler(SocketHandler.Protocol.UDP, socket.getLocalAddress(), socket.getLocalPort());
+            handler.setFormatter(new PatternFormatter("%s"));
+            handler.setEncoding("UTF-8");
+            try {
+                // Each record is sent as a single datagram
+                handler.publish(createLogRecord("First datagram"));
+                handler.publish(createLogRecord("Second datagram"));
+                final DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+                socket.receive(packet);
+                Assert.assertEquals("First datagram", new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+                socket.receive(packet);
+                Assert.assertEquals("Second datagram", new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+            } finally {
+                handler.close();
+            }
+        }
+    }
+
+    @Test
+    public void testBatchedDatagrams() throws Exception {
+        for (boolean useChannel : new boolean[] {false, true}) {
+            try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+                socket.setSoTimeout(10000);
+                final SocketHandler handler = new SocketHandler(SocketHandler.Protocol.UDP, socket.getLocalAddress(), socket.getLocalPort());
+                handler.setFormatter(new PatternFormatter("%s"));
+                handler.setEncoding("UTF-8");
+                handler.setUseChannel(useChannel);
+                handler.setAsync(true);
+                handler.setLingerTime(100L);
+                try {
+                    // Records are never combined into a single datagram
+                    for (int i = 0; i < 20; i++) {
+                        handler.publish(createLogRecord("Datagram %d", i));
+                    }
+                    final DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+                    for (int i = 0; i < 20; i++) {
+                        socket.receive(packet);
+                        Assert.assertEquals("Datagram " + i, new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+                    }
+                } finally {
+                    handler.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testChannelDatagrams() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            socket.setSoTimeout(10000);
+            final SocketHandler handler = new SocketHandler(SocketHandler.Protocol.UDP, socket.getLocalAddress(), socket.getLocalPort());
+            handler.setFormatter(new PatternFormatter("%s"));
+            handler.setEncoding("UTF-8");
+            handler.setUseChannel(true);
+            try {
+                handler.publish(createLogRecord("First datagram"));
+                handler.publish(createLogRecord("Second datagram"));
+                final DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+                socket.receive(packet);
+                Assert.assertEquals("First datagram", new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+                socket.receive(packet);
+                Assert.assertEquals("Second datagram", new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+            } finally {
+                handler.close();
+            }
+        }
+    }
+
+    private SocketHandler createHandler(final java.util.logging.Formatter formatter) {
+        final SocketHandler handler = new SocketHandler(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+        handler.setFormatter(formatter);
+        handler.setAutoFlush(true);
+        return handler;
+    }
+
+    private static boolean isWriterRunning() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("SocketHandler Writer") && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String poll() throws InterruptedException {
+        final String line = lines.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull("Timed out waiting for a record", line);
+        return line;
+    }
+}